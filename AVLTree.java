@@ -1,3 +1,38 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 /**
  *
@@ -8,11 +43,31 @@
  *
  */
 
-public class AVLTree {
+public class AVLTree implements OrderedIndex {
 	
     private AVLNode min; //node with the minimal key of the tree
 	private AVLNode max; //node with the maximal key of the tree
 	private AVLNode root; //root of the tree
+	private AVLNode lastPosition; //hint for finger searches - the node reached by the last near access
+	private ChangeFeed feed; //receives the changes of the tree, null if there is no feed
+	private ValuePool valuePool; //canonical instances of the values, null if the values are not interned
+	private ValueArena valueArena; //UTF-8 storage of the values of the nodes created by this tree, null if they are kept as strings
+	private RebalancePolicy policy = RebalancePolicy.AVL; //the rank rules the tree keeps
+	private NodeArena nodeArena; //free list of the removed nodes for reuse, null if the nodes are not recycled
+	private Trace trace; //receives the calls of the tree, null if they are not recorded
+	private KeyFilter keyFilter; //counting Bloom filter of the keys, null if misses are not filtered
+	private ArrayDeque<AVLNode> unbalanced; //nodes under which the tree changed without rebalancing, null if it rebalances eagerly
+	private int maxUnbalanced; //the number of recorded nodes an update may leave
+	
+	/**
+	 * public enum RebalancePolicy
+	 * the rank rules a tree keeps.
+	 * AVL - every rank difference is 1 or 2, and no node is 2,2.
+	 * WAVL - weak AVL, every rank difference is 1 or 2 and leaves are 1,1. insertions rebalance
+	 * like AVL, but deletions make O(1) rotations and O(1) amortized rank changes.
+	 * every AVL tree is a WAVL tree, so a tree can always move from AVL to WAVL.
+	 */
+	public enum RebalancePolicy { AVL, WAVL }
 	
 	/**
 	* Creates and returns an object of type AVLTree initialized with default parameters
@@ -65,23 +120,37 @@ public class AVLTree {
     */
 	public String search(int k)
 	{
+		String info = null;
+		if(this.keyFilter == null || this.keyFilter.mightContain(k)) //else a sure miss, no need to walk the tree
+		{
+			AVLNode node = treePosition(this.root, k);
+			info = node.isRealNode() && node.getKey() == k ? node.getValue() : null;
+		}
+		record(Trace.SEARCH, k);
+		return info;
+	}
+
+	/**
+	 * public int depth(int k)
+	 *
+	 * returns the number of nodes a search of k visits, that is the depth of k
+	 * (the root has depth 1) if it is in the tree
+	 * complexity: O(log(n))
+	 */
+	public int depth(int k)
+	{
+		int depth = 0;
 		AVLNode node = this.root;
 		while(node.isRealNode())
 		{
+			depth++;
 			if(node.getKey() == k)
 			{
-				return node.getValue();
-			}
-			else if (k < node.getKey())
-			{
-				node = (AVLNode) node.getLeft();
-			}
-			else
-			{
-				node = (AVLNode) node.getRight();
+				break;
 			}
+			node = (AVLNode) (k < node.getKey() ? node.getLeft() : node.getRight());
 		}
-		return null;
+		return depth;
 	}
 
     /**
@@ -94,28 +163,117 @@ public class AVLTree {
     * complexity: O(log(n))
     */
 	public int insert(int k, String i) {
+		return insertAt(treePosition(this.root, k), k, i);
+	}
+	
+	/**
+	    * public int insertNear(int k, String i)
+	    *
+	    * inserts an item with key k and info i to the AVL tree, like insert,
+	    * but finds the insertion place with a finger search that starts from the
+	    * position of the last near access (or from min/max if there is none).
+	    * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+	    * returns -1 if an item with key k already exists in the tree.
+	    * complexity: O(log(d)) for the search, d is the distance of k from the last position,
+	    * O(log(n)) in the worst case because of the size fields
+	    */
+	public int insertNear(int k, String i) {
+		if(this.empty())
+		{
+			return insert(k, i);
+		}
+		return insertAt(fingerPosition(nearestFinger(k), k), k, i);
+	}
+	
+	/**
+	    * private int insertAt(AVLNode insertAfter, int k, String i)
+	    *
+	    * inserts an item with key k and info i as a son of insertAfter,
+	    * which is the insertion place of k found by treePosition or fingerPosition.
+	    * returns the number of rebalancing operations, or -1 if an item with key k already exists.
+	    * complexity: O(log(n))
+	    */
+	private int insertAt(AVLNode insertAfter, int k, String i) {
 		
-		AVLNode right = new AVLNode();
-		AVLNode left = new AVLNode();
 		if(this.empty()) //if the tree is empty make the node it's root
 		{
-			this.root = new AVLNode(i, k, left, right, null);
-			left.setParent(this.root);
-			right.setParent(this.root);
-			this.max = this.root;
-			this.min = this.root;
-			return 0;
+			publish(Change.INSERT, k, k, i, null);
+			return attach(null, newNode(i, k, newVirtual(), newVirtual(), null));
 		}
 		
-		AVLNode insertAfter = treePosition(this.root, k); //find where to insert the new node
 		if(insertAfter.getKey() == k)
+		{
+			this.lastPosition = insertAfter;
+			record(Trace.INSERT, k); //a call that found k is recorded too, a replay makes it as well
+			return -1;
+		}
+		
+		AVLNode right = insertAfter.getKey() > k ? insertAfter.left : insertAfter.right; //reuse the virtual node in the place of the new node
+		AVLNode nodeToInsert = newNode(i, k, newVirtual(), right, insertAfter); //create the new node
+		publish(Change.INSERT, k, k, i, null);
+		return attach(insertAfter, nodeToInsert);
+	}
+	
+	/**
+	    * private int insertNode(AVLNode node)
+	    *
+	    * inserts the node itself (not a copy of it) to the AVL tree, as a new leaf.
+	    * used to move a node that was detached from a tree into this tree.
+	    * returns the number of rebalancing operations, or -1 if an item with the same key already exists.
+	    * complexity: O(log(n))
+	    */
+	private int insertNode(AVLNode node) {
+		AVLNode insertAfter = treePosition(this.root, node.getKey());
+		if(!this.empty() && insertAfter.getKey() == node.getKey())
 		{
 			return -1;
 		}
+		node.update(new AVLNode(), new AVLNode());
+		node.setHeight(0);
+		node.updateSize();
+		return attach(this.empty() ? null : insertAfter, node);
+	}
+	
+	/**
+	    * private int attach(AVLNode insertAfter, AVLNode nodeToInsert)
+	    *
+	    * hangs the leaf nodeToInsert as a son of insertAfter (or as the root if the tree is empty),
+	    * updates the min and max fields and rebalances the tree.
+	    * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+	    * every insertion of a node goes through here, so it is where the inserts are recorded in the trace.
+	    * @pre nodeToInsert is a leaf, insertAfter is its insertion place
+	    * complexity: O(log(n))
+	    */
+	private int attach(AVLNode insertAfter, AVLNode nodeToInsert) {
+		int rebalanceNum = attachLeaf(insertAfter, nodeToInsert);
+		record(Trace.INSERT, nodeToInsert.getKey());
+		return rebalanceNum;
+	}
+	
+	/**
+	 * the implementation of attach
+	 * complexity: O(log(n))
+	 */
+	private int attachLeaf(AVLNode insertAfter, AVLNode nodeToInsert) {
+		
+		int k = nodeToInsert.getKey();
+		this.lastPosition = nodeToInsert;
+		if(this.keyFilter != null)
+		{
+			addToKeyFilter(k);
+		}
+		nodeToInsert.left.setParent(nodeToInsert);
+		nodeToInsert.right.setParent(nodeToInsert);
+		if(insertAfter == null) //the tree is empty, the node becomes its root
+		{
+			this.root = nodeToInsert;
+			this.root.setParent(null);
+			this.max = this.root;
+			this.min = this.root;
+			return 0;
+		}
 		
-		AVLNode nodeToInsert = new AVLNode(i, k, left, right, insertAfter); //create the new node
-		left.setParent(nodeToInsert);
-		right.setParent(nodeToInsert);
+		nodeToInsert.setParent(insertAfter);
 		if (k > this.max.getKey())  //update the min and max fields of the tree, if needed
 		{
 			this.max = nodeToInsert;
@@ -133,7 +291,17 @@ public class AVLTree {
 		{
 			insertAfter.setRight(nodeToInsert);
 		}
-		insertAfter.size ++; //we added a node to this subtree so we need to increase its size
+		insertAfter.updateSize(); //we added a node to this subtree so we need to increase its size
+		
+		if (this.unbalanced != null) //relaxed balance, the rotations are deferred
+		{
+			updateSizesTillRoot(insertAfter.getParent());
+			if (!insertAfter.getLeft().isRealNode() || !insertAfter.getRight().isRealNode()) //its height grows
+			{
+				markUnbalanced(insertAfter);
+			}
+			return 0;
+		}
 		
 		if (insertAfter.getLeft().isRealNode() && insertAfter.getRight().isRealNode()) //if it was an unary node
 		{                                                                             // update sizes till root and finish
@@ -149,6 +317,124 @@ public class AVLTree {
 	    return rebalanceNum; //calculated in the rebalance function
 	}
 	
+	/**
+	    * public int append(int k, String i)
+	    *
+	    * inserts an item with key k and info i to the AVL tree, when k is larger than
+	    * all the keys in the tree: the new node is attached directly as the right son
+	    * of the cached max node, without searching from the root.
+	    * if k is not larger than the max key, this is a regular insert.
+	    * returns the number of rebalancing operations, or -1 if an item with key k already exists.
+	    * complexity: O(log(n)) because of the size fields, no search is needed
+	    */
+	public int append(int k, String i) {
+		if(this.empty() || k <= this.max.getKey())
+		{
+			return insert(k, i);
+		}
+		return insertAt(this.max, k, i);
+	}
+	
+	/**
+	    * public int appendAll(int[] keys, String[] infos)
+	    *
+	    * inserts the items (keys[j], infos[j]) to the AVL tree. when the keys are sorted
+	    * in ascending order and larger than all the keys in the tree, the items are built
+	    * into a balanced tree which is joined with this tree at once (and published to the
+	    * change feed as a single join), otherwise each item is inserted separately.
+	    * returns the number of items that were added.
+	    * @pre keys.length == infos.length
+	    * complexity: O(m + log(n)), m is the number of items, when the keys are appended in order
+	    */
+	public int appendAll(int[] keys, String[] infos) {
+		if(keys.length == 0)
+		{
+			return 0;
+		}
+		boolean sorted = this.empty() || keys[0] > this.max.getKey();
+		for (int j = 1; j < keys.length && sorted; j++)
+		{
+			sorted = keys[j-1] < keys[j];
+		}
+		if(!sorted) //fall back to separate inserts
+		{
+			int added = 0;
+			for (int j = 0; j < keys.length; j++)
+			{
+				if(insert(keys[j], infos[j]) != -1)
+				{
+					added++;
+				}
+			}
+			return added;
+		}
+		AVLNode x = newNode(infos[0], keys[0], newVirtual(), newVirtual(), null); //the first item is the separator of the join
+		this.join(x, sortedTree(keys, infos, 1, keys.length-1));
+		return keys.length;
+	}
+	
+	/**
+	 * The method returns a new balanced tree of the sorted items in keys[from..to], infos[from..to]
+	 * @pre keys[from..to] is sorted in ascending order, without repetitions
+	 * complexity: O(to-from)
+	 */
+	static AVLTree fromSorted(int[] keys, String[] infos, int from, int to)
+	{
+		return new AVLTree().sortedTree(keys, infos, from, to);
+	}
+	
+	/**
+	 * The method returns a new balanced tree of the sorted items in keys[from..to], infos[from..to],
+	 * whose nodes are made by this tree (see newNode) and keep their values like its nodes, so
+	 * the tree joins this tree without copying them
+	 * @pre keys[from..to] is sorted in ascending order, without repetitions
+	 * complexity: O(to-from)
+	 */
+	private AVLTree sortedTree(int[] keys, String[] infos, int from, int to)
+	{
+		AVLTree tree = new AVLTree().withStorageOf(this);
+		AVLNode root = buildBalanced(keys, infos, from, to);
+		if(root.isRealNode())
+		{
+			tree.become(new AVLTree(root, root.min(), root.max()));
+		}
+		return tree;
+	}
+	
+	/**
+	 * The method makes the tree keep its values like source: in the value pool and the
+	 * value arena of source, and returns the tree
+	 * @pre the tree is empty
+	 * complexity: O(1)
+	 */
+	private AVLTree withStorageOf(AVLTree source)
+	{
+		this.valuePool = source.valuePool;
+		this.valueArena = source.valueArena;
+		return this;
+	}
+	
+	/**
+	 * The method builds a balanced subtree from the sorted items in keys[from..to], infos[from..to]
+	 * and returns its root (a virtual node if the range is empty).
+	 * the two halves of every subtree differ in size by at most 1, so it is a legal AVL tree.
+	 * complexity: O(to-from)
+	 */
+	private AVLNode buildBalanced(int[] keys, String[] infos, int from, int to)
+	{
+		if(from > to)
+		{
+			return newVirtual();
+		}
+		int mid = (from + to) >>> 1;
+		AVLNode left = buildBalanced(keys, infos, from, mid-1);
+		AVLNode right = buildBalanced(keys, infos, mid+1, to);
+		AVLNode node = newNode(infos[mid], keys[mid], left, right, null); //init sets the size and height
+		left.setParent(node);
+		right.setParent(node);
+		return node;
+	}
+	
 	/**
 	    * private int rebalance(IAVLNode z)
 	    *
@@ -324,7 +610,20 @@ public class AVLTree {
 	   */
 	public AVLNode treePosition(AVLNode node, int k)
 	{
-		AVLNode pos = new AVLNode();
+		if(this.trace != null) //the call that searches is timed from here
+		{
+			this.trace.searching(k);
+		}
+		return descend(node, k);
+	}
+	
+	/**
+	 * the implementation of treePosition, without marking the search in the trace
+	 * complexity: O(log(n))
+	 */
+	private static AVLNode descend(AVLNode node, int k)
+	{
+		AVLNode pos = node; //the virtual node itself if the subtree is empty, so no node is allocated
 		while(node.isRealNode()) 
 		{
 			pos = node;
@@ -344,6 +643,93 @@ public class AVLTree {
 		return pos;
 	}
 	
+	/**
+	   * public AVLNode fingerPosition(AVLNode finger, int k)
+	   *
+	   * if exists a node with key k, then the method returns the node
+	   * else, the method finds and returns an insertion place for k, like treePosition.
+	   * instead of descending from the root, it climbs from finger with the parent pointers
+	   * until it reaches a subtree whose key range contains k, and descends from there.
+	   * keys beyond the min or max of the tree are answered directly by the cached nodes.
+	   * @pre !empty(), finger is a real node of this tree
+	   * complexity: O(log(d)), d is the number of keys between finger and k
+	   */
+	public AVLNode fingerPosition(AVLNode finger, int k)
+	{
+		if(this.trace != null) //the call that searches is timed from here
+		{
+			this.trace.searching(k);
+		}
+		if(k > this.max.getKey())
+		{
+			return this.max;
+		}
+		if(k < this.min.getKey())
+		{
+			return this.min;
+		}
+		AVLNode node = finger;
+		while(node.parent != null && node.getKey() != k)
+		{
+			AVLNode parent = node.parent;
+			if(k > node.getKey() && node == parent.left && k < parent.getKey()) //k is in the range of node's right subtree
+			{
+				break;
+			}
+			if(k < node.getKey() && node == parent.right && k > parent.getKey()) //k is in the range of node's left subtree
+			{
+				break;
+			}
+			node = parent;
+		}
+		return descend(node, k);
+	}
+	
+	/**
+	    * public String searchNear(int k)
+	    *
+	    * returns the info of an item with key k if it exists in the tree
+	    * otherwise, returns null.
+	    * like search, but uses a finger search from the position of the last near access,
+	    * so accesses with keys close to the previous one are cheap.
+	    * complexity: O(log(d)), d is the distance of k from the last position
+	    */
+	public String searchNear(int k)
+	{
+		if(this.empty())
+		{
+			record(Trace.SEARCH, k);
+			return null;
+		}
+		AVLNode pos = fingerPosition(nearestFinger(k), k);
+		this.lastPosition = pos;
+		record(Trace.SEARCH, k);
+		if(pos.getKey() == k)
+		{
+			return pos.getValue();
+		}
+		return null;
+	}
+	
+	/**
+	 * The method returns the node a finger search for k should start from:
+	 * the last position if there is one, else the closer of min and max.
+	 * @pre !empty()
+	 * complexity: O(1)
+	 */
+	private AVLNode nearestFinger(int k)
+	{
+		if(this.lastPosition != null)
+		{
+			return this.lastPosition;
+		}
+		if((long) k - this.min.getKey() < (long) this.max.getKey() - k)
+		{
+			return this.min;
+		}
+		return this.max;
+	}
+	
 	/**
 	 * public int delete(int k)
      *
@@ -355,43 +741,271 @@ public class AVLTree {
 	 */
 	public int delete(int k)
 	{
+		if(this.keyFilter != null && !this.keyFilter.mightContain(k))
+		{
+			record(Trace.DELETE, k); //a call that misses is recorded too, a replay makes it as well
+			return -1;
+		}
 		AVLNode nodeToDelete = treePosition(this.root, k); //find the node we want to delete
-		if(nodeToDelete.getKey() != k) //if it's not found return -1
+		if(!nodeToDelete.isRealNode() || nodeToDelete.getKey() != k) //if it's not found return -1
 		{
+			record(Trace.DELETE, k);
 			return -1;
 		}
-		if (this.size() == 1) { //if it's the only node in the tree, make the tree empty
-			this.root = new AVLNode();
-			this.min = null;
-			this.max = null;
-			return 0;
+		return deleteNode(nodeToDelete);
+	}
+	
+	/**
+	 * public String pollFirst()
+	 *
+	 * deletes the item with the smallest key in the tree and returns its info,
+	 * or returns null if the tree is empty.
+	 * the node is taken from the cached min field, so no search is needed.
+	 * complexity: O(log(n)) because of the size fields
+	 */
+	public String pollFirst()
+	{
+		if(this.empty())
+		{
+			return null;
 		}
-		
-		//update min and max fields of the tree if necessary:
-		if (this.max == nodeToDelete)  
+		String info = this.min.getValue();
+		deleteNode(this.min);
+		return info;
+	}
+	
+	/**
+	 * public String pollLast()
+	 *
+	 * deletes the item with the largest key in the tree and returns its info,
+	 * or returns null if the tree is empty.
+	 * the node is taken from the cached max field, so no search is needed.
+	 * complexity: O(log(n)) because of the size fields
+	 */
+	public String pollLast()
+	{
+		if(this.empty())
 		{
-			this.max = nodeToDelete.predecessor();
+			return null;
 		}
-		if (this.min == nodeToDelete)
+		String info = this.max.getValue();
+		deleteNode(this.max);
+		return info;
+	}
+	
+	/**
+	 * public AVLNode handle(int k)
+	 *
+	 * Returns the node of the item with key k, or null if k is not in the tree.
+	 * a node stays the node of its item until the item is deleted (the other deletions
+	 * move nodes, not items), so it can be kept as a handle for remove and updateKey.
+	 * after the item is deleted the handle is stale: it is not reused for other items,
+	 * even by a node arena, so remove and updateKey reject it.
+	 * complexity: O(log(n))
+	 */
+	public AVLNode handle(int k)
+	{
+		AVLNode node = treePosition(this.root, k);
+		record(Trace.SEARCH, k);
+		return this.empty() || node.getKey() != k ? null : pin(node);
+	}
+	
+	/**
+	 * The method marks node as a handle in the node arena of the tree, if it has one,
+	 * so the arena does not reuse it after its item is deleted, and returns it
+	 * complexity: O(1) expected
+	 */
+	private AVLNode pin(AVLNode node)
+	{
+		if(this.nodeArena != null)
 		{
-			this.min = nodeToDelete.successor();
+			this.nodeArena.pin(node);
 		}
-		
-		AVLNode successor;
-		AVLNode z = (AVLNode) nodeToDelete.getParent(); 
-		
-		//now for the deletion (3 cases):
-		if (!nodeToDelete.getLeft().isRealNode() && !nodeToDelete.getRight().isRealNode()) //is a leaf
-		{ 
-			replaceByVirtual(nodeToDelete);	
+		return node;
+	}
+	
+	/**
+	 * public AVLNode insertHandle(int k, String i)
+	 *
+	 * inserts an item with key k and info i like insert, and returns its node (see handle).
+	 * if k is already in the tree, nothing is inserted and the node of k is returned.
+	 * complexity: O(log(n))
+	 */
+	public AVLNode insertHandle(int k, String i)
+	{
+		insertAt(treePosition(this.root, k), k, i);
+		return pin(this.lastPosition); //insertAt leaves it at the node of k
+	}
+	
+	/**
+	 * public int remove(IAVLNode handle)
+	 *
+	 * deletes the item of the node handle, without searching for its key: the node is
+	 * unlinked through the parent pointers.
+	 * returns the number of rebalancing operations, or -1 if handle is not a node of the tree
+	 * (for example, a stale handle whose item was already deleted, see handle).
+	 * complexity: O(log(n))
+	 */
+	public int remove(IAVLNode handle)
+	{
+		if(!(handle instanceof AVLNode) || !isInTree((AVLNode) handle))
+		{
+			return -1;
 		}
-		else if (!nodeToDelete.getLeft().isRealNode() || !nodeToDelete.getRight().isRealNode()) //is an unary node
-		{ 
-			if (nodeToDelete == this.root) //edge case, where the unary node is the root
+		return deleteNode((AVLNode) handle);
+	}
+	
+	/**
+	 * public int updateKey(IAVLNode handle, int newKey)
+	 *
+	 * changes the key of the item of the node handle to newKey, and keeps the node as its handle.
+	 * if the item stays between its neighbors, the key is changed in place, otherwise the node
+	 * is unlinked and linked again at its new place. the end of an interval moves with its start.
+	 * returns the number of rebalancing operations, or -1 if handle is not a node of the tree,
+	 * another item has the key newKey or newKey is -1 (the key of the virtual nodes).
+	 * complexity: O(log(n))
+	 */
+	public int updateKey(IAVLNode handle, int newKey)
+	{
+		if(newKey == -1 || !(handle instanceof AVLNode) || !isInTree((AVLNode) handle))
+		{
+			return -1;
+		}
+		AVLNode node = (AVLNode) handle;
+		int oldKey = node.getKey();
+		if(newKey == oldKey)
+		{
+			return 0;
+		}
+		AVLNode place = treePosition(this.root, newKey);
+		if(place.getKey() == newKey)
+		{
+			return -1;
+		}
+		AVLNode predecessor = node.predecessor();
+		AVLNode successor = node.successor();
+		if((predecessor == null || predecessor.getKey() < newKey) && (successor == null || newKey < successor.getKey())) //the order does not change
+		{
+			publish(Change.DELETE, oldKey, node.getEnd(), null, null);
+			if(this.keyFilter != null)
 			{
-				AVLNode realChild;
-				if (nodeToDelete.getLeft().isRealNode()) 
-				   {
+				this.keyFilter.remove(oldKey);
+				this.keyFilter.add(newKey);
+			}
+			node.moveTo(newKey);
+			updateSizesTillRoot(node); //the maximal ends change with the end of node
+			publishNode(node);
+			record(Trace.DELETE, oldKey); //recorded like the move below
+			record(Trace.INSERT, newKey);
+			return 0;
+		}
+		int rebalanceNum = deleteNode(node, false);
+		node.moveTo(newKey);
+		rebalanceNum += insertNode(node);
+		publishNode(node);
+		return rebalanceNum;
+	}
+	
+	/**
+	 * The method publishes the entries of node to the change feed, as if they were added now
+	 * complexity: O(c), c is the number of entries of node
+	 */
+	private void publishNode(AVLNode node)
+	{
+		if(this.feed == null)
+		{
+			return;
+		}
+		publish(Change.INSERT, node.getKey(), node.getEnd(), node.getValue(), null);
+		for (int j = 1; j < node.getCount(); j++)
+		{
+			publish(Change.ADD, node.getKey(), node.getKey(), node.bucket().get(j-1), null);
+		}
+	}
+	
+	/**
+	 * private int deleteNode(AVLNode nodeToDelete)
+	 *
+	 * deletes the node nodeToDelete from the tree and rebalances it.
+	 * nodeToDelete itself is taken out of the tree (a binary node is replaced by the node of
+	 * its successor), so the other nodes keep their items.
+	 * the nodes removed from the tree are recycled if the tree has a node arena.
+	 * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+	 * @pre nodeToDelete is a real node of this tree
+	 * complexity: O(log(n))
+	 */
+	private int deleteNode(AVLNode nodeToDelete)
+	{
+		return deleteNode(nodeToDelete, true);
+	}
+	
+	/**
+	 * private int deleteNode(AVLNode nodeToDelete, boolean recycle)
+	 *
+	 * like deleteNode(nodeToDelete), but the removed nodes are recycled only if recycle is true.
+	 * the callers that keep using the removed node pass false.
+	 * every deletion of a node goes through here, so it is where the deletes are recorded in the trace.
+	 * complexity: O(log(n))
+	 */
+	private int deleteNode(AVLNode nodeToDelete, boolean recycle)
+	{
+		int k = nodeToDelete.getKey();
+		int rebalanceNum = unlinkNode(nodeToDelete, recycle);
+		record(Trace.DELETE, k);
+		return rebalanceNum;
+	}
+	
+	/**
+	 * the implementation of deleteNode
+	 * complexity: O(log(n))
+	 */
+	private int unlinkNode(AVLNode nodeToDelete, boolean recycle)
+	{
+		publish(Change.DELETE, nodeToDelete.getKey(), nodeToDelete.getEnd(), null, null);
+		this.lastPosition = null; //the hint might be the node that is removed from the tree
+		if(this.keyFilter != null)
+		{
+			this.keyFilter.remove(nodeToDelete.getKey());
+		}
+		if (this.size() == 1) { //if it's the only node in the tree, make the tree empty
+			this.root = (AVLNode) nodeToDelete.getLeft(); //the virtual son becomes the root of the empty tree
+			this.root.setParent(null);
+			this.min = null;
+			this.max = null;
+			if (recycle)
+			{
+				recycle(nodeToDelete, this.root);
+			}
+			return 0;
+		}
+		
+		//update min and max fields of the tree if necessary:
+		if (this.max == nodeToDelete)  
+		{
+			this.max = nodeToDelete.predecessor();
+		}
+		if (this.min == nodeToDelete)
+		{
+			this.min = nodeToDelete.successor();
+		}
+		
+		AVLNode successor = null; //the node that takes the place of a binary node
+		AVLNode z = (AVLNode) nodeToDelete.getParent(); 
+		AVLNode removed = nodeToDelete; //the node that is taken out of the tree
+		AVLNode reused = null; //a virtual son of removed that stays in the tree
+		
+		//now for the deletion (3 cases):
+		if (!nodeToDelete.getLeft().isRealNode() && !nodeToDelete.getRight().isRealNode()) //is a leaf
+		{ 
+			reused = replaceByVirtual(nodeToDelete);	
+		}
+		else if (!nodeToDelete.getLeft().isRealNode() || !nodeToDelete.getRight().isRealNode()) //is an unary node
+		{ 
+			if (nodeToDelete == this.root) //edge case, where the unary node is the root
+			{
+				AVLNode realChild;
+				if (nodeToDelete.getLeft().isRealNode()) 
+				   {
 					   realChild = (AVLNode) nodeToDelete.getLeft();
 				   }
 				   else 
@@ -411,15 +1025,49 @@ public class AVLTree {
 		{ 
 			successor = nodeToDelete.successor(); //find the successor
 			z = (AVLNode) successor.getParent(); //z is the parent of the successor, we will need it for the rebalancing
-			//we will delete now the successor:
-			if (!successor.getLeft().isRealNode() && !successor.getRight().isRealNode()) { //is a leaf
-				replace(nodeToDelete,successor);
-				replaceByVirtual(successor);
+			AVLNode successorLeft = (AVLNode) successor.getLeft();
+			AVLNode successorRight = (AVLNode) successor.getRight();
+			AVLNode dropped; //the virtual son of the successor that leaves the tree
+			//we will take the successor out of its place (it has no left son):
+			if (!successorRight.isRealNode()) { //is a leaf
+				reused = replaceByVirtual(successor);
+				dropped = successorRight;
 			}
-			else if (!successor.getLeft().isRealNode() || !successor.getRight().isRealNode()) { //is an unary node
-				replace(nodeToDelete,successor);
+			else { //is an unary node
 				bypass(successor);
+				dropped = successorLeft;
+			}
+			if (z == nodeToDelete) //the successor takes the place of its parent
+			{
+				z = successor;
+			}
+			relink(nodeToDelete, successor); //the successor node itself moves, so the nodes keep their items
+			nodeToDelete.left = dropped; //so the virtual sons that left the tree are recycled with it
+			nodeToDelete.right = dropped == successorLeft ? successorRight : successorLeft;
+		}
+		
+		if (recycle)
+		{
+			recycle(removed, reused);
+		}
+		
+		if (this.unbalanced != null) //relaxed balance, the rotations are deferred
+		{
+			updateSizesTillRoot(z);
+			if (successor != null && successor != z) //x might have been recorded with a wrong height, which the successor has now
+			{
+				markUnbalanced(successor);
+			}
+			if (z != null)
+			{
+				markUnbalanced(z);
 			}
+			return 0;
+		}
+		
+		if (this.policy == RebalancePolicy.WAVL)
+		{
+			return rebalanceDeleteWeak(z);
 		}
 		
 		int rebalanceNum = 0; //number of rebalancing operations made due to the deletion 
@@ -506,20 +1154,125 @@ public class AVLTree {
 		return rebalanceNum;
 	}
 	
+	/**
+	 * private int rebalanceDeleteWeak(AVLNode x)
+	 *
+	 * rebalances the tree after a deletion by the weak AVL (WAVL) rules, where every rank
+	 * difference is 1 or 2 and leaves have rank 0. x is the parent of the removed node.
+	 * demotes are propagated up while x has a 3-child, and at most one single or double
+	 * rotation ends the process, so a deletion makes O(1) rotations.
+	 * returns the number of rebalancing operations.
+	 * complexity: O(log(n)), O(1) amortized rebalancing operations
+	 */
+	private int rebalanceDeleteWeak(AVLNode x)
+	{
+		int rebalanceNum = 0;
+		if (x != null && !x.getLeft().isRealNode() && !x.getRight().isRealNode() && x.getHeight() == 1) //a 2,2 leaf
+		{
+			demote(x);
+			x.updateSize();
+			rebalanceNum++;
+			x = (AVLNode) x.getParent();
+		}
+		while (x != null && (diff(x,x.getLeft()) == 3 || diff(x,x.getRight()) == 3))
+		{
+			AVLNode y = (AVLNode) (diff(x,x.getLeft()) == 3 ? x.getRight() : x.getLeft()); //the sibling of the 3-child
+			if (diff(x,y) == 2) //3,2 - demote x
+			{
+				demote(x);
+				x.updateSize();
+				rebalanceNum++;
+				x = (AVLNode) x.getParent();
+			}
+			else if (diff(y,y.getLeft()) == 2 && diff(y,y.getRight()) == 2) //3,1 and y is 2,2 - demote both
+			{
+				demote(x);
+				demote(y);
+				x.updateSize();
+				rebalanceNum += 2;
+				x = (AVLNode) x.getParent();
+			}
+			else
+			{
+				boolean right = (y == x.getRight());
+				AVLNode outer = (AVLNode) (right ? y.getRight() : y.getLeft());
+				AVLNode inner = (AVLNode) (right ? y.getLeft() : y.getRight());
+				if (diff(y,outer) == 1) //single rotation
+				{
+					promote(y);
+					demote(x);
+					if (right)
+					{
+						rotateL(x,y);
+					}
+					else
+					{
+						rotateR(x,y);
+					}
+					rebalanceNum += 3;
+					if (!x.getLeft().isRealNode() && !x.getRight().isRealNode()) //x became a 2,2 leaf
+					{
+						demote(x);
+						rebalanceNum++;
+					}
+					x = y;
+				}
+				else //double rotation
+				{
+					promote(inner);
+					promote(inner);
+					demote(y);
+					demote(x);
+					demote(x);
+					if (right)
+					{
+						rotateR(y,inner);
+						rotateL(x,inner);
+					}
+					else
+					{
+						rotateL(y,inner);
+						rotateR(x,inner);
+					}
+					rebalanceNum += 7;
+					x = inner;
+				}
+				break; //a rotation always ends the rebalancing
+			}
+		}
+		if (x != null)
+		{
+			updateSizesTillRoot(x); //update sizes for the nodes we didn't visit during the rebalance
+		}
+		return rebalanceNum;
+	}
+	
 	
 	/** 
-	 * The method replaces the node x and the node s (s is the successor of x)
-	 * by switching their keys and values (info)
-	 * @pre x and y are real nodes
+	 * The method puts the node s in the place of the node x: s gets the parent, the sons
+	 * and the height of x, so x is out of the tree. the items stay in their nodes,
+	 * which keeps the nodes held by callers valid.
+	 * @pre x is a binary node, s was taken out of the tree
 	 * complexity: O(1)
 	 */
-	private void replace(AVLNode x, AVLNode s) { 
-	   String xValue = x.getValue();
-	   int xKey = x.getKey();
-	   x.setKey(s.getKey());
-	   x.setValue(x.getValue());
-	   s.setKey(xKey);
-	   s.setValue(xValue);
+	private void relink(AVLNode x, AVLNode s) { 
+	   AVLNode parent = x.parent;
+	   s.parent = parent;
+	   if (parent == null)
+	   {
+		   this.root = s;
+	   }
+	   else if (parent.left == x)
+	   {
+		   parent.left = s;
+	   }
+	   else
+	   {
+		   parent.right = s;
+	   }
+	   s.update(x.left, x.right);
+	   s.height = x.height;
+	   s.updateSize();
 	}
    
 	/**
@@ -551,12 +1304,13 @@ public class AVLTree {
    }
    
     /**
-	 * The method deletes the node x from the tree by replacing it with a virtual node
+	 * The method deletes the node x from the tree by replacing it with its left virtual son,
+	 * and returns that son
 	 * @pre x is a leaf
 	 * complexity: O(1)
 	 */ 
-   private void replaceByVirtual(AVLNode x) {
-	   AVLNode virtual = new AVLNode();
+   private AVLNode replaceByVirtual(AVLNode x) {
+	   AVLNode virtual = (AVLNode) x.getLeft();
 	   if(x.getParent().getLeft() == x)
 	   {
 		   x.getParent().setLeft(virtual);
@@ -566,6 +1320,64 @@ public class AVLTree {
 		   x.getParent().setRight(virtual);
 	   }
 	   virtual.setParent(x.getParent());
+	   return virtual;
+	}
+	
+	/**
+	 * The method hands the node removed, which was taken out of the tree, and its virtual
+	 * sons (except reused, which stays in the tree) to the node arena of the tree, if it has one
+	 * complexity: O(1)
+	 */
+	private void recycle(AVLNode removed, AVLNode reused) {
+		if(this.nodeArena == null)
+		{
+			return;
+		}
+		AVLNode left = removed.left;
+		AVLNode right = removed.right;
+		if(left != reused && !left.isRealNode())
+		{
+			this.nodeArena.release(left);
+		}
+		if(right != reused && !right.isRealNode())
+		{
+			this.nodeArena.release(right);
+		}
+		this.nodeArena.release(removed);
+	}
+	
+	/**
+	 * returns a virtual node, recycled from the node arena if possible
+	 * complexity: O(1)
+	 */
+	private AVLNode newVirtual()
+	{
+		return newNode(null, -1, null, null, null);
+	}
+	
+	/**
+	 * returns a node initialized like new AVLNode(info, key, left, right, parent),
+	 * recycled from the node arena if possible
+	 * complexity: O(1)
+	 */
+	private AVLNode newNode(String info, int key, AVLNode left, AVLNode right, AVLNode parent)
+	{
+		info = internValue(info);
+		AVLNode node = this.nodeArena == null ? null : this.nodeArena.take();
+		if(node != null && key != -1 && (node instanceof ArenaNode ? ((ArenaNode) node).arena() != this.valueArena : this.valueArena != null))
+		{
+			node = null; //a node of a tree that keeps its values elsewhere (the arena is shared), it is dropped
+		}
+		if(node == null)
+		{
+			if(this.valueArena != null && key != -1) //the real nodes keep their values in the arena
+			{
+				return new ArenaNode(this.valueArena, info, key, left, right, parent);
+			}
+			return new AVLNode(info, key, left, right, parent);
+		}
+		node.init(info, key, left, right, parent);
+		return node;
 	}
    
    /**
@@ -604,7 +1416,7 @@ public class AVLTree {
     * public int[] keysToArray()
     *
     * Returns a sorted array which contains all keys in the tree,
-    * or an empty array if the tree is empty, using the recursive
+    * or an empty array if the tree is empty, using the iterative
     * method keysToArray(AVLNode node,int[] arr, int i)
     * complexity: O(n)
     */
@@ -619,22 +1431,13 @@ public class AVLTree {
 	}
 	
 	/** 
-	 * The method fills arr with the keys in the tree in ascending order
-	 * complexity: O(n)
+	 * The method fills arr from index i with the keys in the subtree of node in ascending order,
+	 * and returns the index after the last key
+	 * complexity: O(size of the subtree)
 	 */
 	public int keysToArray(AVLNode node,int[] arr, int i)
 	{
-		if(node.left.isRealNode())
-		{
-			i = keysToArray(node.left, arr, i);
-		}
-		arr[i] = node.getKey();
-		i++;
-		if(node.right.isRealNode())
-		{
-			i = keysToArray(node.right, arr, i);
-		}
-		return i;
+		return toArrays(node, arr, null, i);
 	}	
 	
 
@@ -643,7 +1446,7 @@ public class AVLTree {
 	*
     * Returns an array which contains all info in the tree,
     * sorted by their respective keys, or an empty array if the tree is empty,
-    * using the recursive function infoToArray(AVLNode node,String[] arr, int i)
+    * using the iterative function infoToArray(AVLNode node,String[] arr, int i)
     * complexity: O(n)
 	*/
 	public String[] infoToArray()
@@ -657,381 +1460,2254 @@ public class AVLTree {
 	}
 	
 	/**
-	   * The method fills arr with the info of the nodes such that the arr is sorted
-	   * in ascending order according to the keys.
-	   * complexity: O(n)
+	   * The method fills arr from index i with the info of the nodes in the subtree of node,
+	   * such that the arr is sorted in ascending order according to the keys,
+	   * and returns the index after the last info
+	   * complexity: O(size of the subtree)
 	   */
 	public int infoToArray(AVLNode node,String[] arr, int i)
 		{
-			if(node.left.isRealNode())
-			{
-				i = infoToArray(node.left, arr, i);
-			}
-			arr[i] = node.getValue();
-			i++;
-			if(node.right.isRealNode())
-			{
-				i =infoToArray(node.right, arr, i);
-			}
-			return i;	
+			return toArrays(node, null, arr, i);
 		}
 	
-   /**
-    * public int size()
-    *
-    * Returns the number of nodes in the tree.
-    *
-    * @pre: none
-    * @post: none
-    * complexity: O(1)
-    */
-	public int size()
+	/**
+	 * public int entriesToArrays(int[] keys, String[] infos, int offset)
+	 *
+	 * fills keys and infos from index offset with the keys and info of the tree, sorted by the keys,
+	 * in a single pass over the tree. returns the index after the last item.
+	 * @pre keys.length and infos.length >= offset + size()
+	 * complexity: O(n)
+	 */
+	public int entriesToArrays(int[] keys, String[] infos, int offset)
 	{
-		return this.root.getSize();
+		return toArrays(this.root, keys, infos, offset);
 	}
-   
-     /**
-    * public int getRoot()
-    *
-    * Returns the root AVL node, or null if the tree is empty
-    *
-    * @pre: none
-    * @post: none
-    * complexity: O(1)
-    */
-	public IAVLNode getRoot()
+	
+	/**
+	 * public int keysToBuffer(IntBuffer buffer)
+	 *
+	 * puts all the keys of the tree in ascending order into buffer (which may be a direct buffer),
+	 * from its current position. returns the number of keys that were put.
+	 * throws BufferOverflowException if buffer has less than size() remaining places.
+	 * complexity: O(n)
+	 */
+	public int keysToBuffer(IntBuffer buffer)
 	{
+		if(buffer.remaining() < this.size())
+		{
+			throw new BufferOverflowException();
+		}
 		if(this.empty())
 		{
-			return null;  
+			return 0;
 		}
-		return this.root;
+		AVLNode node = this.min;
+		for (int j = 0; j < this.size(); j++)
+		{
+			if(j > 0)
+			{
+				node = node.successor();
+			}
+			buffer.put(node.getKey());
+		}
+		return this.size();
 	}
 	
-     /**
-    * public string split(int x)
-    *
-    * splits the tree into 2 trees according to the key x. 
-    * Returns an array [t1, t2] with two AVL trees. keys(t1) < x < keys(t2).
-	* 
-	* @pre: search(x) != null
-    * @post: none
-    * complexity: O(log(n))
-    */   
-	public AVLTree[] split(int x) 
+	/**
+	 * public interface BatchConsumer
+	 * receives the items of a tree in batches, see forEachBatch
+	 */
+	public interface BatchConsumer {
+		public void accept(int[] keys, String[] infos, int length); //the batch is keys[0..length-1], infos[0..length-1]
+	}
+	
+	/**
+	 * public interface EntryPredicate
+	 * tests an item of a tree, see filter and partition
+	 */
+	public interface EntryPredicate {
+		public boolean test(int key, String info);
+	}
+	
+	/**
+	 * public void forEachBatch(int batchSize, BatchConsumer consumer)
+	 *
+	 * passes all the items of the tree in ascending order of keys to consumer,
+	 * in batches of batchSize items (the last one may be smaller).
+	 * the same two arrays are reused for all the batches, so consumer should copy
+	 * what it needs to keep.
+	 * @pre batchSize > 0
+	 * complexity: O(n)
+	 */
+	public void forEachBatch(int batchSize, BatchConsumer consumer)
 	{
-		IAVLNode node = treePosition(this.root,x); //find the node we want to split at
-		
-		AVLNode smallerChild = (AVLNode) node.getLeft(); 
-		AVLTree smaller = new AVLTree(smallerChild,null,null); //the tree of smaller keys than x
-		
-		AVLNode biggerChild = (AVLNode) node.getRight();
-		AVLTree bigger = new AVLTree(biggerChild,null,null); //the tree of bigger nodes than x
-		
-		AVLNode tmpMin = new AVLNode(); //temporal min and max nodes to send as parameters to tree constructor
-		AVLNode tmpMax = new AVLNode(); //because we don't want it to be null for edge cases
-		
-		if (node == this.root) //already devided to smaller and bigger, the split is done
-		{
-			//uptade min and max fields:
-			smaller.min = smaller.root.min();
-			smaller.max = smaller.root.max();
-			bigger.min = bigger.root.min();
-			bigger.max = bigger.root.max(); 
-			return new AVLTree[] {smaller,bigger};
-		}
-		
-		IAVLNode tmp = node.getParent();
-		node.setParent(null); //detach node from it's parent
-		node = tmp; //now the node is its parent
-		
-		while (node != null) //stop when we get to the root's parent who is null
+		int n = this.size();
+		int[] keys = new int[Math.min(batchSize, n)];
+		String[] infos = new String[keys.length];
+		AVLNode node = this.min;
+		int length = 0;
+		for (int j = 0; j < n; j++)
 		{
-			IAVLNode y = node.getParent();
-			node.setParent(null); //detach node from it's parent
-			
-			if (node.getKey() > x) //join the node and its right subtree with bigger
+			if(j > 0)
 			{
-				AVLNode root = (AVLNode) (node.getRight());
-				root.setParent(null);
-				AVLTree t = new AVLTree(root,tmpMin,tmpMax);
-				bigger.join(node,t);
+				node = node.successor();
 			}
-			else //node.getKey() < x  //join the node and its left subtree with smaller
+			keys[length] = node.getKey();
+			infos[length] = node.getValue();
+			length++;
+			if(length == keys.length) //the batch is full
 			{
-				AVLNode root = (AVLNode) (node.getLeft());
-				root.setParent(null);
-				AVLTree t = new AVLTree(root,tmpMin,tmpMax);
-				smaller.join(node,t);
+				consumer.accept(keys, infos, length);
+				length = 0;
 			}
-			node = y; //y is the parent of the node before the detachment
 		}
-		
-		//uptade min and max fields:
-		if (smaller.empty()) 
+		if(length > 0) //the last batch is not full
 		{
-			smaller.min = null;
-			smaller.max = null;
+			consumer.accept(keys, infos, length);
 		}
-		else //find the min and max in the tree
+	}
+	
+	/**
+	 * public void scan(int lo, int hi, BatchConsumer consumer)
+	 *
+	 * passes the items with keys in [lo, hi] in ascending order of keys to consumer, in
+	 * batches of at most SCAN_BATCH items, like forEachBatch (the arrays are reused
+	 * between the calls). the scan starts with one descent to lo and goes on by successors.
+	 * complexity: O(log(n) + k), k is the number of items in the range
+	 */
+	public void scan(int lo, int hi, BatchConsumer consumer)
+	{
+		if(this.empty() || lo > hi)
+		{
+			return;
+		}
+		AVLNode node = descend(this.root, lo); //lo itself, or the last node on its search path
+		if(node.getKey() < lo)
 		{
-			smaller.min = smaller.root.min();
-			smaller.max = smaller.root.max();
+			node = node.successor();
 		}
-		if (bigger.empty()) 
+		int[] keys = new int[SCAN_BATCH];
+		String[] infos = new String[SCAN_BATCH];
+		int length = 0;
+		for (; node != null && node.getKey() <= hi; node = node.successor())
 		{
-			bigger.min = null;
-			bigger.max = null; 
-	    }
-		else //find the min and max in the tree
+			keys[length] = node.getKey();
+			infos[length] = node.getValue();
+			length++;
+			if(length == SCAN_BATCH) //the batch is full
+			{
+				consumer.accept(keys, infos, length);
+				length = 0;
+			}
+		}
+		if(length > 0)
 		{
-			bigger.min = bigger.root.min();
-			bigger.max = bigger.root.max(); 
+			consumer.accept(keys, infos, length);
 		}
-		return new AVLTree[] {smaller,bigger}; 
 	}
 	
-   /**
-    * public join(IAVLNode x, AVLTree t)
-    *
-    * joins t and x with the tree. 	
-    * Returns the complexity of the operation (rank difference between the tree and t)
-    * @pre: keys(x,t) < keys() or keys(x,t) > keys()
+	/**
+	 * The method fills keys and infos (each of them may be null) from index i with the items
+	 * of the subtree of node in ascending order, and returns the index after the last item.
+	 * the traversal is iterative: it starts at the minimum of the subtree and moves to the
+	 * successor with the parent pointers, so it needs no stack.
+	 * complexity: O(size of the subtree), the successor calls are O(1) amortized
+	 */
+	private int toArrays(AVLNode node, int[] keys, String[] infos, int i)
+	{
+		if(!node.isRealNode())
+		{
+			return i;
+		}
+		int n = node.getSize();
+		AVLNode x = node.min();
+		for (int j = 0; j < n; j++)
+		{
+			if(j > 0)
+			{
+				x = x.successor(); //stays in the subtree, the last item is never passed
+			}
+			if(keys != null)
+			{
+				keys[i] = x.getKey();
+			}
+			if(infos != null)
+			{
+				infos[i] = x.getValue();
+			}
+			i++;
+		}
+		return i;
+	}
+	
+	/**
+	 * public void writeTo(WritableByteChannel channel)
+	 *
+	 * writes all the items of the tree to channel in ascending order of keys, in a framed binary format:
+	 * a header (magic number, number of nodes), and for every node its key, interval end,
+	 * number of entries and the entries' infos (length in bytes, -1 for null, and UTF-8 bytes).
+	 * the items are encoded directly from the tree into a pooled direct buffer, so the memory
+	 * overhead is constant. every buffer is written as a chunk with its length in front, and an
+	 * empty chunk ends the tree, so readFrom never reads past the tree and the channel can carry
+	 * more data after it.
+	 * @pre channel is in blocking mode
+	 * complexity: O(n + total length of the infos)
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException
+	{
+		writeTo(channel, null);
+	}
+	
+	/**
+	 * The method writes the items of the tree to channel like writeTo(channel), and the node
+	 * separator (which is not in the tree, if it is not null) before or after them, by its key
+	 * @pre keys(separator) < keys() or keys(separator) > keys()
+	 * complexity: O(n + total length of the infos)
+	 */
+	private void writeTo(WritableByteChannel channel, AVLNode separator) throws IOException
+	{
+		FrameWriter out = new FrameWriter(channel);
+		try
+		{
+			out.putInt(FRAME_MAGIC);
+			out.putInt(this.size() + (separator == null ? 0 : 1));
+			boolean first = separator != null && (this.empty() || separator.getKey() < this.min.getKey());
+			if(first)
+			{
+				writeNode(out, separator);
+			}
+			AVLNode node = this.min;
+			for (int j = 0; j < this.size(); j++)
+			{
+				if(j > 0)
+				{
+					node = node.successor();
+				}
+				writeNode(out, node);
+			}
+			if(separator != null && !first)
+			{
+				writeNode(out, separator);
+			}
+			out.finish();
+		}
+		finally
+		{
+			out.release();
+		}
+	}
+	
+	/**
+	 * The method writes the key, the interval end and the entries of node to out
+	 * complexity: O(c + length of the infos), c is the number of entries of node
+	 */
+	private static void writeNode(FrameWriter out, AVLNode node) throws IOException
+	{
+		out.putInt(node.getKey());
+		out.putInt(node.getEnd());
+		out.putInt(node.getCount());
+		out.putString(node.getValue());
+		for (int e = 1; e < node.getCount(); e++)
+		{
+			out.putString(node.bucket().get(e-1));
+		}
+	}
+	
+	/**
+	 * public static AVLTree readFrom(ReadableByteChannel channel)
+	 *
+	 * reads a tree that was written by writeTo from channel, and returns it.
+	 * since the items come sorted, the tree is built balanced in linear time while reading,
+	 * without any intermediate arrays. the bytes after the tree are left in the channel.
+	 * throws IOException if the data is not in the format of writeTo, its counts are negative,
+	 * its keys are not sorted or -1 (the key of the virtual nodes), or an interval ends before it starts.
+	 * @pre channel is in blocking mode
+	 * complexity: O(n + total length of the infos)
+	 */
+	public static AVLTree readFrom(ReadableByteChannel channel) throws IOException
+	{
+		FrameReader in = new FrameReader(channel);
+		try
+		{
+			if(in.getInt() != FRAME_MAGIC)
+			{
+				throw new IOException("not an AVLTree stream");
+			}
+			int n = in.getInt();
+			if(n < 0)
+			{
+				throw new IOException("negative number of items " + n);
+			}
+			AVLTree tree = new AVLTree();
+			AVLNode root = tree.readBalanced(in, n, new long[] {Long.MIN_VALUE});
+			in.finish();
+			if(root.isRealNode())
+			{
+				tree.become(new AVLTree(root, root.min(), root.max()));
+			}
+			return tree;
+		}
+		finally
+		{
+			in.release();
+		}
+	}
+	
+	/**
+	 * The method reads the next n nodes from in and builds a balanced subtree of them,
+	 * the same shape buildBalanced builds. lastKey holds the last key that was read.
+	 * complexity: O(n)
+	 */
+	private AVLNode readBalanced(FrameReader in, int n, long[] lastKey) throws IOException
+	{
+		if(n == 0)
+		{
+			return newVirtual();
+		}
+		AVLNode left = readBalanced(in, (n-1)/2, lastKey);
+		int key = in.getInt();
+		if(key <= lastKey[0])
+		{
+			throw new IOException("keys are not sorted");
+		}
+		if(key == -1)
+		{
+			throw new IOException("the key -1 is reserved for the virtual nodes");
+		}
+		lastKey[0] = key;
+		int end = in.getInt();
+		if(end < key)
+		{
+			throw new IOException("the interval at key " + key + " ends at " + end);
+		}
+		int count = in.getInt();
+		if(count < 1)
+		{
+			throw new IOException("illegal number of entries " + count + " at key " + key);
+		}
+		String info = in.getString();
+		ArrayList<String> bucket = null;
+		if(count > 1)
+		{
+			bucket = new ArrayList<String>(Math.min(count-1, 16)); //the count is not trusted for the allocation
+			for (int e = 1; e < count; e++)
+			{
+				bucket.add(in.getString());
+			}
+		}
+		AVLNode right = readBalanced(in, n-1-(n-1)/2, lastKey);
+		AVLNode node = newNode(info, key, left, right, null);
+		node.setEnd(end);
+		node.setEntries(count, bucket);
+		node.updateSize();
+		left.setParent(node);
+		right.setParent(node);
+		return node;
+	}
+	
+	/**
+	 * public CompactTree compact()
+	 *
+	 * Returns a read-only compressed copy of the tree, for trees that are rarely written.
+	 * the keys are delta encoded and bit packed in blocks, the infos are compressed by blocks,
+	 * and CompactTree.thaw() turns it back into a tree.
+	 * only the keys and the info of the items are kept (not interval ends or extra entries).
+	 * complexity: O(n)
+	 */
+	public CompactTree compact()
+	{
+		int[] keys = new int[this.size()];
+		String[] infos = new String[this.size()];
+		entriesToArrays(keys, infos, 0);
+		return new CompactTree(keys, infos);
+	}
+	
+   /**
+    * public int size()
+    *
+    * Returns the number of nodes in the tree.
+    *
+    * @pre: none
     * @post: none
-    * complexity: O(log(n))
+    * complexity: O(1)
+    */
+	public int size()
+	{
+		return this.root.getSize();
+	}
+   
+     /**
+    * public int getRoot()
+    *
+    * Returns the root AVL node, or null if the tree is empty
+    *
+    * @pre: none
+    * @post: none
+    * complexity: O(1)
+    */
+	public IAVLNode getRoot()
+	{
+		if(this.empty())
+		{
+			return null;  
+		}
+		return this.root;
+	}
+	
+     /**
+    * public string split(int x)
+    *
+    * splits the tree into 2 trees according to the key x. 
+    * Returns an array [t1, t2] with two AVL trees. keys(t1) < x < keys(t2).
+	* 
+	* @pre: search(x) != null
+    * @post: none
+    * complexity: O(log(n)), plus O(size of the smaller part) with a key filter
+    */   
+	public AVLTree[] split(int x) 
+	{
+		publish(Change.SPLIT, x, x, null, null);
+		return splitAt(x);
+	}
+	
+	/**
+	 * the implementation of split, used also by the internal splits
+	 * that should not be published to the change feed as splits
+	 * complexity: O(log(n)), plus O(size of the smaller part) with a key filter
+	 */
+	private AVLTree[] splitAt(int x)
+	{
+		if(this.unbalanced != null) //split relies on the heights, so the deferred rebalancing is done first
+		{
+			settleAll();
+		}
+		AVLNode node = treePosition(this.root,x); //find the node we want to split at
+		
+		AVLTree smaller = new AVLTree(node.left,null,null); //the tree of smaller keys than x
+		AVLTree bigger = new AVLTree(node.right,null,null); //the tree of bigger nodes than x
+		smaller.policy = this.policy; //the parts keep the rank rules of the tree
+		bigger.policy = this.policy;
+		
+		//the min and max fields are known without walks from the roots of the parts: the extreme keys
+		//of the tree stay extreme, and the keys next to x are the extremes of the sons of node
+		//or the first ancestors that are joined with each part. the sons are searched below node
+		//only, in O(height of node) steps, which is O(1) on average over the keys
+		smaller.min = node == this.min ? null : this.min;
+		bigger.max = node == this.max ? null : this.max;
+		smaller.max = node.left.isRealNode() ? node.left.max() : null;
+		bigger.min = node.right.isRealNode() ? node.right.min() : null;
+		
+		AVLNode parent = (AVLNode) node.getParent();
+		node.setParent(null); //detach node from it's parent
+		return splitUp(parent, x, smaller, bigger);
+	}
+	
+	/**
+	 * The method finishes a split at x: node and its ancestors are joined with their other
+	 * subtree to smaller if their keys are smaller than x, and to bigger otherwise. then the
+	 * key filter is handed to the parts, and the split is recorded.
+	 * returns [smaller, bigger].
+	 * @pre smaller and bigger hold the parts below node, their min and max fields are set
+	 * if they are known (the extremes of the tree, and the parts below node)
+	 * complexity: O(log(n)), plus O(size of the smaller part) with a key filter
+	 */
+	private AVLTree[] splitUp(AVLNode node, int x, AVLTree smaller, AVLTree bigger)
+	{
+		while (node != null) //stop when we get to the root's parent who is null
+		{
+			AVLNode parent = (AVLNode) node.getParent();
+			node.setParent(null); //detach node from it's parent
+			
+			if (node.getKey() >= x) //join the node and its right subtree with bigger
+			{
+				if(bigger.min == null)
+				{
+					bigger.min = node;
+				}
+				node.right.setParent(null);
+				bigger.joinRoots(bigger.root, node, node.right);
+			}
+			else //node.getKey() < x  //join the node and its left subtree with smaller
+			{
+				if(smaller.max == null)
+				{
+					smaller.max = node;
+				}
+				node.left.setParent(null);
+				smaller.joinRoots(node.left, node, smaller.root);
+			}
+			node = parent;
+		}
+		
+		if(this.keyFilter != null) //the larger part keeps the filter, the keys of the other part are only false positives in it
+		{
+			AVLTree small = smaller.size() <= bigger.size() ? smaller : bigger;
+			AVLTree large = small == smaller ? bigger : smaller;
+			large.keyFilter = this.keyFilter;
+			small.keyFilter = this.keyFilter.sized(Math.max(16, 2 * small.size()));
+			addKeys(small.root, small.keyFilter);
+		}
+		record(Trace.SPLIT, x);
+		return new AVLTree[] {smaller,bigger};
+	}
+	
+	/**
+	 * public int insertInterval(int lo, int hi, String i)
+	 *
+	 * inserts an item for the interval [lo, hi] with info i to the AVL tree.
+	 * the interval is kept under the key lo, so the starts of the intervals are distinct
+	 * like the keys of regular items. the nodes of the intervals, and the nodes with intervals
+	 * below them, keep the maximal end of the intervals in their subtree, which is maintained
+	 * with the sizes through the rotations, split and join. the other nodes keep nothing extra.
+	 * returns the number of rebalancing operations, or -1 if an item with key lo already exists.
+	 * @pre lo <= hi
+	 * complexity: O(log(n))
+	 */
+	public int insertInterval(int lo, int hi, String i)
+	{
+		AVLNode insertAfter = treePosition(this.root, lo);
+		if(!this.empty() && insertAfter.getKey() == lo)
+		{
+			return -1;
+		}
+		AVLNode node = newNode(i, lo, newVirtual(), newVirtual(), null);
+		node.setEnd(hi);
+		node.updateSize();
+		publish(Change.INSERT, lo, hi, i, null);
+		return attach(this.empty() ? null : insertAfter, node);
+	}
+	
+	/**
+	 * public int addAll(int k, String... infos)
+	 *
+	 * adds an entry with key k for every info in infos. unlike insert, the key may
+	 * already be in the tree: its node keeps a count of the entries with the key and a
+	 * bucket of their values, and the nodes above it keep the number of entries in their
+	 * subtrees (a subtree of single entries keeps nothing, its entries are its size).
+	 * returns the number of entries with key k after the addition.
+	 * complexity: O(log(n) + m), m is the number of infos
+	 */
+	public int addAll(int k, String... infos)
+	{
+		if(infos.length == 0)
+		{
+			return count(k);
+		}
+		AVLNode node = treePosition(this.root, k);
+		int first = 0;
+		if(this.empty() || node.getKey() != k) //new key, the first info goes to the node itself
+		{
+			insertAt(node, k, infos[0]);
+			node = this.lastPosition;
+			first = 1;
+		}
+		if(first < infos.length)
+		{
+			ArrayList<String> bucket = node.bucket();
+			if(bucket == null)
+			{
+				bucket = new ArrayList<String>();
+			}
+			for (int j = first; j < infos.length; j++)
+			{
+				bucket.add(internValue(infos[j]));
+				publish(Change.ADD, k, k, infos[j], null);
+			}
+			node.setEntries(node.getCount() + infos.length - first, bucket);
+			updateSizesTillRoot(node);
+		}
+		return node.getCount();
+	}
+	
+	/**
+	 * public String removeOne(int k)
+	 *
+	 * removes one entry with key k (the last one added) and returns its info,
+	 * or returns null if k is not in the tree.
+	 * the node of k is deleted when its last entry is removed.
+	 * complexity: O(log(n))
+	 */
+	public String removeOne(int k)
+	{
+		AVLNode node = treePosition(this.root, k);
+		if(this.empty() || node.getKey() != k)
+		{
+			return null;
+		}
+		if(node.getCount() == 1)
+		{
+			String info = node.getValue();
+			deleteNode(node);
+			return info;
+		}
+		publish(Change.REMOVE_ONE, k, k, null, null);
+		ArrayList<String> bucket = node.bucket();
+		String info = bucket.remove(bucket.size()-1);
+		node.setEntries(node.getCount() - 1, bucket);
+		updateSizesTillRoot(node);
+		return info;
+	}
+	
+	/**
+	 * public int count(int k)
+	 *
+	 * Returns the number of entries with key k in the tree (0 if there are none)
+	 * complexity: O(log(n))
+	 */
+	public int count(int k)
+	{
+		AVLNode node = treePosition(this.root, k);
+		if(this.empty() || node.getKey() != k)
+		{
+			return 0;
+		}
+		return node.getCount();
+	}
+	
+	/**
+	 * public String[] valuesOf(int k)
+	 *
+	 * Returns the infos of all the entries with key k, in the order they were added,
+	 * or an empty array if k is not in the tree.
+	 * complexity: O(log(n) + c), c is the number of entries with key k
+	 */
+	public String[] valuesOf(int k)
+	{
+		AVLNode node = treePosition(this.root, k);
+		if(this.empty() || node.getKey() != k)
+		{
+			return new String[0];
+		}
+		String[] arr = new String[node.getCount()];
+		arr[0] = node.getValue();
+		for (int j = 1; j < arr.length; j++)
+		{
+			arr[j] = node.bucket().get(j-1);
+		}
+		return arr;
+	}
+	
+	/**
+	 * public int entries()
+	 *
+	 * Returns the number of entries in the tree, counting every key by its multiplicity
+	 * (equals size() if every key was added once).
+	 * complexity: O(1)
+	 */
+	public int entries()
+	{
+		return this.root.entries();
+	}
+	
+	/**
+	 * public int rank(int k)
+	 *
+	 * Returns the number of entries in the tree with keys smaller than k,
+	 * counting every key by its multiplicity.
+	 * complexity: O(log(n))
+	 */
+	public int rank(int k)
+	{
+		int rank = 0;
+		AVLNode node = this.root;
+		while(node.isRealNode())
+		{
+			if(k <= node.getKey())
+			{
+				node = node.left;
+			}
+			else
+			{
+				rank += node.left.entries() + node.getCount();
+				node = node.right;
+			}
+		}
+		return rank;
+	}
+	
+	/**
+	 * public int select(int i)
+	 *
+	 * Returns the key of the i'th smallest entry in the tree,
+	 * counting every key by its multiplicity.
+	 * @pre 1 <= i <= entries()
+	 * complexity: O(log(n))
+	 */
+	public int select(int i)
+	{
+		return selectNode(i).getKey();
+	}
+	
+	/**
+	 * The method returns the node that holds the i'th smallest entry of the tree
+	 * @pre 1 <= i <= entries()
+	 * complexity: O(log(n))
+	 */
+	private AVLNode selectNode(int i)
+	{
+		AVLNode node = this.root;
+		while(true)
+		{
+			if(i <= node.left.entries())
+			{
+				node = node.left;
+			}
+			else if(i <= node.left.entries() + node.getCount())
+			{
+				return node;
+			}
+			else
+			{
+				i -= node.left.entries() + node.getCount();
+				node = node.right;
+			}
+		}
+	}
+	
+	/**
+	 * public AVLNode[] findOverlapping(int lo, int hi)
+	 *
+	 * Returns the nodes of all the intervals in the tree that overlap [lo, hi],
+	 * sorted by their start. regular items are treated as intervals [key, key].
+	 * the intervals that start before lo are found by the maximal ends of the intervals
+	 * in the subtrees (subtrees without intervals that reach lo are skipped), and the items
+	 * that start in [lo, hi] by their keys.
+	 * the nodes are for reading: with a node arena, a node may be reused once its item is
+	 * deleted, so a node that should stay a handle for remove or updateKey is taken by handle.
+	 * @pre lo <= hi
+	 * complexity: O(min(n, (k+1)log(n))), k is the number of intervals returned
+	 */
+	public AVLNode[] findOverlapping(int lo, int hi)
+	{
+		ArrayList<AVLNode> result = new ArrayList<AVLNode>();
+		if(!this.empty())
+		{
+			reachingFrom(this.root, lo, result);
+			startingIn(this.root, lo, hi, result);
+		}
+		return result.toArray(new AVLNode[result.size()]);
+	}
+	
+	/**
+	 * The method adds the nodes in the subtree of node whose intervals start before lo
+	 * and end at lo or after it to result, in ascending order of their starts.
+	 * complexity: O(min(n, (k+1)log(n)))
+	 */
+	private void reachingFrom(AVLNode node, int lo, ArrayList<AVLNode> result)
+	{
+		if(node.intervalsEnd() < lo) //no interval in this subtree ends at lo or after it (or the node is virtual)
+		{
+			return;
+		}
+		reachingFrom(node.left, lo, result);
+		if(node.getKey() >= lo) //this item and the ones in the right subtree start at lo or after it
+		{
+			return;
+		}
+		if(node.getEnd() >= lo)
+		{
+			result.add(node);
+		}
+		reachingFrom(node.right, lo, result);
+	}
+	
+	/**
+	 * The method adds the nodes in the subtree of node whose keys are in [lo, hi]
+	 * to result, in ascending order of their keys.
+	 * complexity: O(log(n) + k)
+	 */
+	private void startingIn(AVLNode node, int lo, int hi, ArrayList<AVLNode> result)
+	{
+		if(!node.isRealNode())
+		{
+			return;
+		}
+		if(node.getKey() > lo)
+		{
+			startingIn(node.left, lo, hi, result);
+		}
+		if(lo <= node.getKey() && node.getKey() <= hi)
+		{
+			result.add(node);
+		}
+		if(node.getKey() < hi)
+		{
+			startingIn(node.right, lo, hi, result);
+		}
+	}
+	
+	/**
+	 * public AVLNode[] stab(int point)
+	 *
+	 * Returns the nodes of all the intervals in the tree that contain point,
+	 * sorted by their start.
+	 * complexity: O(min(n, (k+1)log(n))), k is the number of intervals returned
+	 */
+	public AVLNode[] stab(int point)
+	{
+		return findOverlapping(point, point);
+	}
+	
+	/**
+	 * private AVLTree[] splitBelow(int x)
+	 *
+	 * splits the tree into 2 trees according to the key x, which does not have to be in the tree.
+	 * Returns an array [t1, t2] with two AVL trees. keys(t1) < x <= keys(t2).
+	 * the split climbs the search path of x like split: if x is in the tree its node is the
+	 * first node joined with t2, and otherwise the climb starts at the last node of the path,
+	 * and the empty son where x would be inserted starts the part that node is joined with.
+	 * nothing is inserted, so the key filter, the trace and the last search position are not touched.
+	 * like split, the tree itself is not valid after the call.
+	 * complexity: O(log(n)), plus O(size of the smaller part) with a key filter
+	 */
+	AVLTree[] splitBelow(int x)
+	{
+		if(this.empty())
+		{
+			return new AVLTree[] {new AVLTree(), new AVLTree()};
+		}
+		if(this.unbalanced != null) //split relies on the heights, so the deferred rebalancing is done first
+		{
+			settleAll();
+		}
+		AVLNode node = treePosition(this.root, x);
+		AVLNode smallerRoot;
+		AVLNode biggerRoot;
+		if(node.getKey() == x) //node is joined with t2, and takes a virtual left son there
+		{
+			smallerRoot = node.left;
+			biggerRoot = newVirtual();
+		}
+		else //the empty son of node on the path becomes a son of node again when node is joined
+		{
+			AVLNode slot = x < node.getKey() ? node.left : node.right;
+			smallerRoot = x < node.getKey() ? newVirtual() : slot;
+			biggerRoot = x < node.getKey() ? slot : newVirtual();
+		}
+		smallerRoot.setParent(null);
+		biggerRoot.setParent(null);
+		AVLTree smaller = new AVLTree(smallerRoot, null, null); //the tree of smaller keys than x
+		AVLTree bigger = new AVLTree(biggerRoot, null, null); //the tree of keys from x up
+		smaller.policy = this.policy;
+		bigger.policy = this.policy;
+		smaller.min = this.min.getKey() < x ? this.min : null;
+		bigger.max = this.max.getKey() >= x ? this.max : null;
+		smaller.max = smallerRoot.isRealNode() ? smallerRoot.max() : null;
+		return splitUp(node, x, smaller, bigger);
+	}
+	
+	/**
+	 * The method makes this tree hold the nodes of t (t should not be used afterwards).
+	 * if this tree has a key filter, it takes the filter of t (a part of a split of this tree
+	 * has one), or rebuilds its filter if t has none.
+	 * complexity: O(1), or O(n) if the key filter is rebuilt
+	 */
+	void become(AVLTree t)
+	{
+		this.root = t.root;
+		this.min = t.min;
+		this.max = t.max;
+		this.lastPosition = null;
+		if(this.keyFilter != null)
+		{
+			if(t.keyFilter != null)
+			{
+				this.keyFilter = t.keyFilter;
+			}
+			else
+			{
+				rebuildKeyFilter();
+			}
+		}
+	}
+	
+	/**
+	 * public void setRelaxedBalance(int maxUnbalanced)
+	 *
+	 * sets the tree to relaxed balance when maxUnbalanced > 0: insertions and deletions
+	 * only update the sizes and record the node under which the tree changed, and the
+	 * rotations are made later, by rebalanceStep (see also RebalanceScheduler).
+	 * at most maxUnbalanced nodes stay recorded: an update that records more settles the
+	 * oldest one, so the height is at most about maxUnbalanced above the AVL bound.
+	 * searches and the other queries are correct all the time, split and join settle
+	 * the recorded nodes first. 0 settles all the recorded nodes and goes back to eager rebalancing.
+	 * throws IllegalArgumentException if maxUnbalanced < 0, and IllegalStateException
+	 * for a WAVL tree, since the relaxed balance keeps the AVL rules.
+	 * complexity: O(1), O(m*log(n)) when leaving relaxed balance with m recorded nodes
+	 */
+	public void setRelaxedBalance(int maxUnbalanced)
+	{
+		if (maxUnbalanced < 0)
+		{
+			throw new IllegalArgumentException("the number of unbalanced nodes must be >= 0");
+		}
+		if (maxUnbalanced > 0 && this.policy == RebalancePolicy.WAVL)
+		{
+			throw new IllegalStateException("a WAVL tree cannot be relaxed");
+		}
+		if (maxUnbalanced == 0)
+		{
+			if (this.unbalanced != null)
+			{
+				settleAll();
+				this.unbalanced = null;
+			}
+		}
+		else if (this.unbalanced == null)
+		{
+			this.unbalanced = new ArrayDeque<AVLNode>();
+		}
+		this.maxUnbalanced = maxUnbalanced;
+	}
+	
+	/**
+	 * public boolean isRelaxedBalance()
+	 *
+	 * Returns true if the tree defers its rebalancing
+	 * complexity: O(1)
+	 */
+	public boolean isRelaxedBalance()
+	{
+		return this.unbalanced != null;
+	}
+	
+	/**
+	 * public int rebalanceStep(int budget)
+	 *
+	 * settles at most budget of the nodes recorded by relaxed updates, the oldest first:
+	 * the heights above a node are fixed, and the subtrees that became unbalanced are
+	 * rotated back into shape. returns the number of recorded nodes that are left.
+	 * complexity: O(budget*log(n))
+	 */
+	public int rebalanceStep(int budget)
+	{
+		if (this.unbalanced == null)
+		{
+			return 0;
+		}
+		for (int j = 0; j < budget && !this.unbalanced.isEmpty(); j++)
+		{
+			settle(this.unbalanced.poll());
+		}
+		return this.unbalanced.size();
+	}
+	
+	/**
+	 * The method records that the subtree of node changed without rebalancing,
+	 * and settles the oldest recorded nodes while there are too many (a settle can
+	 * record the nodes it links with unsettled sons)
+	 * complexity: O(1), O(log(n)) when a node is settled
+	 */
+	private void markUnbalanced(AVLNode node)
+	{
+		this.unbalanced.add(node);
+		while (this.unbalanced.size() > this.maxUnbalanced)
+		{
+			settle(this.unbalanced.poll());
+		}
+	}
+	
+	/**
+	 * The method settles all the nodes recorded by relaxed updates
+	 * complexity: O(m*log(n)), m is the number of recorded nodes
+	 */
+	private void settleAll()
+	{
+		while (!this.unbalanced.isEmpty())
+		{
+			settle(this.unbalanced.poll());
+		}
+	}
+	
+	/**
+	 * The method fixes the tree above node, a node recorded by a relaxed update:
+	 * every node on the way up gets the height of its sons, and a node whose sons differ
+	 * by more than 1 is replaced by the join of its subtrees with it.
+	 * stops at the first subtree that keeps its height. does nothing if node was removed.
+	 * returns the number of rebalancing operations.
+	 * complexity: O(log(n))
+	 */
+	private int settle(AVLNode node)
+	{
+		if (!isInTree(node))
+		{
+			return 0;
+		}
+		int rebalanceNum = 0;
+		while (node != null)
+		{
+			AVLNode parent = node.parent;
+			boolean isLeft = parent != null && parent.left == node;
+			int height = node.height;
+			AVLNode top;
+			if (Math.abs(node.left.height - node.right.height) > 1)
+			{
+				top = joinNodes(node.left, node, node.right);
+				rebalanceNum += 2; //counted like a single rotation
+			}
+			else
+			{
+				top = link(node, node.left, node.right);
+			}
+			top.parent = parent;
+			if (parent == null)
+			{
+				this.root = top;
+			}
+			else if (isLeft)
+			{
+				parent.left = top;
+			}
+			else
+			{
+				parent.right = top;
+			}
+			if (top.height == height) //the nodes above are not affected
+			{
+				break;
+			}
+			rebalanceNum++;
+			node = parent;
+		}
+		return rebalanceNum;
+	}
+	
+	/**
+	 * The method returns true if node is a real node of this tree (it might have been
+	 * removed after it was recorded). handles are never recycled by the node arena, so
+	 * a stale handle is not a node of any tree
+	 * complexity: O(log(n))
+	 */
+	private boolean isInTree(AVLNode node)
+	{
+		if (node.left == null || !node.isRealNode())
+		{
+			return false;
+		}
+		while (node.parent != null)
+		{
+			if (node.parent.left != node && node.parent.right != node)
+			{
+				return false;
+			}
+			node = node.parent;
+		}
+		return node == this.root;
+	}
+	
+	/**
+	 * The method makes left and right the sons of node, and sets its height and size
+	 * by them. returns node.
+	 * node is recorded if its sons differ by more than 1, which can happen when the
+	 * heights below were not settled yet.
+	 * complexity: O(1)
+	 */
+	private AVLNode link(AVLNode node, AVLNode left, AVLNode right)
+	{
+		node.left = left;
+		node.right = right;
+		left.parent = node;
+		right.parent = node;
+		node.height = Math.max(left.height, right.height) + 1;
+		node.updateSize();
+		if (Math.abs(left.height - right.height) > 1 && this.unbalanced != null)
+		{
+			this.unbalanced.add(node);
+		}
+		return node;
+	}
+	
+	/**
+	 * The method joins the subtrees left and right with node between them, and returns the
+	 * root of the result. the parent of the root is not set. it is the join of join, split and
+	 * settle: the heights are taken from the sons by link, so the subtrees of a relaxed tree
+	 * that are not settled yet are joined too, and the nodes left unbalanced are recorded.
+	 * Sequence joins its nodes, which are ordered by position, with it too.
+	 * @pre keys(left) < node.key < keys(right)
+	 * complexity: O(|left.height - right.height| + 1)
+	 */
+	AVLNode joinNodes(AVLNode left, AVLNode node, AVLNode right)
+	{
+		if (left.height > right.height + 1)
+		{
+			return joinNodesRight(left, node, right);
+		}
+		if (right.height > left.height + 1)
+		{
+			return joinNodesLeft(left, node, right);
+		}
+		return link(node, left, right);
+	}
+	
+	/**
+	 * The method hangs node and right on the right spine of the higher subtree left,
+	 * and rotates on the way back where the spine became too high, or too low: the nodes of
+	 * the spine get the height of their sons, so a WAVL node whose rank was 2 above both its
+	 * sons loses a rank
+	 * complexity: O(left.height - right.height)
+	 */
+	private AVLNode joinNodesRight(AVLNode left, AVLNode node, AVLNode right)
+	{
+		AVLNode c = left.right;
+		AVLNode t;
+		if (c.height <= right.height + 1)
+		{
+			t = link(node, c, right);
+			if (t.height > left.left.height + 1 && t.left.isRealNode())
+			{
+				return rotateLeftNodes(link(left, left.left, rotateRightNodes(t)));
+			}
+			return link(left, left.left, t);
+		}
+		t = joinNodesRight(c, node, right);
+		if (t.height > left.left.height + 1)
+		{
+			return rotateLeftNodes(link(left, left.left, t));
+		}
+		AVLNode a = left.left;
+		if (a.height > t.height + 1) //the spine shrank: c was a WAVL node whose rank was 2 above its sons
+		{
+			if (a.right.height > a.left.height && a.right.isRealNode())
+			{
+				a = rotateLeftNodes(a);
+			}
+			return rotateRightNodes(link(left, a, t));
+		}
+		return link(left, a, t);
+	}
+	
+	/**
+	 * symmetric to joinNodesRight
+	 * complexity: O(right.height - left.height)
+	 */
+	private AVLNode joinNodesLeft(AVLNode left, AVLNode node, AVLNode right)
+	{
+		AVLNode c = right.left;
+		AVLNode t;
+		if (c.height <= left.height + 1)
+		{
+			t = link(node, left, c);
+			if (t.height > right.right.height + 1 && t.right.isRealNode())
+			{
+				return rotateRightNodes(link(right, rotateLeftNodes(t), right.right));
+			}
+			return link(right, t, right.right);
+		}
+		t = joinNodesLeft(left, node, c);
+		if (t.height > right.right.height + 1)
+		{
+			return rotateRightNodes(link(right, t, right.right));
+		}
+		AVLNode b = right.right;
+		if (b.height > t.height + 1) //the spine shrank, like in joinNodesRight
+		{
+			if (b.left.height > b.right.height && b.left.isRealNode())
+			{
+				b = rotateRightNodes(b);
+			}
+			return rotateLeftNodes(link(right, t, b));
+		}
+		return link(right, t, b);
+	}
+	
+	/**
+	 * The method rotates the subtree of node to the left and returns its new root
+	 * complexity: O(1)
+	 */
+	private AVLNode rotateLeftNodes(AVLNode node)
+	{
+		AVLNode right = node.right;
+		link(node, node.left, right.left);
+		return link(right, node, right.right);
+	}
+	
+	/**
+	 * The method rotates the subtree of node to the right and returns its new root
+	 * complexity: O(1)
+	 */
+	private AVLNode rotateRightNodes(AVLNode node)
+	{
+		AVLNode left = node.left;
+		link(node, left.right, node.right);
+		return link(left, left.left, node);
+	}
+	
+	/**
+	 * public void setRebalancePolicy(RebalancePolicy policy)
+	 *
+	 * sets the rank rules the tree keeps from now on.
+	 * throws IllegalStateException when moving a non empty tree from WAVL to AVL,
+	 * since its ranks might not be legal AVL ranks.
+	 * complexity: O(1)
+	 */
+	public void setRebalancePolicy(RebalancePolicy policy)
+	{
+		if (policy == RebalancePolicy.AVL && this.policy == RebalancePolicy.WAVL && !this.empty())
+		{
+			throw new IllegalStateException("a non empty WAVL tree cannot become an AVL tree");
+		}
+		if (policy == RebalancePolicy.WAVL && this.unbalanced != null)
+		{
+			throw new IllegalStateException("a relaxed tree cannot become a WAVL tree");
+		}
+		this.policy = policy;
+	}
+	
+	/**
+	 * public RebalancePolicy getRebalancePolicy()
+	 *
+	 * Returns the rank rules the tree keeps
+	 * complexity: O(1)
+	 */
+	public RebalancePolicy getRebalancePolicy()
+	{
+		return this.policy;
+	}
+	
+	/**
+	 * public void setChangeFeed(ChangeFeed feed)
+	 *
+	 * sets the feed that receives the changes of the tree (null to stop publishing).
+	 * every insert, delete, split, join and eviction is published to the feed
+	 * with a sequence number, so a Follower can apply it to a replica of the tree.
+	 * joins are replicated by value: a join publishes a snapshot of the joined tree and its
+	 * separator (with all the entries of the separator), so it costs
+	 * O(size of the joined tree) while the tree has a feed. appendAll and concatAll publish a
+	 * single join each, and their inner joins are not published.
+	 * complexity: O(1)
+	 */
+	public void setChangeFeed(ChangeFeed feed)
+	{
+		this.feed = feed;
+	}
+	
+	/**
+	 * public ChangeFeed getChangeFeed()
+	 *
+	 * Returns the feed that receives the changes of the tree, or null if there is none
+	 * complexity: O(1)
+	 */
+	public ChangeFeed getChangeFeed()
+	{
+		return this.feed;
+	}
+	
+	/**
+	 * The method publishes a change to the feed of the tree, if there is one
+	 * complexity: O(1)
+	 */
+	private void publish(int type, int key, int end, String info, byte[] snapshot)
+	{
+		if(this.feed != null)
+		{
+			this.feed.publish(type, key, end, info, snapshot, null);
+		}
+	}
+	
+	/**
+	 * The method records a call of op with key to the trace of the tree, if there is one.
+	 * the call is timed from the search of key that led to it (see Trace.started)
+	 * complexity: O(1) amortized
+	 */
+	private void record(byte op, int key)
+	{
+		Trace trace = this.trace;
+		if(trace != null)
+		{
+			trace.record(op, key, trace.started(key), System.nanoTime());
+		}
+	}
+	
+	/**
+	 * The method returns the tree with the node separator (which is not in the tree) encoded
+	 * in the format of writeTo, see writeTo(channel, separator)
+	 * complexity: O(n)
+	 */
+	private byte[] snapshot(AVLNode separator)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try
+		{
+			writeTo(Channels.newChannel(bytes), separator);
+		}
+		catch (IOException e) //cannot happen when writing to memory
+		{
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * public void setValuePool(ValuePool pool)
+	 *
+	 * sets the pool the values of the tree are interned in (null to stop interning).
+	 * values that are set from now on are replaced by their canonical instance in pool,
+	 * so repeated values are kept only once. a pool can be shared by many trees.
+	 * complexity: O(1)
+	 */
+	public void setValuePool(ValuePool pool)
+	{
+		this.valuePool = pool;
+	}
+	
+	/**
+	 * public void setValueArena(ValueArena arena)
+	 *
+	 * makes the tree keep the values of its nodes as UTF-8 bytes in arena, instead of
+	 * a String per node. the nodes the tree creates from now on keep an int reference to
+	 * their value (only these nodes have the field, see ArenaNode), and getValue, search and
+	 * infoToArray decode it, so the arena is transparent. the extra entries of addAll are
+	 * kept as strings.
+	 * meant for trees with mostly unique values, use a pool for repetitive ones.
+	 * the arena only grows, see compactValueArena.
+	 * throws IllegalStateException if the tree is not empty or already has an arena,
+	 * since the references of the existing nodes would not match.
+	 * complexity: O(1)
+	 */
+	public void setValueArena(ValueArena arena)
+	{
+		if(!this.empty() || this.valueArena != null)
+		{
+			throw new IllegalStateException("the value arena can be set once, while the tree is empty");
+		}
+		this.valueArena = arena;
+	}
+	
+	/**
+	 * public void compactValueArena()
+	 *
+	 * moves the values of the tree to a new value arena, which holds only them, and drops
+	 * the tree's reference to the old one. a value arena only grows (the bytes of the values
+	 * that are deleted or replaced are not reused), so a tree with churn calls this when
+	 * getValueArena().bytes() grows well beyond the size of its values; the old arena is
+	 * reclaimed when no node keeps a value in it. the nodes of the tree that keep their
+	 * values elsewhere are not moved. does nothing if the tree has no value arena.
+	 * complexity: O(n + the bytes of the values)
+	 */
+	public void compactValueArena()
+	{
+		if(this.valueArena == null)
+		{
+			return;
+		}
+		ValueArena old = this.valueArena;
+		this.valueArena = new ValueArena();
+		moveValues(this.root, old);
+	}
+	
+	/**
+	 * The method moves the values the nodes in the subtree of node keep in old to the value arena of the tree
+	 * complexity: O(size of the subtree + the bytes of the values)
+	 */
+	private void moveValues(AVLNode node, ValueArena old)
+	{
+		while(node.isRealNode())
+		{
+			moveValues(node.left, old);
+			if(node instanceof ArenaNode && ((ArenaNode) node).arena() == old)
+			{
+				String value = node.getValue();
+				node.info = this.valueArena;
+				node.setValue(value);
+			}
+			node = node.right;
+		}
+	}
+	
+	/**
+	 * public ValueArena getValueArena()
+	 *
+	 * returns the value arena of the tree, or null if its values are kept as strings.
+	 * complexity: O(1)
+	 */
+	public ValueArena getValueArena()
+	{
+		return this.valueArena;
+	}
+	
+	/**
+	 * public void setNodeArena(NodeArena arena)
+	 *
+	 * sets the free list the tree recycles its nodes through (null to stop recycling).
+	 * the nodes removed by deletions are handed to arena, and insertions take their nodes
+	 * from it, so steady insert/delete churn allocates no nodes.
+	 * the nodes returned as handles (by handle and insertHandle) are not reused, so remove
+	 * and updateKey keep rejecting them after their items are deleted. other nodes (returned by
+	 * findOverlapping and stab, or reached through getRoot or the links of a node) may be reused
+	 * for another item once their item is deleted.
+	 * an arena can be shared by trees: a node keeps its value in the storage it was created
+	 * with (a string, or the value arena of its tree, see ArenaNode), and a tree reuses only
+	 * the nodes that keep their values like it does. the value pool of a tree is applied by
+	 * the tree to the values it stores, whichever tree created the node.
+	 * complexity: O(1)
+	 */
+	public void setNodeArena(NodeArena arena)
+	{
+		this.nodeArena = arena;
+	}
+	
+	/**
+	 * public void setKeyFilter(KeyFilter filter)
+	 *
+	 * sets the filter that answers searches and deletions of absent keys without walking
+	 * the tree (null to stop filtering), and fills it with the keys of the tree.
+	 * insertions and deletions keep the filter up to date, and it grows with the tree.
+	 * join adds the keys of the joined tree to the filter, in O(size of the joined tree).
+	 * split keeps the filter in the larger part and gives the smaller part a new filter of
+	 * its keys, in O(size of the smaller part), and the evictions use split. the keys that
+	 * leave the tree this way stay in the filter as false positives, until the filter fills
+	 * up and is rebuilt with the keys of the tree.
+	 * complexity: O(n + capacity of the filter)
+	 */
+	public void setKeyFilter(KeyFilter filter)
+	{
+		this.keyFilter = filter;
+		if(filter != null)
+		{
+			rebuildKeyFilter();
+		}
+	}
+	
+	/**
+	 * public KeyFilter getKeyFilter()
+	 *
+	 * returns the key filter of the tree, or null if there is none
+	 * complexity: O(1)
+	 */
+	public KeyFilter getKeyFilter()
+	{
+		return this.keyFilter;
+	}
+	
+	/**
+	 * public void rebuildKeyFilter()
+	 *
+	 * refills the key filter with the keys of the tree, dropping the keys that left the tree
+	 * in bulk. the filter is enlarged if the tree has more keys than it is sized for.
+	 * does nothing if the tree has no filter.
+	 * complexity: O(n + capacity of the filter)
+	 */
+	public void rebuildKeyFilter()
+	{
+		if(this.keyFilter == null)
+		{
+			return;
+		}
+		if(this.size() > this.keyFilter.capacity)
+		{
+			this.keyFilter.resize(2 * this.size());
+		}
+		else
+		{
+			this.keyFilter.clear();
+		}
+		addKeys(this.root, this.keyFilter);
+	}
+	
+	/**
+	 * The method adds the keys of the subtree of node to filter
+	 * complexity: O(size of the subtree)
+	 */
+	private static void addKeys(AVLNode node, KeyFilter filter)
+	{
+		while(node.isRealNode())
+		{
+			addKeys(node.left, filter);
+			filter.add(node.getKey());
+			node = node.right;
+		}
+	}
+	
+	/**
+	 * The method adds k to the key filter. when the filter is full it is rebuilt with the keys
+	 * of the tree, for twice their number, which also drops the keys that left the tree in bulk
+	 * complexity: O(1) amortized
+	 */
+	private void addToKeyFilter(int k)
+	{
+		if(this.keyFilter.count >= this.keyFilter.capacity)
+		{
+			this.keyFilter.resize(Math.max(16, 2 * (this.size() + 1))); //the new node is not linked to the tree yet
+			addKeys(this.root, this.keyFilter);
+		}
+		this.keyFilter.add(k);
+	}
+	
+	/**
+	 * public void setTrace(Trace trace)
+	 *
+	 * records the insertions, deletions, searches, splits and joins of the tree, with their timing,
+	 * to trace (null to stop recording). they are recorded where all the calls meet, so every
+	 * call that inserts or deletes a node is recorded (append, pollFirst, remove, updateKey as a
+	 * delete and an insert, and so on), and so are search, searchNear and handle.
+	 * a call is timed from its search for the key (see Trace.started), which is kept per thread,
+	 * so concurrent readers do not disturb the recording. the current keys of the tree are
+	 * recorded first, so a replay starts from the same contents. the values are not recorded.
+	 * complexity: O(n)
+	 */
+	public void setTrace(Trace trace)
+	{
+		this.trace = trace;
+		if(trace != null)
+		{
+			for (int k : keysToArray())
+			{
+				trace.record(Trace.LOAD, k, 0, 0);
+			}
+		}
+	}
+	
+	/**
+	 * public NodeArena getNodeArena()
+	 *
+	 * returns the node arena of the tree, or null if its nodes are not recycled.
+	 * complexity: O(1)
+	 */
+	public NodeArena getNodeArena()
+	{
+		return this.nodeArena;
+	}
+	
+	/**
+	 * The method returns the canonical instance of s in the value pool of the tree,
+	 * or s if the tree has no pool
+	 * complexity: O(1) expected
+	 */
+	private String internValue(String s)
+	{
+		if(this.valuePool == null || s == null)
+		{
+			return s;
+		}
+		return this.valuePool.intern(s);
+	}
+	
+	/**
+	 * public AVLTree evictBelow(int key)
+	 *
+	 * removes all the items with keys smaller than key from the tree at once, using split,
+	 * and returns them as a separate AVL tree. the evicted tree can be dropped, or handed off
+	 * for reclamation later, without any cost for the remaining tree.
+	 * complexity: O(log(n)), no matter how many items are evicted (plus O(size of the smaller part)
+	 * with a key filter)
+	 */
+	public AVLTree evictBelow(int key)
+	{
+		publish(Change.EVICT_BELOW, key, key, null, null);
+		AVLTree[] parts = splitBelow(key);
+		become(parts[1]);
+		return parts[0];
+	}
+	
+	/**
+	 * public AVLTree[] retainRange(int lo, int hi)
+	 *
+	 * removes all the items with keys outside [lo, hi] from the tree at once, using split.
+	 * Returns an array [t1, t2] of the removed AVL trees. keys(t1) < lo and keys(t2) > hi.
+	 * @pre lo <= hi
+	 * complexity: O(log(n)), no matter how many items are removed (plus O(size of the smaller parts)
+	 * with a key filter)
+	 */
+	public AVLTree[] retainRange(int lo, int hi)
+	{
+		AVLTree below = evictBelow(lo);
+		if(hi == Integer.MAX_VALUE) //there are no keys above hi
+		{
+			return new AVLTree[] {below, new AVLTree()};
+		}
+		publish(Change.EVICT_FROM, hi + 1, hi + 1, null, null);
+		AVLTree[] parts = splitBelow(hi + 1);
+		become(parts[0]);
+		return new AVLTree[] {below, parts[1]};
+	}
+	
+	/**
+	 * public AVLTree[] splitInto(int[] pivots)
+	 *
+	 * splits the tree into N+1 trees by the N pivots, which do not have to be in the tree.
+	 * Returns an array [t0, ..., tN] of AVL trees, where keys(t0) < pivots[0],
+	 * pivots[j-1] <= keys(tj) < pivots[j], and keys(tN) >= pivots[N-1].
+	 * like split, the tree itself is not valid after the call.
+	 * throws IllegalArgumentException if pivots is not sorted in ascending order.
+	 * complexity: O(N*log(n))
+	 */
+	public AVLTree[] splitInto(int[] pivots)
+	{
+		for (int j = 1; j < pivots.length; j++)
+		{
+			if(pivots[j] < pivots[j-1])
+			{
+				throw new IllegalArgumentException("the pivots are not sorted");
+			}
+		}
+		if(this.feed != null) //every pivot is published, a follower splits below them like the loop below
+		{
+			this.feed.publish(Change.SPLIT_INTO, pivots.length > 0 ? pivots[0] : 0, 0, null, null, pivots.clone());
+		}
+		return splitBelowAll(pivots);
+	}
+	
+	/**
+	 * the implementation of splitInto, used also by Follower to replay it
+	 * @pre pivots is sorted in ascending order
+	 * complexity: O(N*log(n))
+	 */
+	AVLTree[] splitBelowAll(int[] pivots)
+	{
+		AVLTree[] trees = new AVLTree[pivots.length + 1];
+		AVLTree rest = this;
+		for (int j = 0; j < pivots.length; j++) //cut the smallest piece off the rest every time
+		{
+			long start = System.nanoTime();
+			AVLTree[] parts = rest.splitBelow(pivots[j]);
+			if(rest != this && this.trace != null) //the rest has no trace, its split is a split of this tree
+			{
+				this.trace.record(Trace.SPLIT, pivots[j], start, System.nanoTime());
+			}
+			trees[j] = parts[0];
+			rest = parts[1];
+		}
+		trees[pivots.length] = (rest == this) ? new AVLTree(this.root, this.min, this.max) : rest;
+		for (AVLTree t : trees)
+		{
+			t.policy = this.policy;
+		}
+		return trees;
+	}
+	
+	/**
+	 * public AVLTree[] splitBySize(int parts)
+	 *
+	 * splits the tree into the given number of trees of equal sizes (up to one node),
+	 * in ascending order of keys. the pivots are found by the sizes of the subtrees, so the
+	 * tree is not scanned. like split, the tree itself is not valid after the call.
+	 * throws IllegalArgumentException if parts < 1.
+	 * complexity: O(parts*log(n))
+	 */
+	public AVLTree[] splitBySize(int parts)
+	{
+		if(parts < 1)
+		{
+			throw new IllegalArgumentException("parts must be positive");
+		}
+		int n = this.size();
+		int[] pivots = new int[parts - 1];
+		int count = 0; //the number of pivots, pieces that would be empty get no pivot
+		for (int j = 1; j < parts; j++)
+		{
+			int first = (int) ((long) j * n / parts) + 1; //the position of the first node of piece j
+			if(first <= n && (count == 0 || nodeAt(first).getKey() != pivots[count-1]))
+			{
+				pivots[count++] = nodeAt(first).getKey();
+			}
+		}
+		AVLTree[] trees = splitInto(Arrays.copyOf(pivots, count));
+		if(count == parts - 1)
+		{
+			return trees;
+		}
+		AVLTree[] all = Arrays.copyOf(trees, parts); //the missing pieces are empty
+		for (int j = trees.length; j < parts; j++)
+		{
+			all[j] = new AVLTree();
+			all[j].policy = this.policy;
+		}
+		return all;
+	}
+	
+	/**
+	 * returns the i'th smallest node of the tree, by the sizes of the subtrees
+	 * @pre 1 <= i <= size()
+	 * complexity: O(log(n))
+	 */
+	private AVLNode nodeAt(int i)
+	{
+		AVLNode node = this.root;
+		while(i != node.left.getSize() + 1)
+		{
+			if(i <= node.left.getSize())
+			{
+				node = node.left;
+			}
+			else
+			{
+				i -= node.left.getSize() + 1;
+				node = node.right;
+			}
+		}
+		return node;
+	}
+	
+   /**
+    * public join(IAVLNode x, AVLTree t)
+    *
+    * joins t and x with the tree. 	
+    * Returns the complexity of the operation (rank difference between the tree and t)
+    * t is left empty: the tree takes its nodes, and never its virtual root, so t can be used again.
+    * @pre: keys(x,t) < keys() or keys(x,t) > keys()
+    * @post: t.empty()
+    * throws IllegalStateException if t is a WAVL tree and the tree is relaxed, since the
+    * tree takes the WAVL rules of t and the relaxed balance keeps the AVL rules (see setRelaxedBalance)
+    * when one of the trees is empty, x is attached at the cached min or max of the other like append,
+    * without walking a spine, and its virtual sons are reused, so join allocates no node.
+    * complexity: O(log(n)), plus O(size of t) with a key filter or a change feed
+    * (the feed receives a snapshot of t, see setChangeFeed). with an empty side the rotations
+    * take O(1) amortized, the size fields on the way to the root keep it O(log(n))
     */   
 	public int join(IAVLNode x, AVLTree t)
 	{
-		//we'll refer this as t1, and t as t2
-		int counter; //the cost of join
-		if(this.empty())
+		if(t.policy == RebalancePolicy.WAVL && this.unbalanced != null)
+		{
+			throw new IllegalStateException("a relaxed tree cannot join a WAVL tree");
+		}
+		Trace trace = this.trace;
+		int[] joinedKeys = trace == null ? null : t.keysToArray(); //the join is recorded with the keys of t
+		long start = trace == null ? 0 : System.nanoTime();
+		boolean rebuildFilter = false;
+		if(this.keyFilter != null) //the keys of t and x join the filter, or it is rebuilt if they do not fit
+		{
+			if(this.keyFilter.count + t.size() + 1 > this.keyFilter.capacity)
+			{
+				rebuildFilter = true;
+			}
+			else
+			{
+				addKeys(t.root, this.keyFilter);
+				if(!this.empty() && !t.empty()) //else x is attached as a leaf, which adds it
+				{
+					this.keyFilter.add(x.getKey());
+				}
+			}
+		}
+		if(this.feed != null) //the joined items are published as a snapshot of t with x, so all the entries of x are replicated
+		{
+			publish(Change.JOIN, x.getKey(), ((AVLNode) x).getEnd(), x.getValue(), t.snapshot((AVLNode) x));
+		}
+		if(this.unbalanced != null) //join relies on the heights, so the deferred rebalancing is done first
+		{
+			settleAll();
+		}
+		if(t.unbalanced != null)
+		{
+			t.setRelaxedBalance(0);
+		}
+		if(t.policy == RebalancePolicy.WAVL) //the ranks of t might not be legal AVL ranks
+		{
+			this.policy = RebalancePolicy.WAVL;
+		}
+		AVLNode joined = adopt((AVLNode) x, t); //the nodes of t keep their values like the nodes of this tree from now on
+		boolean thisLeft = t.empty() ? this.empty() || this.root.getKey() < joined.getKey() : t.root.getKey() > joined.getKey();
+		AVLNode newMin = thisLeft ? (this.empty() ? joined : this.min) : (t.empty() ? joined : t.min);
+		AVLNode newMax = thisLeft ? (t.empty() ? joined : t.max) : (this.empty() ? joined : this.max);
+		int counter; //the cost of join: the rank difference plus 1, or the height of the full tree plus 1 if one is empty
+		if(this.empty() || t.empty())
+		{
+			counter = Math.max(Math.max(this.root.getHeight(), t.root.getHeight())+1, 1);
+		}
+		else
+		{
+			counter = Math.abs(this.root.getHeight() - t.root.getHeight())+1;
+		}
+		if(this.empty() || t.empty()) //x is attached at the min or the max of the full side, without walking its spine
 		{
-			if(!t.empty()) //t1 empty and t2 full
+			if(this.empty()) //the trees trade roots, so t keeps a virtual root without allocating one
 			{
-				counter = t.getRoot().getHeight()+1;
-				t.insert(x.getKey(), x.getValue());
-				this.root = (AVLNode) t.getRoot();
+				AVLNode virtual = this.root;
+				this.root = t.root;
 				this.min = t.min;
 				this.max = t.max;
+				t.root = virtual;
+			}
+			boolean atMax = !this.empty() && this.max.getKey() < joined.getKey();
+			AVLNode place = this.empty() ? null : atMax ? this.max : this.min;
+			AVLNode replaced = place == null ? this.root : atMax ? place.right : place.left; //the virtual node x replaces
+			AVLNode left = isSpare(joined, joined.left, t) ? joined.left : replaced;
+			AVLNode right = isSpare(joined, joined.right, t) && joined.right != left ? joined.right : left == replaced ? newVirtual() : replaced;
+			joined.left = left;
+			joined.right = right;
+			joined.setHeight(0);
+			joined.updateSize();
+			attachLeaf(place, joined);
+		}
+		else
+		{
+			AVLNode spare = isSpare(joined, joined.left, t) ? joined.left : isSpare(joined, joined.right, t) ? joined.right : t.newVirtual(); //the virtual sons of x are replaced by real ones
+			if(thisLeft)
+			{
+				joinRoots(this.root, joined, t.root);
 			}
-			else //t1 empty and t2 empty
+			else
 			{
-				counter = 1; 
-				AVLNode right = new AVLNode();
-				AVLNode left = new AVLNode();
-				this.root = new AVLNode (x.getValue(),x.getKey(),left,right,null);
-				this.root.updateSize();
-				this.root.setHeight(0);
-				this.min = this.root;
-				this.max = this.root;
+				joinRoots(t.root, joined, this.root);
 			}
+			t.root = spare; //t no longer holds the joined nodes
+			t.root.setParent(null);
 		}
-		else 
+		this.min = newMin;
+		this.max = newMax;
+		t.min = null;
+		t.max = null;
+		t.lastPosition = null;
+		if(t.keyFilter != null)
+		{
+			t.keyFilter.clear();
+		}
+		if(rebuildFilter)
+		{
+			rebuildKeyFilter();
+		}
+		if(trace != null)
+		{
+			trace.recordJoin(joined.getKey(), joinedKeys, start, System.nanoTime());
+		}
+		return counter;
+	}
+	
+	/**
+	 * public int join(IAVLNode x, OrderedIndex t)
+	 * joins like join(x, (AVLTree) t), for the callers that hold the engine as an OrderedIndex.
+	 * throws IllegalArgumentException if t is not an AVLTree
+	 * complexity: O(log(n)), see join
+	 */
+	public int join(IAVLNode x, OrderedIndex t)
+	{
+		if(!(t instanceof AVLTree))
+		{
+			throw new IllegalArgumentException("an AVLTree joins only an AVLTree");
+		}
+		return join(x, (AVLTree) t);
+	}
+	
+	/**
+	 * The method returns true if son, a son of x before x joins the tree with t, is a virtual node
+	 * that no tree holds (x is a new node, or a node whose son was not reused when it was removed
+	 * from its tree), so join can reuse it instead of allocating a virtual node
+	 * complexity: O(1)
+	 */
+	private boolean isSpare(AVLNode x, AVLNode son, AVLTree t)
+	{
+		return son != null && !son.isRealNode() && (son.parent == null || son.parent == x) && son != t.root && son != this.root;
+	}
+	
+	/**
+	 * The method makes the nodes of t and x keep their values like the nodes of this tree
+	 * before they join it: if t keeps its values in another value arena (or the trees differ in
+	 * having one), its nodes are replaced by copies made by this tree, and if only the value pool
+	 * differs, the values of t are interned in the pool of this tree. returns the separator to
+	 * join, x or its copy.
+	 * @pre t is not relaxed
+	 * complexity: O(1) if t keeps its values like this tree, O(size of t) otherwise
+	 */
+	private AVLNode adopt(AVLNode x, AVLTree t)
+	{
+		boolean copy = t.valueArena != this.valueArena;
+		boolean intern = this.valuePool != null && t.valuePool != this.valuePool;
+		if(copy && !t.empty())
+		{
+			AVLNode root = copySubtree(new Cursor(t.root, t.size(), null, true), t.size(), null);
+			root.setParent(null);
+			t.root = root;
+			t.min = root.min();
+			t.max = root.max();
+			t.lastPosition = null;
+		}
+		else if(intern)
+		{
+			internValues(t.root);
+		}
+		t.withStorageOf(this);
+		if(x instanceof ArenaNode ? ((ArenaNode) x).arena() != this.valueArena : this.valueArena != null)
+		{
+			return copyNode(x, newVirtual(), newVirtual(), null);
+		}
+		if(intern)
+		{
+			internItem(x);
+		}
+		return x;
+	}
+	
+	/**
+	 * The method interns the values of the nodes in the subtree of node in the value pool of the tree
+	 * complexity: O(size of the subtree + number of entries)
+	 */
+	private void internValues(AVLNode node)
+	{
+		while(node.isRealNode())
+		{
+			internValues(node.left);
+			internItem(node);
+			node = node.right;
+		}
+	}
+	
+	/**
+	 * The method interns the value and the entries of node in the value pool of the tree
+	 * @pre node keeps its value as a string
+	 * complexity: O(c), c is the number of entries of node
+	 */
+	private void internItem(AVLNode node)
+	{
+		node.setValue(internValue(node.getValue()));
+		ArrayList<String> bucket = node.bucket();
+		if(bucket != null)
+		{
+			for (int j = 0; j < bucket.size(); j++)
+			{
+				bucket.set(j, internValue(bucket.get(j)));
+			}
+		}
+	}
+	
+	/**
+	 * joins t with the tree, with the node of key in t as the separator, the way Follower
+	 * applies a JOIN: its snapshot holds the joined tree with the separator, so the separator
+	 * keeps its interval end and all its entries.
+	 * @pre key is the minimal or the maximal key of t, keys(t) < keys() or keys(t) > keys()
+	 * complexity: O(log(n) + log(size of t)), plus O(size of t) with a key filter or a change feed
+	 */
+	void joinSeparated(int key, AVLTree t)
+	{
+		AVLNode separator = t.min.getKey() == key ? t.min : t.max;
+		t.deleteNode(separator, false); //the separator keeps its entries, join links it again
+		join(separator, t);
+	}
+	
+	/**
+	 * joins the subtrees left and right with x between them, and makes the result the root
+	 * of this tree. left and right are roots of valid trees (possibly virtual nodes) without
+	 * parents, so the split can join its parts without wrapping them in trees. a virtual
+	 * node of an empty side becomes a son of x, so it must not be the root of another tree.
+	 * the min and max fields are not changed.
+	 * @pre keys(left) < x.getKey() < keys(right)
+	 * complexity: O(|rank(left) - rank(right)| + 1)
+	 */
+	private void joinRoots(AVLNode left, AVLNode x, AVLNode right)
+	{
+		AVLNode top = joinNodes(left, x, right);
+		top.parent = null;
+		this.root = top;
+	}
+	
+	/**
+	 * public static AVLTree concatAll(AVLTree... trees)
+	 *
+	 * concatenates trees into one tree, and returns it. the separator of every join is the
+	 * minimal node of the tree on its right, so no separators are needed.
+	 * the trees are joined as a balanced reduction (each half is concatenated, then the halves
+	 * are joined), so trees of similar heights are joined together and the total cost of the
+	 * joins is bounded. the trees should not be used after the call.
+	 * the result is trees[0]: the other trees are concatenated without their change feeds and
+	 * key filters, and joined with trees[0] at once, so its feed receives a single join.
+	 * @pre keys(trees[j]) < keys(trees[j+1]) for every j
+	 * complexity: O(k*log(n)), k is the number of trees, plus O(n) with a key filter or a change feed of trees[0]
+	 */
+	public static AVLTree concatAll(AVLTree... trees)
+	{
+		if(trees.length == 0)
+		{
+			return new AVLTree();
+		}
+		detachRest(trees);
+		return concatFirst(trees[0], concatRange(trees, 1, trees.length));
+	}
+	
+	/**
+	 * public static AVLTree concatAll(ForkJoinPool pool, AVLTree... trees)
+	 *
+	 * like concatAll(trees), but the halves of the reduction are concatenated in parallel
+	 * by the pool. the trees should not be accessed by other threads during the call.
+	 * @pre keys(trees[j]) < keys(trees[j+1]) for every j
+	 * complexity: O(k*log(n)) work, O(log(k)*log(n)) span, plus O(n) with a key filter or a change feed of trees[0]
+	 */
+	public static AVLTree concatAll(ForkJoinPool pool, AVLTree... trees)
+	{
+		if(trees.length == 0)
+		{
+			return new AVLTree();
+		}
+		detachRest(trees);
+		return concatFirst(trees[0], pool.invoke(new ConcatTask(trees, 1, trees.length)));
+	}
+	
+	/**
+	 * drops the change feeds and key filters of trees[1..], which are consumed by concatAll,
+	 * so their inner joins are not published or added to filters
+	 * complexity: O(k), k is the number of trees
+	 */
+	private static void detachRest(AVLTree[] trees)
+	{
+		for (int j = 1; j < trees.length; j++)
+		{
+			trees[j].feed = null;
+			trees[j].keyFilter = null;
+		}
+	}
+	
+	/**
+	 * joins first (even if it is empty) with rest, the concatenation of the other trees,
+	 * with the minimal node of rest as the separator, and returns first
+	 * @pre keys(first) < keys(rest)
+	 * complexity: O(log(n)), plus O(size of rest) with a key filter or a change feed
+	 */
+	private static AVLTree concatFirst(AVLTree first, AVLTree rest)
+	{
+		if(rest.empty())
+		{
+			return first;
+		}
+		AVLNode separator = rest.min;
+		rest.deleteNode(separator, false);
+		first.join(separator, rest);
+		return first;
+	}
+	
+	/**
+	 * concatenates trees[from..to-1] sequentially
+	 * complexity: O((to-from)*log(n))
+	 */
+	private static AVLTree concatRange(AVLTree[] trees, int from, int to)
+	{
+		if(to - from <= 1)
+		{
+			return from < to ? trees[from] : new AVLTree();
+		}
+		int mid = (from + to) >>> 1;
+		return concatPair(concatRange(trees, from, mid), concatRange(trees, mid, to));
+	}
+	
+	/**
+	 * joins left and right, with the minimal node of right as the separator, and returns the result
+	 * @pre keys(left) < keys(right)
+	 * complexity: O(log(n))
+	 */
+	private static AVLTree concatPair(AVLTree left, AVLTree right)
+	{
+		if(right.empty())
+		{
+			return left;
+		}
+		if(left.empty())
+		{
+			return right;
+		}
+		AVLNode separator = right.min;
+		right.deleteNode(separator, false); //the minimum has no left son, so its own node is removed
+		left.join(separator, right);
+		return left;
+	}
+	
+	/**
+	 * public AVLTree mapValues(UnaryOperator<String> mapper)
+	 *
+	 * returns a new tree with the keys of the tree, and mapper applied to each of their infos.
+	 * the tree is copied in order into a balanced tree, without separate inserts.
+	 * complexity: O(n)
+	 */
+	public AVLTree mapValues(UnaryOperator<String> mapper)
+	{
+		return finish(this, transform(this, this.root, mapper, null, false))[0];
+	}
+	
+	/**
+	 * public AVLTree mapValues(ForkJoinPool pool, UnaryOperator<String> mapper)
+	 *
+	 * like mapValues(mapper), but the subtrees are copied in parallel by the pool and the
+	 * copies are joined back with their roots. the tree should not be changed during the call,
+	 * and mapper is called by several threads.
+	 * complexity: O(n) work, O(n/p + log(n)^2) time with p threads
+	 */
+	public AVLTree mapValues(ForkJoinPool pool, UnaryOperator<String> mapper)
+	{
+		return finish(this, pool.invoke(new TransformTask(this, this.root, mapper, null, false)))[0];
+	}
+	
+	/**
+	 * public AVLTree filter(EntryPredicate predicate)
+	 *
+	 * returns a new tree of the items of the tree that satisfy predicate.
+	 * a key with several entries is tested with its first info, and keeps all its entries.
+	 * complexity: O(n)
+	 */
+	public AVLTree filter(EntryPredicate predicate)
+	{
+		return finish(this, transform(this, this.root, null, predicate, false))[0];
+	}
+	
+	/**
+	 * public AVLTree filter(ForkJoinPool pool, EntryPredicate predicate)
+	 *
+	 * like filter(predicate), but the subtrees are filtered in parallel by the pool
+	 * (see mapValues(pool, mapper)).
+	 * complexity: O(n) work, O(n/p + log(n)^2) time with p threads
+	 */
+	public AVLTree filter(ForkJoinPool pool, EntryPredicate predicate)
+	{
+		return finish(this, pool.invoke(new TransformTask(this, this.root, null, predicate, false)))[0];
+	}
+	
+	/**
+	 * public AVLTree[] partition(EntryPredicate predicate)
+	 *
+	 * returns an array [t1, t2] of new trees: t1 has the items of the tree that satisfy
+	 * predicate and t2 has the others (see filter). the tree itself does not change.
+	 * complexity: O(n)
+	 */
+	public AVLTree[] partition(EntryPredicate predicate)
+	{
+		return finish(this, transform(this, this.root, null, predicate, true));
+	}
+	
+	/**
+	 * public AVLTree[] partition(ForkJoinPool pool, EntryPredicate predicate)
+	 *
+	 * like partition(predicate), but the subtrees are partitioned in parallel by the pool
+	 * (see mapValues(pool, mapper)).
+	 * complexity: O(n) work, O(n/p + log(n)^2) time with p threads
+	 */
+	public AVLTree[] partition(ForkJoinPool pool, EntryPredicate predicate)
+	{
+		return finish(this, pool.invoke(new TransformTask(this, this.root, null, predicate, true)));
+	}
+	
+	/**
+	 * copies the items of the subtree of node that satisfy predicate (all of them if it is null)
+	 * into a new balanced tree, with mapper applied to their infos (if it is not null).
+	 * returns [kept, dropped], dropped is a tree of the other items if both is true, null otherwise.
+	 * the copies are built in order straight from the subtree: the predicate is tested once
+	 * per node first, and its answers are kept as one bit per node, so the sizes of the
+	 * results are known before they are built.
+	 * complexity: O(size of the subtree)
+	 */
+	private static AVLTree[] transform(AVLTree source, AVLNode node, UnaryOperator<String> mapper, EntryPredicate predicate, boolean both)
+	{
+		int n = node.getSize();
+		if(predicate == null)
+		{
+			return new AVLTree[] {copyOf(source, new Cursor(node, n, null, true), n, mapper), null};
+		}
+		long[] kept = new long[(n + 63) >>> 6]; //bit j is set if the j'th node of the subtree in order satisfies predicate
+		int count = 0;
+		AVLNode x = node.isRealNode() ? node.min() : null;
+		for (int j = 0; j < n; j++)
 		{
-			if(t.empty()) //t1 full and t2 empty
+			if(j > 0)
 			{
-				counter = this.root.getHeight()+1;
-				this.insert(x.getKey(), x.getValue());
+				x = x.successor(); //stays in the subtree, the last node is never passed
 			}
-			else //t1 full and t2 full
+			if(predicate.test(x.getKey(), x.getValue()))
 			{
-				counter = Math.abs(this.root.getHeight() - t.getRoot().getHeight())+1;
-				if(this.getRoot().getHeight() == t.getRoot().getHeight()) //trees have the same height
-				{
-					if(this.getRoot().getKey() < x.getKey()) //this is on the left
-					{
-						this.max = t.max;
-						x.update(this.getRoot(),t.getRoot());	
-					}
-					else //this is on the right
-					{
-						this.min = t.min;
-						x.update(t.getRoot(), this.getRoot());
-					}
-					x.updateSize();
-					x.setHeight(this.getRoot().getHeight()+1);
-					this.root = (AVLNode) x;
-					x.setParent(null);
-				}
-				else //the trees full but not with the same heights
-				{
-					if(this.getRoot().getKey() < x.getKey())  //this is on the left
-					{
-						this.max = t.max;
-						if(this.getRoot().getHeight() < t.getRoot().getHeight())  //this is shorter
-						{
-							x.setHeight(this.getRoot().getHeight()+1);
-							AVLNode b = findPlaceLeft(t,this.getRoot().getHeight());
-							if (b == t.getRoot()) 
-							{
-								x.update(this.getRoot(),b);
-								this.root = (AVLNode) x;
-								x.setParent(null);
-								x.updateSize();
-							}
-							else 
-							{
-								x.setParent(b.getParent());
-								x.getParent().setLeft(x);
-								x.update(this.getRoot(), b);
-								x.updateSize();
-								this.root = (AVLNode) t.getRoot();
-								AVLNode z = (AVLNode) x.getParent();
-								AVLNode y = (AVLNode) z.getParent();
-								rebalanceForJoin(z,y);
-							}
-						}
-						else //this is higher
-						{
-							x.setHeight(t.getRoot().getHeight()+1);
-							AVLNode a = findPlaceRight(this,t.getRoot().getHeight());
-							if (a == this.getRoot()) 
-							{
-								x.update(a, t.getRoot());
-								this.root = (AVLNode) x;
-								x.setParent(null);
-								x.updateSize();
-							}
-							else 
-							{
-								x.setParent(a.getParent());
-								x.getParent().setRight(x);
-								x.update(a, t.getRoot());
-								x.updateSize();
-								AVLNode z = (AVLNode) x.getParent();
-								AVLNode y = (AVLNode) z.getParent();
-								rebalanceForJoin(z,y);
-							}
-						}
-					}
-					else //this.getRoot().getKey() > x.getKey()  //this is on the right
-					{
-						this.min = t.min;
-						if(this.getRoot().getHeight() < t.getRoot().getHeight())  //this is shorter
-						{
-							x.setHeight(this.getRoot().getHeight()+1);
-							AVLNode a = findPlaceRight(t,this.getRoot().getHeight());
-							if (a == t.getRoot()) 
-							{
-								x.update(a,this.getRoot());
-								this.root = (AVLNode) x;
-								x.setParent(null);
-								x.updateSize();
-							}
-							else
-							{
-								x.setParent(a.getParent());
-								x.getParent().setRight(x);
-								x.update(a, this.getRoot());
-								x.updateSize();
-								this.root = (AVLNode) t.getRoot();
-								AVLNode z = (AVLNode) x.getParent();
-								AVLNode y = (AVLNode) z.getParent();
-								rebalanceForJoin(z,y);
-							}
-						}
-						else   //this is higher
-						{
-							x.setHeight(t.getRoot().getHeight()+1);
-							AVLNode b = findPlaceLeft(this,t.getRoot().getHeight());
-							if (b == this.getRoot()) 
-							{
-								x.update(t.getRoot(),b);
-								this.root = (AVLNode) x;
-								x.setParent(null);
-								x.updateSize();
-							}
-							else 
-							{
-								x.setParent(b.getParent());
-								x.getParent().setLeft(x);
-								x.update(t.getRoot(), b);
-								x.updateSize();
-								AVLNode z = (AVLNode) x.getParent();
-								AVLNode y = (AVLNode) z.getParent();
-								rebalanceForJoin(z,y);
-							}
-						}
-					}
-				}
+				kept[j >>> 6] |= 1L << j;
+				count++;
 			}
 		}
-		return counter; 
+		AVLTree dropped = both ? copyOf(source, new Cursor(node, n, kept, false), n - count, null) : null;
+		return new AVLTree[] {copyOf(source, new Cursor(node, n, kept, true), count, mapper), dropped};
+	}
+	
+	/**
+	 * The method returns a new balanced tree of copies of the next count nodes of cursor, which
+	 * keeps its values and rebalances like source (see withSettingsOf)
+	 * complexity: O(count)
+	 */
+	private static AVLTree copyOf(AVLTree source, Cursor cursor, int count, UnaryOperator<String> mapper)
+	{
+		AVLTree tree = new AVLTree().withSettingsOf(source);
+		AVLNode root = tree.copySubtree(cursor, count, mapper);
+		if(root.isRealNode())
+		{
+			root.setParent(null);
+			tree.become(new AVLTree(root, root.min(), root.max()));
+		}
+		return tree;
+	}
+	
+	/**
+	 * The method makes the tree, a new tree for copies of the items of source, keep its values
+	 * like source (see withStorageOf) and take the rebalance policy of source, and returns the tree.
+	 * the relaxed balance and the key filter are given by finish, once the copies are joined.
+	 * @pre the tree is empty
+	 * complexity: O(1)
+	 */
+	private AVLTree withSettingsOf(AVLTree source)
+	{
+		withStorageOf(source);
+		this.policy = source.policy;
+		return this;
 	}
-
+	
 	/**
-	 * the method makes the rebalancing process after a join operation was made.
-	 * it gets two nodes - a node and its parent, checks a unique problematic case, fixes it if needed
-	 * and then sends the right node from the two to the rebalance function.
-	 * complexity: O(log(n))
+	 * The method gives the trees made from source by a transform (skipping the null ones) the
+	 * relaxed balance of source, and if source has a key filter, a new filter of their keys with
+	 * its false positive rate. returns trees
+	 * complexity: O(size of the trees + capacity of the filters) with a key filter, O(1) otherwise
 	 */
-	private void rebalanceForJoin(AVLNode z, AVLNode y) 
+	private static AVLTree[] finish(AVLTree source, AVLTree[] trees)
 	{
-		//2 cases unique for join:
-		boolean flag = false; //needed to decide from which node we start the rebalancing of Insert
-		if (diff(z,z.getLeft()) == 2 && diff(z,z.getRight()) == 0 && 
-				diff(z.getRight(),z.getRight().getLeft()) == 1 && diff(z.getRight(),z.getRight().getRight()) == 1)
-		{
-			promote(z.getRight());
-			rotateL(z,z.getRight());
-			flag = true;
-		} 
-		//the symmetric case:
-		else if (diff(z,z.getLeft()) == 0 && diff(z,z.getRight()) == 2 && 
-				diff(z.getLeft(),z.getLeft().getLeft()) == 1 && diff(z.getLeft(),z.getLeft().getRight()) == 1)
+		for (AVLTree tree : trees)
 		{
-			promote(z.getLeft());
-			rotateR(z,z.getLeft());
-			flag = true;
-		}
-		if (flag) {
-			rebalance(y); //if we made a fix here, start rebalancing from the upper node (y)
+			if(tree == null)
+			{
+				continue;
+			}
+			if(source.unbalanced != null)
+			{
+				tree.setRelaxedBalance(source.maxUnbalanced);
+			}
+			if(source.keyFilter != null)
+			{
+				tree.setKeyFilter(source.keyFilter.sized(Math.max(16, 2 * tree.size())));
+			}
 		}
-		else
-		{
-			rebalance(z); //else, start rebalancing from the current node (z)
-		}	
+		return trees;
 	}
-
+	
 	/**
-	  * the method get a tree and return the node with 
-	  * height k or k-1(the first found)
-	  * complexity: O(log(n))
-	  */
-	private static AVLNode findPlaceLeft(AVLTree tree, int k)
+	 * The method builds a balanced subtree of copies of the next n nodes of cursor, in order,
+	 * and returns its root (a virtual node if n is 0). the two halves of every subtree differ
+	 * in size by at most 1, like buildBalanced.
+	 * complexity: O(n), plus the walk of cursor over the nodes it skips
+	 */
+	private AVLNode copySubtree(Cursor cursor, int n, UnaryOperator<String> mapper)
 	{
-		AVLNode node= (AVLNode) tree.getRoot();
-		if (!node.getLeft().isRealNode()) {
-			return node;
+		if(n == 0)
+		{
+			return newVirtual();
 		}
-		while(node.getHeight() > k)
-			{
-				node = (AVLNode) node.getLeft();
-			}
-		return node;
+		AVLNode left = copySubtree(cursor, (n-1)/2, mapper);
+		AVLNode node = cursor.next();
+		AVLNode right = copySubtree(cursor, n-1-(n-1)/2, mapper);
+		return copyNode(node, left, right, mapper);
 	}
 	
 	/**
-	  * the method get a tree and return the node with 
-	  * height k or k-1(the first that it finds)
-	  * complexity: O(log(n))
-	  */
-	private static AVLNode findPlaceRight(AVLTree tree, int k)
+	 * The method returns a copy of node made by this tree (see newNode) with the sons left and right.
+	 * the copy keeps the interval end and the entries of node, with mapper applied to every info
+	 * (if it is not null).
+	 * complexity: O(c), c is the number of entries of node
+	 */
+	private AVLNode copyNode(AVLNode node, AVLNode left, AVLNode right, UnaryOperator<String> mapper)
 	{
-		AVLNode node= (AVLNode) tree.getRoot();
-		if (!node.getRight().isRealNode()) {
-			return node;
-		}
-		while(node.getHeight() > k)
+		AVLNode copy = newNode(mapper == null ? node.getValue() : mapper.apply(node.getValue()), node.getKey(), left, right, null);
+		left.setParent(copy);
+		right.setParent(copy);
+		if(node.extra != null) //an interval, a key with several entries, or a node with such items below it
+		{
+			copy.setEnd(node.getEnd());
+			if(node.bucket() != null)
 			{
-				node = (AVLNode) node.getRight();
+				ArrayList<String> bucket = new ArrayList<String>(node.bucket().size());
+				for (String info : node.bucket())
+				{
+					bucket.add(internValue(mapper == null ? info : mapper.apply(info)));
+				}
+				copy.setEntries(node.getCount(), bucket);
 			}
-		return node;
+			copy.updateSize();
+		}
+		return copy;
 	}
-	
-	
-	
- 
+
 	/**
 	   * public interface IAVLNode
 	   * ! Do not delete or modify this - otherwise all tests will fail !
@@ -1068,13 +3744,14 @@ public class AVLTree {
    * (It must implement IAVLNode)
    */
   public class AVLNode implements IAVLNode{
-	  private String info; //value of the node
+	  Object info; //value of the node, or the value arena that keeps it for an ArenaNode
 	  private int key; //key of the node
 	  private int height; //height of the node, height == rank
-	  private AVLNode left; //left son of the node
-	  private AVLNode right; //right son of the node
-	  private AVLNode parent; //parent of the node
+	  AVLNode left; //left son of the node
+	  AVLNode right; //right son of the node
+	  AVLNode parent; //parent of the node
 	  private int size; //size of the subtree, that it's root is the node
+	  private Extra extra; //the interval and the entries of the node and the state of its subtree, null for a regular item with only regular items below it
 	  
 	  /**
 	   * The method returns an object of type AVLNode 
@@ -1083,11 +3760,21 @@ public class AVLTree {
 	   */
 	  public AVLNode(String info, int key, AVLNode left, AVLNode right, AVLNode parent)//##to check if we need sum and if it is ok to get it
 	  	{
-	  		this.info = info; 
+	  		this.init(info, key, left, right, parent);
+	  	}
+	  
+	  /**
+	   * The method (re)initializes all the fields of the node, like the constructor
+	   * complexity: O(1)
+	   */
+	  private void init(String info, int key, AVLNode left, AVLNode right, AVLNode parent)
+	  	{
+	  		this.setValue(info); 
 	  		this.key = key;
 	  		this.left = left;
 	  		this.right = right;
 	  		this.parent = parent;
+	  		this.extra = null;
 	  		if(this.key == -1)
 	  		{
 	  			this.size = 0;
@@ -1097,6 +3784,7 @@ public class AVLTree {
 	  		{
 	  			this.size = left.size+right.size+1;
 	  			this.height = Math.max(left.height, right.height)+1; //change to 0 if needed
+	  			this.updateExtra();
 	  		}	
 	  	}  
 	  
@@ -1133,7 +3821,9 @@ public class AVLTree {
 		
 		/**
 		  * public void setValue(String s)
-		  * sets the value of the node [info] to be s
+		  * sets the value of the node [info] to be s.
+		  * the node does not depend on the tree that created it, so the value pool of a tree
+		  * is applied by the tree, to the values it creates nodes with (see newNode).
 		  *  complexity: O(1)
 		  */ 
 		public void setValue(String s)
@@ -1149,7 +3839,7 @@ public class AVLTree {
 		  */ 
 		public String getValue() 
 		{
-			return this.info; 
+			return (String) this.info; 
 		}
 		
 		/**
@@ -1254,17 +3944,184 @@ public class AVLTree {
 		/**
 		  * public void updateSize()
 		  * updates the size of the subtree of the node 
-		  * (0 for virtual nodes)
+		  * (0 for virtual nodes), the number of entries in it
+		  * and the maximal interval end in it
 		  *  complexity: O(1)
 		  */ 
 		public void updateSize()
 		{
 			if (this.isRealNode()) {
 				this.size = this.left.size + this.right.size + 1;
+				this.updateExtra();
 			}
 			else {
 				this.size = 0;
+				this.extra = null;
+			}
+		}
+		
+		/**
+		 * The method sets the number of entries and the maximal end of the intervals in the
+		 * subtree of the node by its sons, and drops the extra state of a regular item with
+		 * only regular items below it
+		 * complexity: O(1)
+		 */
+		private void updateExtra()
+		{
+			int end = this.getEnd();
+			int count = this.getCount();
+			int entries = this.left.entries() + this.right.entries() + count;
+			int maxEnd = Math.max(end > this.key ? end : Integer.MIN_VALUE, Math.max(this.left.intervalsEnd(), this.right.intervalsEnd()));
+			if (maxEnd == Integer.MIN_VALUE && end == this.key && count == 1 && entries == this.size)
+			{
+				this.extra = null;
+				return;
+			}
+			Extra extra = this.extra();
+			extra.entries = entries;
+			extra.maxEnd = maxEnd;
+		}
+		
+		/**
+		 * The method returns the extra state of the node, and creates it (with the state of
+		 * a regular item with only regular items below it) if the node has none
+		 * complexity: O(1)
+		 */
+		private Extra extra()
+		{
+			if (this.extra == null)
+			{
+				this.extra = new Extra(this.key, this.size);
+			}
+			return this.extra;
+		}
+		
+		/**
+		 * The method returns the number of entries in the subtree of the node
+		 * complexity: O(1)
+		 */
+		private int entries()
+		{
+			return this.extra == null ? this.size : this.extra.entries;
+		}
+		
+		/**
+		 * The method returns the values of the entries of the node after the first one,
+		 * null if the node has a single entry
+		 * complexity: O(1)
+		 */
+		private ArrayList<String> bucket()
+		{
+			return this.extra == null ? null : this.extra.bucket;
+		}
+		
+		/**
+		 * The method sets the number of entries of the node and the values of the entries after
+		 * the first one (null or empty if count == 1). the entries of the subtree are not updated,
+		 * updateSize should be called on the node and above it.
+		 * complexity: O(1)
+		 */
+		private void setEntries(int count, ArrayList<String> bucket)
+		{
+			if (this.extra == null && count == 1)
+			{
+				return;
+			}
+			Extra extra = this.extra();
+			extra.count = count;
+			extra.bucket = count == 1 ? null : bucket;
+		}
+		
+		/**
+		 * drops the value and the extra state of a node that was removed from its tree, so it
+		 * does not keep the values of its items (see NodeArena.release)
+		 * complexity: O(1)
+		 */
+		void dropItem()
+		{
+			this.info = null;
+			this.extra = null;
+		}
+		
+		/**
+		 * The method returns the maximal end of the intervals (items with end > key) in the
+		 * subtree of the node, Integer.MIN_VALUE if there are none
+		 * complexity: O(1)
+		 */
+		private int intervalsEnd()
+		{
+			return this.extra == null ? Integer.MIN_VALUE : this.extra.maxEnd;
+		}
+		
+		/**
+		  * public int getCount()
+		  * Returns the number of entries with the key of the node,
+		  * for virtual node returns 0
+		  *  complexity: O(1)
+		  */ 
+		public int getCount() 
+		{
+			if (!this.isRealNode())
+			{
+				return 0;
+			}
+			return this.extra == null ? 1 : this.extra.count; 
+		}
+		
+		/**
+		  * public int getEnd()
+		  * Returns the end point of the interval [key, end] of the node,
+		  * for regular (point) items returns the key
+		  *  complexity: O(1)
+		  */ 
+		public int getEnd() 
+		{
+			return this.extra == null ? this.key : this.extra.end; 
+		}
+		
+		/**
+		 * sets the end point of the interval [key, end] of the node (end == key for a regular item).
+		 * the maximal ends are not updated, updateSize should be called on the node and above it.
+		 * complexity: O(1)
+		 */
+		void setEnd(int end)
+		{
+			if (this.extra == null && end == this.key)
+			{
+				return;
+			}
+			this.extra().end = end;
+		}
+		
+		/**
+		 * The method changes the key of the node to k, and moves the end of its interval with it
+		 * complexity: O(1)
+		 */
+		private void moveTo(int k)
+		{
+			int end = this.getEnd();
+			this.setEnd(end + k - this.key);
+			this.key = k;
+		}
+		
+		/**
+		  * public int getMaxEnd()
+		  * Returns the maximal interval end point in the subtree of the node (of its intervals
+		  * and of its regular items), for virtual node returns Integer.MIN_VALUE
+		  *  complexity: O(log(n)), the largest key of the subtree is found on its right spine
+		  */ 
+		public int getMaxEnd() 
+		{
+			if (!this.isRealNode())
+			{
+				return Integer.MIN_VALUE;
 			}
+			AVLNode last = this;
+			while (last.right.isRealNode())
+			{
+				last = last.right;
+			}
+			return Math.max(this.intervalsEnd(), last.key); 
 		}
 		
 		/**
@@ -1344,7 +4201,7 @@ public class AVLTree {
 				return  ((AVLNode)x.getLeft()).max();
 			}
 			AVLNode parent = (AVLNode) x.getParent();
-			while(parent != null && x == getParent().getLeft())
+			while(parent != null && x == parent.getLeft())
 			{
 				x = parent;
 				parent = (AVLNode) parent.getParent();
@@ -1364,7 +4221,478 @@ public class AVLTree {
 			left.setParent(this);
 		}
   }
-
-}
   
+  /**
+   * private class ArenaNode
+   *
+   * A node of a tree with a value arena (see setValueArena): the value is kept in the arena
+   * of the tree that created the node, and the node keeps only its reference, so the nodes
+   * of the other trees do not have the field. the node keeps its arena itself, in the field
+   * of the value of AVLNode, so it reads and writes the right arena in whatever tree it is
+   * later (after a join, or a reuse by a node arena shared with another tree).
+   */
+  private class ArenaNode extends AVLNode {
+	  private int valueRef; //reference of the value in the value arena, -1 for null. set by setValue, which the constructor calls
+	  
+	  private ArenaNode(ValueArena arena, String info, int key, AVLNode left, AVLNode right, AVLNode parent)
+	  {
+		  super(null, key, left, right, parent); //a null value does not need the arena yet
+		  this.info = arena;
+		  setValue(info);
+	  }
+	  
+	  /**
+	   * returns the arena that keeps the value of the node
+	   * complexity: O(1)
+	   */
+	  private ValueArena arena()
+	  {
+		  return (ValueArena) this.info;
+	  }
+	  
+	  /**
+	   * drops the value, the node keeps its arena
+	   * complexity: O(1)
+	   */
+	  void dropItem()
+	  {
+		  ValueArena arena = arena();
+		  super.dropItem();
+		  this.info = arena;
+		  this.valueRef = -1;
+	  }
+	  
+	  /**
+	   * stores s in the value arena
+	   * complexity: O(length of s)
+	   */
+	  public void setValue(String s)
+	  {
+		  this.valueRef = s == null ? -1 : arena().add(s);
+	  }
+	  
+	  /**
+	   * decodes the value from the value arena
+	   * complexity: O(length of the value)
+	   */
+	  public String getValue()
+	  {
+		  return this.valueRef < 0 ? null : arena().get(this.valueRef);
+	  }
+  }
+  
+  /**
+   * private static class Extra
+   *
+   * The state of an AVLNode that a regular item does not need: the end of the interval of
+   * the node, the entries of its key (see addAll), and the maximal end of the intervals and
+   * the number of entries in its subtree. a node has one while it is an interval or a key with
+   * several entries, or has such items below it, so a tree of regular items keeps only the
+   * null reference.
+   */
+  private static final class Extra {
+	  private int end; //end point of the interval [key, end] of the node (end == key for regular items)
+	  private int maxEnd = Integer.MIN_VALUE; //maximal end point of the intervals in the subtree, Integer.MIN_VALUE if there are none
+	  private int count = 1; //number of entries with the key of the node (1 for regular items)
+	  private ArrayList<String> bucket; //values of the entries after the first one, null if count == 1
+	  private int entries; //total number of entries in the subtree
+	  
+	  private Extra(int end, int entries)
+	  {
+		  this.end = end;
+		  this.entries = entries;
+	  }
+  }
+  
+  private static final int SCAN_BATCH = 32; //the number of items scan passes at a time, as many as a leaf of WideTree holds
+  private static final int FRAME_MAGIC = 0x41564C32; //"AVL2", the header of the writeTo format (chunked)
+  private static final int FRAME_BUFFER_SIZE = 64 * 1024; //size of the pooled direct buffers
+  private static final int FRAME_POOL_SIZE = 8; //the maximal number of idle buffers in the pool
+  private static final ArrayDeque<ByteBuffer> framePool = new ArrayDeque<ByteBuffer>(); //idle direct buffers
+  
+  /**
+   * returns a cleared direct buffer from the pool, or a new one if the pool is empty
+   * complexity: O(1)
+   */
+  private static ByteBuffer acquireBuffer()
+  {
+	  synchronized(framePool)
+	  {
+		  ByteBuffer buffer = framePool.poll();
+		  if(buffer != null)
+		  {
+			  buffer.clear();
+			  return buffer;
+		  }
+	  }
+	  return ByteBuffer.allocateDirect(FRAME_BUFFER_SIZE);
+  }
+  
+  /**
+   * returns buffer to the pool, unless the pool is full
+   * complexity: O(1)
+   */
+  private static void releaseBuffer(ByteBuffer buffer)
+  {
+	  synchronized(framePool)
+	  {
+		  if(framePool.size() < FRAME_POOL_SIZE)
+		  {
+			  framePool.push(buffer);
+		  }
+	  }
+  }
+  
+  /**
+   * private static class FrameWriter
+   *
+   * Encodes ints and strings into a pooled direct buffer and writes it
+   * to a channel whenever it fills up, as a chunk: the first 4 bytes of the
+   * buffer are kept for the length of the chunk.
+   */
+  private static class FrameWriter {
+	  private final WritableByteChannel channel;
+	  private ByteBuffer buffer;
+	  
+	  FrameWriter(WritableByteChannel channel)
+	  {
+		  this.channel = channel;
+		  this.buffer = acquireBuffer();
+		  this.buffer.position(4); //place for the length of the chunk
+	  }
+	  
+	  void putInt(int value) throws IOException
+	  {
+		  if(this.buffer.remaining() < 4)
+		  {
+			  flush();
+		  }
+		  this.buffer.putInt(value);
+	  }
+	  
+	  /**
+	   * puts the length of s in bytes (-1 for null) and its UTF-8 bytes,
+	   * in parts if it is longer than the buffer
+	   */
+	  void putString(String s) throws IOException
+	  {
+		  if(s == null)
+		  {
+			  putInt(-1);
+			  return;
+		  }
+		  byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		  putInt(bytes.length);
+		  int offset = 0;
+		  while(offset < bytes.length)
+		  {
+			  if(!this.buffer.hasRemaining())
+			  {
+				  flush();
+			  }
+			  int length = Math.min(this.buffer.remaining(), bytes.length - offset);
+			  this.buffer.put(bytes, offset, length);
+			  offset += length;
+		  }
+	  }
+	  
+	  /**
+	   * writes everything in the buffer to the channel as one chunk
+	   */
+	  void flush() throws IOException
+	  {
+		  this.buffer.putInt(0, this.buffer.position() - 4);
+		  this.buffer.flip();
+		  while(this.buffer.hasRemaining())
+		  {
+			  this.channel.write(this.buffer);
+		  }
+		  this.buffer.clear();
+		  this.buffer.position(4);
+	  }
+	  
+	  /**
+	   * writes the rest of the buffer and the empty chunk that ends the stream
+	   */
+	  void finish() throws IOException
+	  {
+		  if(this.buffer.position() > 4)
+		  {
+			  flush();
+		  }
+		  flush(); //the buffer is empty, so this is the empty chunk
+	  }
+	  
+	  void release()
+	  {
+		  releaseBuffer(this.buffer);
+		  this.buffer = null;
+	  }
+  }
+  
+  /**
+   * private static class FrameReader
+   *
+   * Reads the chunks written by FrameWriter from a channel into a pooled direct buffer and
+   * decodes their ints and strings. the reads never go past the current chunk, so the bytes
+   * after the empty chunk that ends the stream stay in the channel.
+   */
+  private static class FrameReader {
+	  private final ReadableByteChannel channel;
+	  private ByteBuffer buffer;
+	  private final ByteBuffer header = ByteBuffer.allocate(4); //the length of the next chunk
+	  private int chunk; //the bytes of the current chunk that were not read from the channel yet
+	  private boolean ended; //true once the empty chunk was read
+	  
+	  FrameReader(ReadableByteChannel channel)
+	  {
+		  this.channel = channel;
+		  this.buffer = acquireBuffer();
+		  this.buffer.flip(); //empty, ready for reading
+	  }
+	  
+	  /**
+	   * reads from the channel until the buffer has at least n bytes to read
+	   * @pre n <= FRAME_BUFFER_SIZE
+	   */
+	  private void require(int n) throws IOException
+	  {
+		  if(this.buffer.remaining() >= n)
+		  {
+			  return;
+		  }
+		  this.buffer.compact();
+		  while(this.buffer.position() < n)
+		  {
+			  if(this.chunk == 0)
+			  {
+				  nextChunk();
+				  if(this.ended)
+				  {
+					  throw new EOFException("the stream ended in the middle of a tree");
+				  }
+			  }
+			  this.buffer.limit(Math.min(this.buffer.capacity(), this.buffer.position() + this.chunk));
+			  int read = this.channel.read(this.buffer);
+			  this.buffer.limit(this.buffer.capacity());
+			  if(read < 0)
+			  {
+				  throw new EOFException("the stream ended in the middle of a tree");
+			  }
+			  this.chunk -= read;
+		  }
+		  this.buffer.flip();
+	  }
+	  
+	  /**
+	   * reads the length of the next chunk
+	   */
+	  private void nextChunk() throws IOException
+	  {
+		  this.header.clear();
+		  while(this.header.hasRemaining())
+		  {
+			  if(this.channel.read(this.header) < 0)
+			  {
+				  throw new EOFException("the stream ended in the middle of a tree");
+			  }
+		  }
+		  this.chunk = this.header.getInt(0);
+		  if(this.chunk < 0)
+		  {
+			  throw new IOException("negative chunk length " + this.chunk);
+		  }
+		  this.ended = this.chunk == 0;
+	  }
+	  
+	  /**
+	   * checks that every item was read, and reads the empty chunk that ends the stream
+	   */
+	  void finish() throws IOException
+	  {
+		  if(this.buffer.hasRemaining() || this.chunk > 0)
+		  {
+			  throw new IOException("unexpected data after the last item");
+		  }
+		  nextChunk();
+		  if(!this.ended)
+		  {
+			  throw new IOException("unexpected data after the last item");
+		  }
+	  }
+	  
+	  int getInt() throws IOException
+	  {
+		  require(4);
+		  return this.buffer.getInt();
+	  }
+	  
+	  String getString() throws IOException
+	  {
+		  int length = getInt();
+		  if(length < 0)
+		  {
+			  return null;
+		  }
+		  byte[] bytes = new byte[Math.min(length, FRAME_BUFFER_SIZE)]; //grows as the bytes arrive, so a corrupt length cannot allocate more than the stream holds
+		  int offset = 0;
+		  while(offset < length)
+		  {
+			  require(1);
+			  if(offset == bytes.length)
+			  {
+				  bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+			  }
+			  int part = Math.min(this.buffer.remaining(), bytes.length - offset);
+			  this.buffer.get(bytes, offset, part);
+			  offset += part;
+		  }
+		  return new String(bytes, StandardCharsets.UTF_8);
+	  }
+	  
+	  void release()
+	  {
+		  releaseBuffer(this.buffer);
+		  this.buffer = null;
+	  }
+  }
+  
+  /**
+   * private static class ConcatTask
+   *
+   * The parallel reduction of concatAll(pool, trees): halves with more than
+   * SEQUENTIAL trees are concatenated in parallel, smaller ones sequentially.
+   */
+  private static class ConcatTask extends RecursiveTask<AVLTree> {
+	  private static final long serialVersionUID = 1L;
+	  private static final int SEQUENTIAL = 8; //the number of trees below which the reduction is sequential
+	  private final AVLTree[] trees;
+	  private final int from;
+	  private final int to;
+	  
+	  ConcatTask(AVLTree[] trees, int from, int to)
+	  {
+		  this.trees = trees;
+		  this.from = from;
+		  this.to = to;
+	  }
+	  
+	  protected AVLTree compute()
+	  {
+		  if(this.to - this.from <= SEQUENTIAL)
+		  {
+			  return concatRange(this.trees, this.from, this.to);
+		  }
+		  int mid = (this.from + this.to) >>> 1;
+		  ConcatTask left = new ConcatTask(this.trees, this.from, mid);
+		  left.fork();
+		  AVLTree right = new ConcatTask(this.trees, mid, this.to).compute();
+		  return concatPair(left.join(), right);
+	  }
+  }
+  
+  /**
+   * private static final class Cursor
+   *
+   * An in-order walk over n nodes for the copies, from the minimum of a subtree (or a single
+   * node when n is 1). with marks it stops only at the nodes whose bit in marks is marked,
+   * the j'th node of the walk having bit j.
+   */
+  private static final class Cursor {
+	  private AVLNode node; //the node next returns, null after the last one
+	  private int index; //the position of node in the walk
+	  private final int n; //the number of nodes in the walk
+	  private final long[] marks; //null if the walk stops at every node
+	  private final boolean marked;
+	  
+	  Cursor(AVLNode subtree, int n, long[] marks, boolean marked)
+	  {
+		  this.node = n == 0 ? null : n == 1 && marks == null ? subtree : subtree.min();
+		  this.n = n;
+		  this.marks = marks;
+		  this.marked = marked;
+		  skip();
+	  }
+	  
+	  /**
+	   * returns the current node and moves to the next node the walk stops at
+	   * complexity: O(1) amortized over the walk
+	   */
+	  AVLNode next()
+	  {
+		  AVLNode current = this.node;
+		  step();
+		  skip();
+		  return current;
+	  }
+	  
+	  private void step()
+	  {
+		  this.index++;
+		  this.node = this.index < this.n ? this.node.successor() : null; //the walk never leaves the subtree
+	  }
+	  
+	  private void skip()
+	  {
+		  while(this.marks != null && this.index < this.n && ((this.marks[this.index >>> 6] >>> this.index & 1) == 1) != this.marked)
+		  {
+			  step();
+		  }
+	  }
+  }
+  
+  /**
+   * private static class TransformTask
+   *
+   * The parallel mapValues, filter and partition: subtrees with more than SEQUENTIAL nodes
+   * are transformed in parallel, and the results are joined with (a copy of) their root,
+   * or concatenated when the root is dropped. smaller subtrees are copied sequentially.
+   */
+  private static class TransformTask extends RecursiveTask<AVLTree[]> {
+	  private static final long serialVersionUID = 1L;
+	  private static final int SEQUENTIAL = 2048; //the subtree size below which the transform is sequential
+	  private final AVLTree source; //the tree that is transformed, the results keep their values like it
+	  private final AVLNode node;
+	  private final UnaryOperator<String> mapper;
+	  private final EntryPredicate predicate;
+	  private final boolean both;
+	  
+	  TransformTask(AVLTree source, AVLNode node, UnaryOperator<String> mapper, EntryPredicate predicate, boolean both)
+	  {
+		  this.source = source;
+		  this.node = node;
+		  this.mapper = mapper;
+		  this.predicate = predicate;
+		  this.both = both;
+	  }
+	  
+	  protected AVLTree[] compute()
+	  {
+		  if(this.node.size <= SEQUENTIAL)
+		  {
+			  return transform(this.source, this.node, this.mapper, this.predicate, this.both);
+		  }
+		  TransformTask leftTask = new TransformTask(this.source, this.node.left, this.mapper, this.predicate, this.both);
+		  leftTask.fork();
+		  AVLTree[] right = new TransformTask(this.source, this.node.right, this.mapper, this.predicate, this.both).compute();
+		  AVLTree[] left = leftTask.join();
+		  boolean keep = this.predicate == null || this.predicate.test(this.node.getKey(), this.node.getValue());
+		  AVLTree copy = copyOf(this.source, new Cursor(this.node, 1, null, true), 1, keep ? this.mapper : null);
+		  AVLTree[] result = new AVLTree[2];
+		  for (int side = 0; side < (this.both ? 2 : 1); side++)
+		  {
+			  if(keep == (side == 0)) //the root goes to this side
+			  {
+				  left[side].join(copy.root, right[side]);
+				  result[side] = left[side];
+			  }
+			  else
+			  {
+				  result[side] = concatPair(left[side], right[side]);
+			  }
+		  }
+		  return result;
+	  }
+  }
 
+}
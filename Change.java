@@ -0,0 +1,43 @@
+/**
+ * public final class Change
+ *
+ * A change that was made to a tree, as published to its ChangeFeed.
+ * key is the key of the item, or the split/eviction point. end and info belong to inserted items
+ * and to the separator of a join, snapshot holds the joined tree and the separator (with all
+ * its entries) in the format of writeTo, and pivots holds the pivots of a SPLIT_INTO.
+ */
+public final class Change {
+	public static final int INSERT = 0; //insert of an item (or an interval) with key, end and info
+	public static final int DELETE = 1; //delete of the item with key
+	public static final int ADD = 2; //one more entry with key and info (addAll)
+	public static final int REMOVE_ONE = 3; //removal of the last entry with key (removeOne)
+	public static final int SPLIT = 4; //split at key, the tree is not valid afterwards
+	public static final int JOIN = 5; //join with the separator (key, end, info), the tree and the separator are in snapshot
+	public static final int EVICT_BELOW = 6; //removal of all the items with keys smaller than key
+	public static final int EVICT_FROM = 7; //removal of all the items with keys larger than or equal to key
+	public static final int SPLIT_INTO = 8; //split below every pivot of pivots (see splitInto), the tree is not valid afterwards
+	
+	public final long sequence; //the position of the change in the feed, starting from 1
+	public final int type;
+	public final int key;
+	public final int end;
+	public final String info;
+	public final byte[] snapshot;
+	public final int[] pivots; //null unless the change is a SPLIT_INTO
+	
+	public Change(long sequence, int type, int key, int end, String info, byte[] snapshot)
+	{
+		this(sequence, type, key, end, info, snapshot, null);
+	}
+	
+	public Change(long sequence, int type, int key, int end, String info, byte[] snapshot, int[] pivots)
+	{
+		this.sequence = sequence;
+		this.type = type;
+		this.key = key;
+		this.end = end;
+		this.info = info;
+		this.snapshot = snapshot;
+		this.pivots = pivots;
+	}
+}
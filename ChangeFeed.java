@@ -0,0 +1,186 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * public class ChangeFeed
+ *
+ * A bounded, ordered feed of the changes of a tree, numbered by sequence.
+ * the feed keeps the last capacity changes; a reader that falls further behind
+ * has to resync from a full copy of the tree.
+ * the feed is thread safe, so followers may poll it from other threads.
+ */
+public class ChangeFeed {
+	private final Change[] ring; //the last changes, change s is at index (s-1) % capacity
+	private long lastSequence; //the sequence of the last published change (0 if there are none)
+	
+	/**
+	 * Creates an empty feed that keeps the last capacity changes
+	 * complexity: O(capacity)
+	 */
+	public ChangeFeed(int capacity)
+	{
+		this.ring = new Change[capacity];
+	}
+	
+	/**
+	 * adds a change to the feed, overwriting the oldest one if the feed is full
+	 * complexity: O(1)
+	 */
+	synchronized void publish(int type, int key, int end, String info, byte[] snapshot, int[] pivots)
+	{
+		this.lastSequence++;
+		this.ring[(int) ((this.lastSequence - 1) % this.ring.length)] = new Change(this.lastSequence, type, key, end, info, snapshot, pivots);
+	}
+	
+	/**
+	 * Returns the sequence of the last published change (0 if there are none)
+	 * complexity: O(1)
+	 */
+	public synchronized long lastSequence()
+	{
+		return this.lastSequence;
+	}
+	
+	/**
+	 * Returns the changes after sequence after, in order, at most max of them.
+	 * throws IllegalStateException if some of these changes were already overwritten.
+	 * complexity: O(max)
+	 */
+	public synchronized Change[] poll(long after, int max)
+	{
+		if(after < this.lastSequence - this.ring.length)
+		{
+			throw new IllegalStateException("the reader is behind the feed, a full resync is needed");
+		}
+		int n = (int) Math.min(max, this.lastSequence - after);
+		Change[] changes = new Change[n];
+		for (int j = 0; j < n; j++)
+		{
+			changes[j] = this.ring[(int) ((after + j) % this.ring.length)];
+		}
+		return changes;
+	}
+	
+	/**
+	 * writes changes to channel as one frame: its length in bytes followed by the changes,
+	 * so a Follower on the other side of the channel can read it with pull(ReadableByteChannel)
+	 * @pre channel is in blocking mode
+	 * complexity: O(total size of the changes)
+	 */
+	public static void writeBatch(Change[] changes, WritableByteChannel channel) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0); //place for the length of the frame
+		out.writeInt(changes.length);
+		for (Change c : changes)
+		{
+			out.writeLong(c.sequence);
+			out.writeByte(c.type);
+			out.writeInt(c.key);
+			out.writeInt(c.end);
+			byte[] info = c.info == null ? null : c.info.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(info == null ? -1 : info.length);
+			if(info != null)
+			{
+				out.write(info);
+			}
+			out.writeInt(c.snapshot == null ? -1 : c.snapshot.length);
+			if(c.snapshot != null)
+			{
+				out.write(c.snapshot);
+			}
+			if(c.type == Change.SPLIT_INTO)
+			{
+				out.writeInt(c.pivots.length);
+				for (int pivot : c.pivots)
+				{
+					out.writeInt(pivot);
+				}
+			}
+		}
+		out.flush();
+		ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+		frame.putInt(0, frame.capacity() - 4);
+		while(frame.hasRemaining())
+		{
+			channel.write(frame);
+		}
+	}
+	
+	/**
+	 * reads one frame of changes that was written by writeBatch from channel.
+	 * reads exactly the bytes of the frame, so the next frame stays in the channel.
+	 * @pre channel is in blocking mode
+	 * complexity: O(total size of the changes)
+	 */
+	public static Change[] readBatch(ReadableByteChannel channel) throws IOException
+	{
+		ByteBuffer length = ByteBuffer.allocate(4);
+		readFully(channel, length);
+		ByteBuffer frame = ByteBuffer.allocate(length.getInt(0));
+		readFully(channel, frame);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame.array()));
+		Change[] changes = new Change[in.readInt()];
+		for (int j = 0; j < changes.length; j++)
+		{
+			long sequence = in.readLong();
+			int type = in.readByte();
+			int key = in.readInt();
+			int end = in.readInt();
+			int infoLength = in.readInt();
+			String info = null;
+			if(infoLength >= 0)
+			{
+				byte[] bytes = new byte[infoLength];
+				in.readFully(bytes);
+				info = new String(bytes, StandardCharsets.UTF_8);
+			}
+			int snapshotLength = in.readInt();
+			byte[] snapshot = null;
+			if(snapshotLength >= 0)
+			{
+				snapshot = new byte[snapshotLength];
+				in.readFully(snapshot);
+			}
+			int[] pivots = null;
+			if(type == Change.SPLIT_INTO)
+			{
+				int count = in.readInt();
+				if(count < 0)
+				{
+					throw new IOException("negative number of pivots " + count);
+				}
+				pivots = new int[count];
+				for (int q = 0; q < count; q++)
+				{
+					pivots[q] = in.readInt();
+				}
+			}
+			changes[j] = new Change(sequence, type, key, end, info, snapshot, pivots);
+		}
+		return changes;
+	}
+	
+	/**
+	 * reads from channel until buffer is full
+	 */
+	private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			if(channel.read(buffer) < 0)
+			{
+				throw new EOFException("the stream ended in the middle of a batch");
+			}
+		}
+	}
+}
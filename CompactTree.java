@@ -0,0 +1,439 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * public class CompactTree
+ *
+ * A read-only compressed form of a tree (see AVLTree.compact()).
+ * the keys are kept in blocks of BLOCK keys: the first key of every block is kept in a sampled
+ * index, and the rest as the gaps between consecutive keys, bit packed with the width of the
+ * largest gap in the block. the infos of every block are compressed together with Deflater.
+ * a lookup searches the index, then decodes a single block of keys, and decompresses a single
+ * block of infos if it needs an info.
+ */
+public class CompactTree {
+	private static final int BLOCK = 64; //number of keys in a block
+	private final int n; //number of items
+	private final int[] firstKeys; //the first key of every block
+	private final long[] bitOffsets; //the offset (in bits) of the gaps of every block in bits
+	private final byte[] widths; //the number of bits of every gap of every block
+	private final long[] bits; //the bit packed gaps, gap = key - previous key - 1
+	private final byte[][] infoBlocks; //the compressed infos of every block
+	private final int[] infoLengths; //the length of every block of infos before the compression
+	
+	/**
+	 * Creates a compact tree of the sorted items keys[j], infos[j]
+	 * @pre keys is sorted in ascending order, without repetitions
+	 * complexity: O(n)
+	 */
+	CompactTree(int[] keys, String[] infos)
+	{
+		this.n = keys.length;
+		int blocks = (this.n + BLOCK - 1) / BLOCK;
+		this.firstKeys = new int[blocks];
+		this.bitOffsets = new long[blocks];
+		this.widths = new byte[blocks];
+		this.infoBlocks = new byte[blocks][];
+		this.infoLengths = new int[blocks];
+		long totalBits = 0;
+		for (int b = 0; b < blocks; b++) //find the width of every block
+		{
+			long maxGap = 0;
+			for (int j = b*BLOCK + 1; j < Math.min(this.n, (b+1)*BLOCK); j++)
+			{
+				maxGap = Math.max(maxGap, (long) keys[j] - keys[j-1] - 1);
+			}
+			this.widths[b] = (byte) (64 - Long.numberOfLeadingZeros(maxGap));
+			this.bitOffsets[b] = totalBits;
+			totalBits += (long) this.widths[b] * (Math.min(this.n, (b+1)*BLOCK) - b*BLOCK - 1);
+		}
+		this.bits = new long[(int) ((totalBits + 63) / 64) + 1];
+		for (int b = 0; b < blocks; b++)
+		{
+			int from = b*BLOCK;
+			int to = Math.min(this.n, from + BLOCK);
+			this.firstKeys[b] = keys[from];
+			long pos = this.bitOffsets[b];
+			for (int j = from + 1; j < to; j++)
+			{
+				putBits(pos, this.widths[b], (long) keys[j] - keys[j-1] - 1);
+				pos += this.widths[b];
+			}
+			compressInfos(b, infos, from, to);
+		}
+	}
+	
+	/**
+	 * puts the lowest width bits of value at bit position pos
+	 * complexity: O(1)
+	 */
+	private void putBits(long pos, int width, long value)
+	{
+		if(width == 0)
+		{
+			return;
+		}
+		int index = (int) (pos >>> 6);
+		int offset = (int) (pos & 63);
+		this.bits[index] |= value << offset;
+		if(offset + width > 64) //the value continues in the next long
+		{
+			this.bits[index+1] |= value >>> (64 - offset);
+		}
+	}
+	
+	/**
+	 * Returns the width bits at bit position pos
+	 * complexity: O(1)
+	 */
+	private long getBits(long pos, int width)
+	{
+		if(width == 0)
+		{
+			return 0;
+		}
+		int index = (int) (pos >>> 6);
+		int offset = (int) (pos & 63);
+		long value = this.bits[index] >>> offset;
+		if(offset + width > 64)
+		{
+			value |= this.bits[index+1] << (64 - offset);
+		}
+		return value & ((1L << width) - 1);
+	}
+	
+	/**
+	 * compresses infos[from..to-1] as the infos of block b
+	 * complexity: O(total length of the infos)
+	 */
+	private void compressInfos(int b, String[] infos, int from, int to)
+	{
+		ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(raw);
+		try
+		{
+			for (int j = from; j < to; j++)
+			{
+				byte[] info = infos[j] == null ? null : infos[j].getBytes(StandardCharsets.UTF_8);
+				out.writeInt(info == null ? -1 : info.length);
+				if(info != null)
+				{
+					out.write(info);
+				}
+			}
+			out.flush();
+		}
+		catch (IOException e) //cannot happen when writing to memory
+		{
+			throw new UncheckedIOException(e);
+		}
+		byte[] input = raw.toByteArray();
+		Deflater deflater = new Deflater();
+		deflater.setInput(input);
+		deflater.finish();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		byte[] part = new byte[4096];
+		while(!deflater.finished())
+		{
+			compressed.write(part, 0, deflater.deflate(part));
+		}
+		deflater.end();
+		this.infoBlocks[b] = compressed.toByteArray();
+		this.infoLengths[b] = input.length;
+	}
+	
+	/**
+	 * decompresses the infos of block b into infos from index 0, returns their number
+	 * complexity: O(total length of the infos in the block)
+	 */
+	private int decompressInfos(int b, String[] infos)
+	{
+		byte[] raw = new byte[this.infoLengths[b]];
+		Inflater inflater = new Inflater();
+		inflater.setInput(this.infoBlocks[b]);
+		try
+		{
+			int done = 0;
+			while(done < raw.length)
+			{
+				done += inflater.inflate(raw, done, raw.length - done);
+			}
+		}
+		catch (DataFormatException e) //cannot happen, the block was made by compressInfos
+		{
+			throw new IllegalStateException(e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+		ByteBuffer in = ByteBuffer.wrap(raw);
+		int count = blockSize(b);
+		for (int j = 0; j < count; j++)
+		{
+			int length = in.getInt();
+			if(length < 0)
+			{
+				infos[j] = null;
+			}
+			else
+			{
+				infos[j] = new String(raw, in.position(), length, StandardCharsets.UTF_8);
+				in.position(in.position() + length);
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the number of keys in block b
+	 * complexity: O(1)
+	 */
+	private int blockSize(int b)
+	{
+		return Math.min(this.n - b*BLOCK, BLOCK);
+	}
+	
+	/**
+	 * decodes the keys of block b into keys from index 0, returns their number
+	 * complexity: O(BLOCK)
+	 */
+	private int decodeKeys(int b, int[] keys)
+	{
+		int count = blockSize(b);
+		keys[0] = this.firstKeys[b];
+		long pos = this.bitOffsets[b];
+		for (int j = 1; j < count; j++)
+		{
+			keys[j] = (int) (keys[j-1] + 1 + getBits(pos, this.widths[b]));
+			pos += this.widths[b];
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the last block whose first key is smaller than or equal to k, or -1 if there is none
+	 * complexity: O(log(n))
+	 */
+	private int blockOf(int k)
+	{
+		int lo = 0;
+		int hi = this.firstKeys.length - 1;
+		int block = -1;
+		while(lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(this.firstKeys[mid] <= k)
+			{
+				block = mid;
+				lo = mid + 1;
+			}
+			else
+			{
+				hi = mid - 1;
+			}
+		}
+		return block;
+	}
+	
+	/**
+	 * Returns the info of the j'th item of block b
+	 * complexity: O(total length of the infos in the block)
+	 */
+	private String info(int b, int j)
+	{
+		String[] infos = new String[BLOCK];
+		decompressInfos(b, infos);
+		return infos[j];
+	}
+	
+	/**
+	 * Returns the info of an item with key k if it exists, otherwise returns null
+	 * complexity: O(log(n) + BLOCK), plus decompressing one block of infos if k exists
+	 */
+	public String search(int k)
+	{
+		int b = blockOf(k);
+		if(b < 0)
+		{
+			return null;
+		}
+		int[] keys = new int[BLOCK];
+		int count = decodeKeys(b, keys);
+		for (int j = 0; j < count && keys[j] <= k; j++)
+		{
+			if(keys[j] == k)
+			{
+				return info(b, j);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the number of keys smaller than k
+	 * complexity: O(log(n) + BLOCK)
+	 */
+	public int rank(int k)
+	{
+		int b = blockOf(k);
+		if(b < 0)
+		{
+			return 0;
+		}
+		int[] keys = new int[BLOCK];
+		int count = decodeKeys(b, keys);
+		int j = 0;
+		while(j < count && keys[j] < k)
+		{
+			j++;
+		}
+		return b*BLOCK + j;
+	}
+	
+	/**
+	 * Returns the i'th smallest key
+	 * @pre 1 <= i <= size()
+	 * complexity: O(BLOCK)
+	 */
+	public int select(int i)
+	{
+		int[] keys = new int[BLOCK];
+		decodeKeys((i-1) / BLOCK, keys);
+		return keys[(i-1) % BLOCK];
+	}
+	
+	/**
+	 * Returns the info of the item with the smallest key, or null if the tree is empty
+	 * complexity: O(total length of the infos in a block)
+	 */
+	public String min()
+	{
+		return this.n == 0 ? null : info(0, 0);
+	}
+	
+	/**
+	 * Returns the info of the item with the largest key, or null if the tree is empty
+	 * complexity: O(total length of the infos in a block)
+	 */
+	public String max()
+	{
+		int b = this.firstKeys.length - 1;
+		return this.n == 0 ? null : info(b, blockSize(b) - 1);
+	}
+	
+	/**
+	 * passes the items with keys in [lo, hi] in ascending order of keys to consumer,
+	 * a block at a time (the arrays are reused between the calls)
+	 * complexity: O(log(n) + k), k is the number of items in the range
+	 */
+	public void scan(int lo, int hi, AVLTree.BatchConsumer consumer)
+	{
+		int[] keys = new int[BLOCK];
+		String[] infos = new String[BLOCK];
+		for (int b = Math.max(blockOf(lo), 0); b < this.firstKeys.length && this.firstKeys[b] <= hi; b++)
+		{
+			int count = decodeKeys(b, keys);
+			int from = 0;
+			while(from < count && keys[from] < lo)
+			{
+				from++;
+			}
+			int to = from;
+			while(to < count && keys[to] <= hi)
+			{
+				to++;
+			}
+			if(from == to)
+			{
+				continue;
+			}
+			decompressInfos(b, infos);
+			if(from > 0) //move the range to the start of the arrays
+			{
+				System.arraycopy(keys, from, keys, 0, to - from);
+				System.arraycopy(infos, from, infos, 0, to - from);
+			}
+			consumer.accept(keys, infos, to - from);
+		}
+	}
+	
+	/**
+	 * Returns a sorted array of all the keys
+	 * complexity: O(n)
+	 */
+	public int[] keysToArray()
+	{
+		int[] keys = new int[this.n];
+		int[] block = new int[BLOCK];
+		for (int b = 0; b < this.firstKeys.length; b++)
+		{
+			System.arraycopy(block, 0, keys, b*BLOCK, decodeKeys(b, block));
+		}
+		return keys;
+	}
+	
+	/**
+	 * Returns an array of all the infos, sorted by their keys
+	 * complexity: O(n + total length of the infos)
+	 */
+	public String[] infoToArray()
+	{
+		String[] infos = new String[this.n];
+		String[] block = new String[BLOCK];
+		for (int b = 0; b < this.firstKeys.length; b++)
+		{
+			System.arraycopy(block, 0, infos, b*BLOCK, decompressInfos(b, block));
+		}
+		return infos;
+	}
+	
+	/**
+	 * Returns the number of items
+	 * complexity: O(1)
+	 */
+	public int size()
+	{
+		return this.n;
+	}
+	
+	/**
+	 * Returns true if and only if there are no items
+	 * complexity: O(1)
+	 */
+	public boolean empty()
+	{
+		return this.n == 0;
+	}
+	
+	/**
+	 * Returns the number of bytes of the arrays of the compact tree (without object headers)
+	 * complexity: O(n / BLOCK)
+	 */
+	public long bytes()
+	{
+		long bytes = 4L*this.firstKeys.length + 8L*this.bitOffsets.length + this.widths.length
+				+ 8L*this.bits.length + 4L*this.infoLengths.length;
+		for (byte[] block : this.infoBlocks)
+		{
+			bytes += block.length;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Returns a new (mutable) balanced AVL tree with the items of the compact tree
+	 * complexity: O(n + total length of the infos)
+	 */
+	public AVLTree thaw()
+	{
+		return AVLTree.fromSorted(keysToArray(), infoToArray(), 0, this.n - 1);
+	}
+}
@@ -0,0 +1,183 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * public class EngineBenchmark
+ *
+ * Compares index engines on skewed traces: the keys are accessed by a Zipf distribution,
+ * where the key of rank r (r = 1..n) is accessed with probability proportional to 1/r^s.
+ * the ranks are assigned to keys at random, so the hot keys are not the first ones inserted.
+ * the result of an engine is its average search time and its average search depth, measured
+ * after a warm-up pass over the trace, and for the engines that scan ranges (AVLTree and
+ * WideTree) the time per item of range scans that start at the keys of the trace.
+ */
+public class EngineBenchmark {
+	private static final int SCAN_WIDTH = 100; //the number of keys in a range that compare scans
+	
+	/**
+	 * the measurements of an engine on a trace
+	 */
+	public static final class Result {
+		public final String engine;
+		public final double nanosPerSearch;
+		public final double averageDepth; //average depth of the accessed keys, before every access
+		public final double nanosPerScannedItem; //-1 if the engine does not scan ranges
+		
+		Result(String engine, double nanosPerSearch, double averageDepth, double nanosPerScannedItem)
+		{
+			this.engine = engine;
+			this.nanosPerSearch = nanosPerSearch;
+			this.averageDepth = averageDepth;
+			this.nanosPerScannedItem = nanosPerScannedItem;
+		}
+		
+		public String toString()
+		{
+			String text = String.format("%s: %.1f ns/search, average depth %.2f", this.engine, this.nanosPerSearch, this.averageDepth);
+			return this.nanosPerScannedItem < 0 ? text : text + String.format(", %.2f ns/scanned item", this.nanosPerScannedItem);
+		}
+	}
+	
+	/**
+	 * public interface Scanner
+	 * scans a range of an engine, like AVLTree.scan and WideTree.scan
+	 */
+	public interface Scanner {
+		public void scan(int lo, int hi, AVLTree.BatchConsumer consumer);
+	}
+	
+	/**
+	 * public static int[] zipfTrace(int[] keys, int length, double s, long seed)
+	 * returns length keys drawn from keys by a Zipf distribution with exponent s
+	 * (s = 0 is uniform), where the ranks are a random permutation of keys
+	 * complexity: O(n + length*log(n))
+	 */
+	public static int[] zipfTrace(int[] keys, int length, double s, long seed)
+	{
+		Random random = new Random(seed);
+		int n = keys.length;
+		int[] byRank = keys.clone();
+		for(int j = n - 1; j > 0; j--) //shuffle the keys, so the ranks are random
+		{
+			int r = random.nextInt(j + 1);
+			int tmp = byRank[j];
+			byRank[j] = byRank[r];
+			byRank[r] = tmp;
+		}
+		double[] cdf = new double[n];
+		double sum = 0;
+		for(int r = 0; r < n; r++)
+		{
+			sum += 1 / Math.pow(r + 1, s);
+			cdf[r] = sum;
+		}
+		int[] trace = new int[length];
+		for(int j = 0; j < length; j++)
+		{
+			int r = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+			trace[j] = byRank[Math.min(n - 1, r < 0 ? -r - 1 : r)];
+		}
+		return trace;
+	}
+	
+	/**
+	 * public static Result run(String name, OrderedIndex index, int[] trace)
+	 * searches the keys of trace in index, once to warm up and once measured
+	 * complexity: O(length * cost of a search)
+	 */
+	public static Result run(String name, OrderedIndex index, int[] trace)
+	{
+		return run(name, index, trace, null, 0);
+	}
+	
+	/**
+	 * public static Result run(String name, OrderedIndex index, int[] trace, Scanner scanner, int width)
+	 * searches the keys of trace in index like run, and then scans with scanner (if it is not null)
+	 * the ranges [k, k + width - 1] for the keys k of trace, once to warm up and once measured
+	 * complexity: O(length * (cost of a search + width))
+	 */
+	public static Result run(String name, OrderedIndex index, int[] trace, Scanner scanner, int width)
+	{
+		long found = 0;
+		for(int k : trace) //warm up, and let a self adjusting engine adapt to the trace
+		{
+			found += index.search(k) == null ? 0 : 1;
+		}
+		long depths = 0;
+		for(int k : trace)
+		{
+			depths += index.depth(k);
+			index.search(k);
+		}
+		long start = System.nanoTime();
+		for(int k : trace)
+		{
+			found += index.search(k) == null ? 0 : 1;
+		}
+		long time = System.nanoTime() - start;
+		double nanosPerScannedItem = -1;
+		if(scanner != null)
+		{
+			long[] scanned = new long[2]; //the number of items, and a sum of their keys
+			AVLTree.BatchConsumer consumer = (keys, infos, length) -> {
+				scanned[0] += length;
+				scanned[1] += keys[length - 1];
+			};
+			for(int k : trace) //warm up
+			{
+				scanner.scan(k, k + width - 1, consumer);
+			}
+			scanned[0] = 0;
+			long scanStart = System.nanoTime();
+			for(int k : trace)
+			{
+				scanner.scan(k, k + width - 1, consumer);
+			}
+			long scanTime = System.nanoTime() - scanStart;
+			found += scanned[1];
+			nanosPerScannedItem = scanned[0] == 0 ? 0 : (double) scanTime / scanned[0];
+		}
+		if(found < 0) //keeps the searches and the scans from being optimized away
+		{
+			throw new IllegalStateException();
+		}
+		return new Result(name, (double) time / trace.length, (double) depths / trace.length, nanosPerScannedItem);
+	}
+	
+	/**
+	 * public static Result[] compare(int n, int length, double s, long seed)
+	 * builds an AVLTree, a SplayTree, a WideTree and a TopDownTree of n keys inserted in random order, and runs them
+	 * on the same Zipf trace of the given length and exponent. AVLTree and WideTree also scan
+	 * the ranges of SCAN_WIDTH keys that start at the keys of the trace
+	 * complexity: O(n*log(n) + length*(log(n) + SCAN_WIDTH))
+	 */
+	public static Result[] compare(int n, int length, double s, long seed)
+	{
+		int[] keys = new int[n];
+		for(int j = 0; j < n; j++)
+		{
+			keys[j] = j;
+		}
+		Random random = new Random(seed + 1);
+		for(int j = n - 1; j > 0; j--) //the keys are inserted in random order
+		{
+			int r = random.nextInt(j + 1);
+			int tmp = keys[j];
+			keys[j] = keys[r];
+			keys[r] = tmp;
+		}
+		OrderedIndex[] engines = {new AVLTree(), new SplayTree(), new WideTree(), new TopDownTree()};
+		for(OrderedIndex engine : engines)
+		{
+			for(int k : keys)
+			{
+				engine.insert(k, Integer.toString(k));
+			}
+		}
+		int[] trace = zipfTrace(keys, length, s, seed);
+		AVLTree avl = (AVLTree) engines[0];
+		WideTree wide = (WideTree) engines[2];
+		return new Result[] {run("avl", avl, trace, avl::scan, SCAN_WIDTH), run("splay", engines[1], trace),
+				run("wide", wide, trace, wide::scan, SCAN_WIDTH), run("topdown", engines[3], trace)};
+	}
+}
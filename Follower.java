@@ -0,0 +1,164 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * public class Follower
+ *
+ * Keeps a replica of a tree up to date by applying the changes published to its feed,
+ * in batches, either directly from the ChangeFeed or from a channel (see ChangeFeed.writeBatch).
+ * the work is proportional to the number of changes, not to the size of the tree.
+ * a split ends the replica: its parts are kept in lastSplit().
+ */
+public class Follower {
+	private AVLTree replica; //the tree the changes are applied to
+	private long lastApplied; //the sequence of the last change that was applied
+	private AVLTree[] lastSplit; //the parts of the last split that was applied, null if there was none
+	
+	/**
+	 * Creates a follower that applies the changes after sequence lastApplied to replica.
+	 * replica should be a copy of the tree after that change (for example from writeTo/readFrom).
+	 * complexity: O(1)
+	 */
+	public Follower(AVLTree replica, long lastApplied)
+	{
+		this.replica = replica;
+		this.lastApplied = lastApplied;
+	}
+	
+	/**
+	 * applies the next changes of feed to the replica, at most maxBatch of them,
+	 * and returns how many were applied.
+	 * throws IllegalStateException if the feed no longer has the next change.
+	 * complexity: O(changes * log(n))
+	 */
+	public int pull(ChangeFeed feed, int maxBatch)
+	{
+		return applyAll(feed.poll(this.lastApplied, maxBatch));
+	}
+	
+	/**
+	 * reads one batch of changes from channel and applies it to the replica,
+	 * returns how many changes were applied
+	 * complexity: O(changes * log(n))
+	 */
+	public int pull(ReadableByteChannel channel) throws IOException
+	{
+		return applyAll(ChangeFeed.readBatch(channel));
+	}
+	
+	/**
+	 * applies changes to the replica in order, skipping the ones that were applied already.
+	 * returns how many changes were applied.
+	 * throws IllegalStateException if a change is missing between the last applied one and changes.
+	 * complexity: O(changes * log(n))
+	 */
+	public int applyAll(Change[] changes)
+	{
+		int applied = 0;
+		for (Change c : changes)
+		{
+			if(c.sequence <= this.lastApplied)
+			{
+				continue;
+			}
+			if(c.sequence != this.lastApplied + 1)
+			{
+				throw new IllegalStateException("missing change " + (this.lastApplied + 1));
+			}
+			apply(c);
+			this.lastApplied = c.sequence;
+			applied++;
+		}
+		return applied;
+	}
+	
+	/**
+	 * applies a single change to the replica
+	 * complexity: O(log(n)), or O(size of the snapshot) for a join
+	 */
+	private void apply(Change c)
+	{
+		AVLTree tree = this.replica;
+		switch(c.type)
+		{
+		case Change.INSERT:
+			if(c.end == c.key)
+			{
+				tree.insert(c.key, c.info);
+			}
+			else
+			{
+				tree.insertInterval(c.key, c.end, c.info);
+			}
+			break;
+		case Change.DELETE:
+			tree.delete(c.key);
+			break;
+		case Change.ADD:
+			tree.addAll(c.key, c.info);
+			break;
+		case Change.REMOVE_ONE:
+			tree.removeOne(c.key);
+			break;
+		case Change.SPLIT:
+			this.lastSplit = tree.split(c.key);
+			this.replica = new AVLTree();
+			break;
+		case Change.SPLIT_INTO:
+			this.lastSplit = tree.splitBelowAll(c.pivots);
+			this.replica = new AVLTree();
+			break;
+		case Change.JOIN:
+			AVLTree t;
+			try
+			{
+				t = AVLTree.readFrom(Channels.newChannel(new ByteArrayInputStream(c.snapshot)));
+			}
+			catch (IOException e) //cannot happen when reading from memory
+			{
+				throw new UncheckedIOException(e);
+			}
+			tree.joinSeparated(c.key, t); //the snapshot holds the separator with all its entries
+			break;
+		case Change.EVICT_BELOW:
+			tree.evictBelow(c.key);
+			break;
+		case Change.EVICT_FROM:
+			tree.become(tree.splitBelow(c.key)[0]);
+			break;
+		default:
+			throw new IllegalArgumentException("unknown change type " + c.type);
+		}
+	}
+	
+	/**
+	 * Returns the replica
+	 * complexity: O(1)
+	 */
+	public AVLTree getReplica()
+	{
+		return this.replica;
+	}
+	
+	/**
+	 * Returns the sequence of the last change that was applied
+	 * complexity: O(1)
+	 */
+	public long lastApplied()
+	{
+		return this.lastApplied;
+	}
+	
+	/**
+	 * Returns the parts of the last split that was applied (two for a split, N+1 for
+	 * a splitInto by N pivots), or null if there was none
+	 * complexity: O(1)
+	 */
+	public AVLTree[] lastSplit()
+	{
+		return this.lastSplit;
+	}
+}
@@ -0,0 +1,204 @@
+import java.util.Arrays;
+
+/**
+ * public class KeyFilter
+ *
+ * A counting Bloom filter of int keys (see AVLTree.setKeyFilter), which answers most
+ * lookups of absent keys without walking the tree. the filter is blocked: the counters
+ * of a key are all in one block of 64 bytes (one cache line), so a miss reads one line.
+ * every counter has 4 bits, a counter that reaches 15 stays there, so removals never
+ * cause false negatives. the false positive rate is about the requested rate while the
+ * filter holds at most capacity() keys (a bit higher, since the blocks are not filled evenly).
+ * the keys that leave the tree in bulk (by evictions and splits) may stay in the filter, which
+ * only adds false positives, until the tree rebuilds the filter when it fills up.
+ */
+public class KeyFilter {
+	private static final int BLOCK_COUNTERS = 128; //4 bit counters in a block of 8 longs
+	private final double falsePositiveRate;
+	private final int hashes; //number of counters of a key
+	private final double countersPerKey;
+	int capacity; //the number of keys the filter is sized for
+	private int blocks;
+	private long[] counters; //block b is counters[8*b .. 8*b+7]
+	int count; //number of keys in the filter
+	
+	/**
+	 * Creates an empty filter for expectedKeys keys with the given false positive rate.
+	 * a lower rate takes more memory: about -log2(rate) / 1.4 bits per key.
+	 * throws IllegalArgumentException unless expectedKeys >= 0 and 0 < falsePositiveRate < 1
+	 * complexity: O(expectedKeys)
+	 */
+	public KeyFilter(int expectedKeys, double falsePositiveRate)
+	{
+		if(expectedKeys < 0 || !(falsePositiveRate > 0 && falsePositiveRate < 1))
+		{
+			throw new IllegalArgumentException("expected keys must be >= 0 and the rate must be in (0, 1)");
+		}
+		this.falsePositiveRate = falsePositiveRate;
+		this.countersPerKey = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+		this.hashes = (int) Math.max(1, Math.min(16, Math.round(this.countersPerKey * Math.log(2))));
+		resize(expectedKeys);
+	}
+	
+	/**
+	 * returns a new empty filter with the false positive rate of this filter, for expectedKeys keys
+	 * complexity: O(expectedKeys)
+	 */
+	KeyFilter sized(int expectedKeys)
+	{
+		return new KeyFilter(expectedKeys, this.falsePositiveRate);
+	}
+	
+	/**
+	 * empties the filter and sizes it for capacity keys
+	 * complexity: O(capacity)
+	 */
+	void resize(int capacity)
+	{
+		this.capacity = capacity;
+		this.blocks = (int) Math.max(1, Math.ceil(capacity * this.countersPerKey / BLOCK_COUNTERS));
+		this.counters = new long[8 * this.blocks];
+		this.count = 0;
+	}
+	
+	/**
+	 * empties the filter
+	 * complexity: O(capacity)
+	 */
+	void clear()
+	{
+		Arrays.fill(this.counters, 0);
+		this.count = 0;
+	}
+	
+	/**
+	 * returns a 64 bit hash of key (the finalizer of MurmurHash3)
+	 */
+	private static long hash(int key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+	
+	/**
+	 * returns the index in counters of the first long of the block of h
+	 */
+	private int block(long h)
+	{
+		return (int) (((h >>> 32) * this.blocks) >>> 32) << 3;
+	}
+	
+	/**
+	 * adds key to the filter (a key that is already there is counted twice)
+	 * complexity: O(1)
+	 */
+	void add(int key)
+	{
+		long h = hash(key);
+		int base = block(h);
+		int step = (int) h | 1; //odd, so the positions of a key differ
+		int position = (int) h >>> 7;
+		for (int j = 0; j < this.hashes; j++, position += step)
+		{
+			int p = position & (BLOCK_COUNTERS - 1);
+			int shift = (p & 15) << 2;
+			long word = this.counters[base + (p >>> 4)];
+			if(((word >>> shift) & 15) != 15) //a full counter stays full
+			{
+				this.counters[base + (p >>> 4)] = word + (1L << shift);
+			}
+		}
+		this.count++;
+	}
+	
+	/**
+	 * removes key from the filter
+	 * @pre key was added to the filter
+	 * complexity: O(1)
+	 */
+	void remove(int key)
+	{
+		long h = hash(key);
+		int base = block(h);
+		int step = (int) h | 1;
+		int position = (int) h >>> 7;
+		for (int j = 0; j < this.hashes; j++, position += step)
+		{
+			int p = position & (BLOCK_COUNTERS - 1);
+			int shift = (p & 15) << 2;
+			long word = this.counters[base + (p >>> 4)];
+			long c = (word >>> shift) & 15;
+			if(c != 15 && c != 0) //a full counter might count more keys than it shows
+			{
+				this.counters[base + (p >>> 4)] = word - (1L << shift);
+			}
+		}
+		this.count--;
+	}
+	
+	/**
+	 * public boolean mightContain(int key)
+	 * returns false if key is surely not in the tree of the filter, true if it might be
+	 * complexity: O(1), one cache line is read
+	 */
+	public boolean mightContain(int key)
+	{
+		long h = hash(key);
+		int base = block(h);
+		int step = (int) h | 1;
+		int position = (int) h >>> 7;
+		for (int j = 0; j < this.hashes; j++, position += step)
+		{
+			int p = position & (BLOCK_COUNTERS - 1);
+			if(((this.counters[base + (p >>> 4)] >>> ((p & 15) << 2)) & 15) == 0)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * public int count()
+	 * returns the number of keys in the filter (with the keys that left its tree in bulk)
+	 * complexity: O(1)
+	 */
+	public int count()
+	{
+		return this.count;
+	}
+	
+	/**
+	 * public int capacity()
+	 * returns the number of keys the filter is sized for
+	 * complexity: O(1)
+	 */
+	public int capacity()
+	{
+		return this.capacity;
+	}
+	
+	/**
+	 * public double falsePositiveRate()
+	 * returns the false positive rate the filter was created for
+	 * complexity: O(1)
+	 */
+	public double falsePositiveRate()
+	{
+		return this.falsePositiveRate;
+	}
+	
+	/**
+	 * public long memoryBytes()
+	 * returns the size of the counters in bytes
+	 * complexity: O(1)
+	 */
+	public long memoryBytes()
+	{
+		return 8L * this.counters.length;
+	}
+}
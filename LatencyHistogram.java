@@ -0,0 +1,113 @@
+/**
+ * public final class LatencyHistogram
+ *
+ * A histogram of latencies in nanoseconds with buckets of about 6% of their value
+ * (16 buckets for every power of 2), like HdrHistogram with 1 significant digit:
+ * it takes 8KB no matter how many values are recorded, and recording is O(1).
+ */
+public final class LatencyHistogram {
+	private static final int SUB = 16; //buckets for every power of 2
+	private final long[] counts = new long[64 * SUB];
+	private long total; //number of recorded values
+	private long sum;
+	private long max;
+	
+	/**
+	 * public void record(long nanos)
+	 * records a latency (negative values are recorded as 0)
+	 * complexity: O(1)
+	 */
+	public void record(long nanos)
+	{
+		long v = Math.max(nanos, 0);
+		this.counts[bucket(v)]++;
+		this.total++;
+		this.sum += v;
+		this.max = Math.max(this.max, v);
+	}
+	
+	/**
+	 * returns the bucket of v: the values below SUB have their own buckets, and the
+	 * bucket of a bigger value is found by its highest bit and the SUB bits after it
+	 */
+	private static int bucket(long v)
+	{
+		if(v < SUB)
+		{
+			return (int) v;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(v); //at least 4
+		return (exp - 3) * SUB + (int) ((v >>> (exp - 4)) & (SUB - 1));
+	}
+	
+	/**
+	 * returns the highest value of the bucket
+	 */
+	private static long highest(int bucket)
+	{
+		if(bucket < SUB)
+		{
+			return bucket;
+		}
+		int exp = bucket / SUB + 3;
+		return ((long) (SUB + bucket % SUB + 1) << (exp - 4)) - 1;
+	}
+	
+	/**
+	 * public void add(LatencyHistogram other)
+	 * adds the values of other to this histogram
+	 * complexity: O(1)
+	 */
+	public void add(LatencyHistogram other)
+	{
+		for (int j = 0; j < this.counts.length; j++)
+		{
+			this.counts[j] += other.counts[j];
+		}
+		this.total += other.total;
+		this.sum += other.sum;
+		this.max = Math.max(this.max, other.max);
+	}
+	
+	/**
+	 * public long percentile(double p)
+	 * returns the value that p percent of the recorded values are at most (up to the
+	 * bucket precision), or 0 if there are none
+	 * complexity: O(1)
+	 */
+	public long percentile(double p)
+	{
+		long rank = (long) Math.ceil(p / 100 * this.total);
+		long seen = 0;
+		for (int j = 0; j < this.counts.length; j++)
+		{
+			seen += this.counts[j];
+			if(seen >= rank && seen > 0)
+			{
+				return Math.min(highest(j), this.max);
+			}
+		}
+		return this.max;
+	}
+	
+	public long count()
+	{
+		return this.total;
+	}
+	
+	public double mean()
+	{
+		return this.total == 0 ? 0 : (double) this.sum / this.total;
+	}
+	
+	public long max()
+	{
+		return this.max;
+	}
+	
+	public String toString()
+	{
+		return String.format("count=%d mean=%.0fns p50=%dns p90=%dns p99=%dns p99.9=%dns max=%dns", this.total, mean(),
+				percentile(50), percentile(90), percentile(99), percentile(99.9), this.max);
+	}
+}
@@ -0,0 +1,150 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * public class NodeArena
+ *
+ * A free list of removed nodes, for reuse by insertions (see AVLTree.setNodeArena).
+ * the list keeps at most high nodes: when it grows beyond high it is trimmed to low,
+ * so a burst of deletions does not pin memory forever. the counters show how many nodes
+ * were allocated because the list was empty, and how many were reused.
+ * the nodes handed out as handles (by handle and insertHandle) are never reused, so a stale
+ * handle stays a node of no tree. they are kept in a weak set, which forgets them when they are
+ * no longer referenced. a node keeps its value storage with it, so trees that share an arena
+ * reuse each other's nodes, except the ones that keep their values in another value arena.
+ * the arena is not thread safe, so it should be shared only by trees of the same thread.
+ */
+public class NodeArena {
+	private final int low; //the number of nodes kept by a trim
+	private final int high; //the maximal number of free nodes
+	private AVLTree.AVLNode[] free; //the free nodes, free[0..count-1]
+	private int count;
+	private long allocated; //number of nodes allocated because the list was empty
+	private long reused; //number of nodes taken from the list
+	private long trimmed; //number of nodes dropped by trims
+	private final Set<AVLTree.AVLNode> handles = Collections.newSetFromMap(new WeakHashMap<AVLTree.AVLNode, Boolean>()); //nodes that are not reused
+	
+	/**
+	 * Creates an empty arena with the given watermarks
+	 * throws IllegalArgumentException unless 0 <= low <= high
+	 * complexity: O(1)
+	 */
+	public NodeArena(int low, int high)
+	{
+		if(low < 0 || high < low)
+		{
+			throw new IllegalArgumentException("the watermarks must satisfy 0 <= low <= high");
+		}
+		this.low = low;
+		this.high = high;
+		this.free = new AVLTree.AVLNode[Math.min(Math.max(high, 1), 1024)];
+	}
+	
+	/**
+	 * returns a free node, or null (and counts an allocation) if there is none
+	 * complexity: O(1)
+	 */
+	AVLTree.AVLNode take()
+	{
+		if(this.count == 0)
+		{
+			this.allocated++;
+			return null;
+		}
+		this.reused++;
+		AVLTree.AVLNode node = this.free[--this.count];
+		this.free[this.count] = null;
+		return node;
+	}
+	
+	/**
+	 * marks node as a handle, so it is not reused after its item is deleted
+	 * complexity: O(1) expected
+	 */
+	void pin(AVLTree.AVLNode node)
+	{
+		this.handles.add(node);
+	}
+	
+	/**
+	 * adds a node that was removed from its tree to the list, dropping its references.
+	 * a handle is only unlinked (it keeps its key and value) and is not added to the list.
+	 * complexity: O(1) amortized
+	 */
+	void release(AVLTree.AVLNode node)
+	{
+		node.left = null;
+		node.right = null;
+		node.parent = null;
+		if(this.handles.remove(node))
+		{
+			return;
+		}
+		node.dropItem();
+		if(this.count == this.free.length)
+		{
+			this.free = Arrays.copyOf(this.free, Math.min(this.high + 1, 2 * this.free.length));
+		}
+		this.free[this.count++] = node;
+		if(this.count > this.high)
+		{
+			trim();
+		}
+	}
+	
+	/**
+	 * public void trim()
+	 * drops free nodes until at most low are left
+	 * complexity: O(number of dropped nodes)
+	 */
+	public void trim()
+	{
+		while(this.count > this.low)
+		{
+			this.free[--this.count] = null;
+			this.trimmed++;
+		}
+	}
+	
+	/**
+	 * public int size()
+	 * returns the number of free nodes
+	 * complexity: O(1)
+	 */
+	public int size()
+	{
+		return this.count;
+	}
+	
+	/**
+	 * public long allocated()
+	 * returns the number of nodes that were allocated because the list was empty
+	 * complexity: O(1)
+	 */
+	public long allocated()
+	{
+		return this.allocated;
+	}
+	
+	/**
+	 * public long reused()
+	 * returns the number of nodes that were taken from the list
+	 * complexity: O(1)
+	 */
+	public long reused()
+	{
+		return this.reused;
+	}
+	
+	/**
+	 * public long trimmed()
+	 * returns the number of free nodes that were dropped by trims
+	 * complexity: O(1)
+	 */
+	public long trimmed()
+	{
+		return this.trimmed;
+	}
+}
@@ -0,0 +1,25 @@
+/**
+ * interface OrderedIndex
+ *
+ * The operations an index engine offers, so the engine behind an index can be chosen
+ * by its workload. AVLTree keeps every access O(log(n)), SplayTree moves the
+ * accessed keys to the root so frequently accessed keys are found fast, WideTree
+ * keeps many keys in a node so a search makes few cache misses, and TopDownTree
+ * updates in one pass down without parent pointers.
+ * every engine splits and joins, but only with indexes of its own engine: join throws
+ * IllegalArgumentException for an index of another engine.
+ */
+interface OrderedIndex {
+	public int insert(int k, String i); //returns -1 if k is already in the index
+	public int delete(int k); //returns -1 if k is not in the index
+	public String search(int k); //returns null if k is not in the index
+	public String min(); //returns null if the index is empty
+	public String max(); //returns null if the index is empty
+	public int size();
+	public boolean empty();
+	public int[] keysToArray();
+	public String[] infoToArray();
+	public int depth(int k); //number of nodes a search of k visits
+	public OrderedIndex[] split(int x); //[keys < x, keys > x] of the same engine, @pre search(x) != null, the index is not used after it
+	public int join(AVLTree.IAVLNode x, OrderedIndex t); //joins x and t of the same engine into the index, t is not used after it
+}
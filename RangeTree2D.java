@@ -0,0 +1,414 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * public class RangeTree2D
+ *
+ * A set of points (x, y) with infos that counts and reports the points in a rectangle.
+ * the points are kept in layered range trees: a tree over the points sorted by x, where
+ * every node has the points of its subtree sorted by y, and for every prefix of that list
+ * the number of them that come from its left son (fractional cascading). so a query makes
+ * one binary search on y at the root and follows the prefixes down in O(1) per node,
+ * O(log(n)) for a count.
+ * a layered tree is static, so the set keeps up to 32 of them with sizes of at most 2^i
+ * (the logarithmic method): an insertion builds a tree of one point and merges it with the
+ * trees of the smaller levels while the level is taken, O(log(n)^2) amortized.
+ * deleted points are inserted the same way into a second set of trees that is subtracted
+ * by count, and all the trees are rebuilt when the deleted points outnumber the live ones.
+ * the set stands alone and does not augment AVLTree: a node that keeps the points of its
+ * subtree sorted by y has to rebuild its list in O(size of the subtree) after a rotation,
+ * split or join, so an AVLTree keyed on x that carries the lists would update in O(n).
+ */
+public class RangeTree2D {
+	private static final int LEVELS = 32;
+	private final Layer[] live = new Layer[LEVELS]; //every point that was inserted since the last rebuild
+	private final Layer[] dead = new Layer[LEVELS]; //the points deleted since the last rebuild
+	private final HashMap<Long, String> points = new HashMap<Long, String>(); //the current points and their infos
+	private int deadCount; //number of points in the dead trees
+	private HashSet<Long> reported; //the points reported by the current report, null if there cannot be repetitions
+	private int reportedCount;
+	
+	/**
+	 * public interface PointConsumer
+	 * receives the points of a rectangle, see report
+	 */
+	public interface PointConsumer {
+		public void accept(int x, int y, String info);
+	}
+	
+	/**
+	 * A static layered range tree. node v (the root is 1) covers the points lo..hi-1 of xs, ys,
+	 * its sons 2v and 2v+1 cover the two halves.
+	 */
+	private static final class Layer {
+		private final int[] xs; //the points sorted by x, then by y
+		private final int[] ys;
+		private final int[][] byY; //byY[v] is the indexes of the points of v, sorted by y
+		private final int[][] fromLeft; //fromLeft[v][i] is the number of byY[v][0..i-1] in the left son of v
+		
+		private Layer(int[] xs, int[] ys)
+		{
+			this.xs = xs;
+			this.ys = ys;
+			this.byY = new int[4 * xs.length][];
+			this.fromLeft = new int[4 * xs.length][];
+			build(1, 0, xs.length);
+		}
+		
+		/**
+		 * builds node v for the points lo..hi-1 by merging the lists of its sons
+		 * complexity: O((hi-lo)*log(hi-lo))
+		 */
+		private void build(int v, int lo, int hi)
+		{
+			if(hi - lo == 1)
+			{
+				this.byY[v] = new int[] {lo};
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			build(2*v, lo, mid);
+			build(2*v+1, mid, hi);
+			int[] left = this.byY[2*v];
+			int[] right = this.byY[2*v+1];
+			int[] merged = new int[hi - lo];
+			int[] counts = new int[hi - lo + 1];
+			int i = 0;
+			int j = 0;
+			for (int k = 0; k < merged.length; k++)
+			{
+				if(j == right.length || (i < left.length && this.ys[left[i]] <= this.ys[right[j]])) //ties go left, so the order is stable
+				{
+					merged[k] = left[i++];
+				}
+				else
+				{
+					merged[k] = right[j++];
+				}
+				counts[k+1] = i;
+			}
+			this.byY[v] = merged;
+			this.fromLeft[v] = counts;
+		}
+		
+		private int size()
+		{
+			return this.xs.length;
+		}
+		
+		/**
+		 * returns the number of points of the layer in the rectangle,
+		 * and passes them to consumer if it is not null
+		 * complexity: O(log(n) + k), k is the number of points reported
+		 */
+		private int query(int x1, int x2, int y1, int y2, RangeTree2D tree, PointConsumer consumer)
+		{
+			int a = firstX(x1, false);
+			int b = firstX(x2, true);
+			if(a >= b)
+			{
+				return 0;
+			}
+			return query(1, 0, this.xs.length, a, b, firstY(y1, false), firstY(y2, true), tree, consumer);
+		}
+		
+		/**
+		 * the query below node v, which covers lo..hi-1. i1..i2-1 are the positions in byY[v]
+		 * of the points with y in [y1, y2]
+		 */
+		private int query(int v, int lo, int hi, int a, int b, int i1, int i2, RangeTree2D tree, PointConsumer consumer)
+		{
+			if(i1 >= i2 || b <= lo || hi <= a)
+			{
+				return 0;
+			}
+			if(a <= lo && hi <= b) //a canonical node, all its points with y in range are in the rectangle
+			{
+				if(consumer != null)
+				{
+					for (int j = i1; j < i2; j++)
+					{
+						int p = this.byY[v][j];
+						tree.emit(this.xs[p], this.ys[p], consumer);
+					}
+				}
+				return i2 - i1;
+			}
+			int mid = (lo + hi) >>> 1;
+			int[] counts = this.fromLeft[v];
+			return query(2*v, lo, mid, a, b, counts[i1], counts[i2], tree, consumer)
+					+ query(2*v+1, mid, hi, a, b, i1 - counts[i1], i2 - counts[i2], tree, consumer);
+		}
+		
+		/**
+		 * returns the index of the first point with x >= bound (x > bound if after is true)
+		 */
+		private int firstX(int bound, boolean after)
+		{
+			int lo = 0;
+			int hi = this.xs.length;
+			while(lo < hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				if(this.xs[mid] < bound || (after && this.xs[mid] == bound))
+				{
+					lo = mid + 1;
+				}
+				else
+				{
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+		
+		/**
+		 * returns the position in byY[1] of the first point with y >= bound (y > bound if after is true)
+		 */
+		private int firstY(int bound, boolean after)
+		{
+			int[] root = this.byY[1];
+			int lo = 0;
+			int hi = root.length;
+			while(lo < hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				int y = this.ys[root[mid]];
+				if(y < bound || (after && y == bound))
+				{
+					lo = mid + 1;
+				}
+				else
+				{
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+	}
+	
+	/**
+	 * Creates an empty set of points
+	 * complexity: O(1)
+	 */
+	public RangeTree2D()
+	{
+	}
+	
+	/**
+	 * returns a key of the point that sorts like (x, y)
+	 */
+	private static long pointKey(int x, int y)
+	{
+		return ((long) x << 32) | ((y ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * public int size()
+	 * returns the number of points
+	 * complexity: O(1)
+	 */
+	public int size()
+	{
+		return this.points.size();
+	}
+	
+	/**
+	 * public String search(int x, int y)
+	 * returns the info of the point (x, y), or null if it is not in the set
+	 * complexity: O(1) expected
+	 */
+	public String search(int x, int y)
+	{
+		return this.points.get(pointKey(x, y));
+	}
+	
+	/**
+	 * public boolean insert(int x, int y, String info)
+	 * adds the point (x, y) with info, returns false (and changes nothing) if it is already in the set
+	 * complexity: O(log(n)^2) amortized
+	 */
+	public boolean insert(int x, int y, String info)
+	{
+		long key = pointKey(x, y);
+		if(this.points.containsKey(key))
+		{
+			return false;
+		}
+		this.points.put(key, info);
+		add(this.live, x, y);
+		return true;
+	}
+	
+	/**
+	 * public boolean delete(int x, int y)
+	 * removes the point (x, y), returns false if it is not in the set
+	 * complexity: O(log(n)^2) amortized
+	 */
+	public boolean delete(int x, int y)
+	{
+		long key = pointKey(x, y);
+		if(!this.points.containsKey(key)) //the info of a point might be null
+		{
+			return false;
+		}
+		this.points.remove(key);
+		add(this.dead, x, y);
+		this.deadCount++;
+		if(this.deadCount > this.points.size())
+		{
+			rebuild();
+		}
+		return true;
+	}
+	
+	/**
+	 * public int count(int x1, int x2, int y1, int y2)
+	 * returns the number of points with x1 <= x <= x2 and y1 <= y <= y2
+	 * complexity: O(log(n)^2)
+	 */
+	public int count(int x1, int x2, int y1, int y2)
+	{
+		int count = 0;
+		for (int i = 0; i < LEVELS; i++)
+		{
+			if(this.live[i] != null)
+			{
+				count += this.live[i].query(x1, x2, y1, y2, this, null);
+			}
+			if(this.dead[i] != null)
+			{
+				count -= this.dead[i].query(x1, x2, y1, y2, this, null);
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * public int report(int x1, int x2, int y1, int y2, PointConsumer consumer)
+	 * passes the points with x1 <= x <= x2 and y1 <= y <= y2 to consumer, in no particular
+	 * order, and returns their number
+	 * complexity: O(log(n)^2 + k + d), k is the number of points reported and d the number
+	 * of deleted points in the rectangle (there are less deleted points than points)
+	 */
+	public int report(int x1, int x2, int y1, int y2, PointConsumer consumer)
+	{
+		this.reported = this.deadCount > 0 ? new HashSet<Long>() : null; //a point inserted again after its deletion is twice in the live trees
+		this.reportedCount = 0;
+		for (int i = 0; i < LEVELS; i++)
+		{
+			if(this.live[i] != null)
+			{
+				this.live[i].query(x1, x2, y1, y2, this, consumer);
+			}
+		}
+		this.reported = null;
+		return this.reportedCount;
+	}
+	
+	/**
+	 * passes the point (x, y) of a live tree to consumer if it was not deleted or already reported
+	 */
+	private void emit(int x, int y, PointConsumer consumer)
+	{
+		long key = pointKey(x, y);
+		String info = this.points.get(key);
+		if(info == null && !this.points.containsKey(key)) //deleted
+		{
+			return;
+		}
+		if(this.reported != null && !this.reported.add(key))
+		{
+			return;
+		}
+		this.reportedCount++;
+		consumer.accept(x, y, info);
+	}
+	
+	/**
+	 * adds the point (x, y) to the trees of levels: the trees of the smaller levels are merged
+	 * with it until a level that is free and large enough
+	 * complexity: O(log(n)^2) amortized
+	 */
+	private static void add(Layer[] levels, int x, int y)
+	{
+		int[] xs = {x};
+		int[] ys = {y};
+		int i = 0;
+		while(levels[i] != null || xs.length > (1L << i))
+		{
+			if(levels[i] != null)
+			{
+				int[][] merged = merge(xs, ys, levels[i].xs, levels[i].ys);
+				xs = merged[0];
+				ys = merged[1];
+				levels[i] = null;
+			}
+			i++;
+		}
+		levels[i] = new Layer(xs, ys);
+	}
+	
+	/**
+	 * returns the merge [xs, ys] of two lists of points sorted by x, then by y
+	 * complexity: O(length of the lists)
+	 */
+	private static int[][] merge(int[] xs1, int[] ys1, int[] xs2, int[] ys2)
+	{
+		int n = xs1.length + xs2.length;
+		int[] xs = new int[n];
+		int[] ys = new int[n];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < n; k++)
+		{
+			if(j == xs2.length || (i < xs1.length && pointKey(xs1[i], ys1[i]) <= pointKey(xs2[j], ys2[j])))
+			{
+				xs[k] = xs1[i];
+				ys[k] = ys1[i++];
+			}
+			else
+			{
+				xs[k] = xs2[j];
+				ys[k] = ys2[j++];
+			}
+		}
+		return new int[][] {xs, ys};
+	}
+	
+	/**
+	 * rebuilds the live trees from the current points as one tree, and drops the dead trees
+	 * complexity: O(n*log(n))
+	 */
+	private void rebuild()
+	{
+		Arrays.fill(this.live, null);
+		Arrays.fill(this.dead, null);
+		this.deadCount = 0;
+		if(this.points.isEmpty())
+		{
+			return;
+		}
+		long[] keys = new long[this.points.size()];
+		int n = 0;
+		for (long key : this.points.keySet())
+		{
+			keys[n++] = key;
+		}
+		Arrays.sort(keys);
+		int[] xs = new int[n];
+		int[] ys = new int[n];
+		for (int j = 0; j < n; j++)
+		{
+			xs[j] = (int) (keys[j] >> 32);
+			ys[j] = (int) keys[j] ^ Integer.MIN_VALUE;
+		}
+		int level = 0;
+		while((1L << level) < n)
+		{
+			level++;
+		}
+		this.live[level] = new Layer(xs, ys);
+	}
+}
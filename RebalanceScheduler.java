@@ -0,0 +1,49 @@
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * public class RebalanceScheduler
+ *
+ * Runs the deferred rebalancing of a relaxed tree (see AVLTree.setRelaxedBalance) in the
+ * background: every run settles at most budget recorded nodes with rebalanceStep, so
+ * the rotations are spread between the updates instead of being made by them.
+ * the scheduler synchronizes on the tree, so other threads that access the tree
+ * should synchronize on it as well.
+ */
+public class RebalanceScheduler implements Runnable {
+	private final AVLTree tree; //the tree to rebalance
+	private final int budget; //the number of recorded nodes a run settles at most
+	
+	/**
+	 * Creates a scheduler for tree that settles at most budget nodes in a run
+	 * complexity: O(1)
+	 */
+	public RebalanceScheduler(AVLTree tree, int budget)
+	{
+		this.tree = tree;
+		this.budget = budget;
+	}
+	
+	/**
+	 * settles at most budget recorded nodes of the tree once
+	 * complexity: O(budget*log(n))
+	 */
+	public void run()
+	{
+		synchronized(this.tree)
+		{
+			this.tree.rebalanceStep(this.budget);
+		}
+	}
+	
+	/**
+	 * schedules the scheduler to run periodically on executor, returns the scheduled task
+	 * (cancel it to stop the scheduler)
+	 * complexity: O(1)
+	 */
+	public ScheduledFuture<?> start(ScheduledExecutorService executor, long period, TimeUnit unit)
+	{
+		return executor.scheduleWithFixedDelay(this, period, period, unit);
+	}
+}
@@ -0,0 +1,335 @@
+/**
+ * public class Sequence
+ *
+ * A list of values kept in an AVL tree by position instead of by key: the position of
+ * a node is the size of everything on its left, so the sizes of the subtrees are the
+ * only keys (the keys of the nodes are not used). the nodes are AVLTree nodes, and every
+ * change is made with the join of AVLTree (joinNodes), which joins two subtrees and a node
+ * with O(1) rotations when the heights differ by at most 2, and O(difference) in general.
+ * so insertAt, removeAt and get are O(log(n)), and subList and concat move whole ranges
+ * with O(log(n)) splits and joins instead of copying them.
+ * every sequence has its own (empty) tree for its nodes and joins, and the operations keep
+ * their intermediate results in local variables, so different sequences can be used by
+ * different threads. a single sequence should be changed by one thread at a time.
+ */
+public class Sequence {
+	private final AVLTree nodes = new AVLTree(); //creates the nodes of the sequence and joins them, it stays empty
+	private AVLTree.AVLNode root; //a virtual node if the sequence is empty
+	
+	/**
+	 * Creates an empty sequence
+	 * complexity: O(1)
+	 */
+	public Sequence()
+	{
+		this.root = this.nodes.new AVLNode();
+	}
+	
+	private Sequence(AVLTree.AVLNode root)
+	{
+		this.root = root;
+	}
+	
+	/**
+	 * public static Sequence of(String... values)
+	 * returns a sequence of values, in their order
+	 * complexity: O(values.length)
+	 */
+	public static Sequence of(String... values)
+	{
+		Sequence sequence = new Sequence();
+		sequence.root = sequence.build(values, 0, values.length-1);
+		return sequence;
+	}
+	
+	/**
+	 * returns the root of a balanced subtree of values[from..to]
+	 * complexity: O(to-from)
+	 */
+	private AVLTree.AVLNode build(String[] values, int from, int to)
+	{
+		if(from > to)
+		{
+			return this.nodes.new AVLNode();
+		}
+		int mid = (from + to) >>> 1;
+		return this.nodes.new AVLNode(values[mid], 0, build(values, from, mid-1), build(values, mid+1, to), null); //the constructor sets the size and height
+	}
+	
+	/**
+	 * returns the root of the join of the subtrees left and right with node between them
+	 * complexity: O(|height(left) - height(right)| + 1)
+	 */
+	private AVLTree.AVLNode join(AVLTree.AVLNode left, AVLTree.AVLNode node, AVLTree.AVLNode right)
+	{
+		return this.nodes.joinNodes(left, node, right);
+	}
+	
+	/**
+	 * public boolean empty()
+	 * returns true if and only if the sequence is empty
+	 * complexity: O(1)
+	 */
+	public boolean empty()
+	{
+		return !this.root.isRealNode();
+	}
+	
+	/**
+	 * public int size()
+	 * returns the number of values in the sequence
+	 * complexity: O(1)
+	 */
+	public int size()
+	{
+		return this.root.getSize();
+	}
+	
+	/**
+	 * public String get(int index)
+	 * returns the value at index
+	 * throws IndexOutOfBoundsException unless 0 <= index < size()
+	 * complexity: O(log(n))
+	 */
+	public String get(int index)
+	{
+		return nodeAt(index).getValue();
+	}
+	
+	/**
+	 * public String set(int index, String value)
+	 * replaces the value at index with value, and returns the former value
+	 * throws IndexOutOfBoundsException unless 0 <= index < size()
+	 * complexity: O(log(n))
+	 */
+	public String set(int index, String value)
+	{
+		AVLTree.AVLNode node = nodeAt(index);
+		String old = node.getValue();
+		node.setValue(value);
+		return old;
+	}
+	
+	/**
+	 * returns the node at index
+	 * complexity: O(log(n))
+	 */
+	private AVLTree.AVLNode nodeAt(int index)
+	{
+		checkIndex(index, size() - 1);
+		AVLTree.AVLNode node = this.root;
+		while(index != node.left.getSize())
+		{
+			if(index < node.left.getSize())
+			{
+				node = node.left;
+			}
+			else
+			{
+				index -= node.left.getSize() + 1;
+				node = node.right;
+			}
+		}
+		return node;
+	}
+	
+	private static void checkIndex(int index, int last)
+	{
+		if(index < 0 || index > last)
+		{
+			throw new IndexOutOfBoundsException("index " + index + " is not in [0, " + last + "]");
+		}
+	}
+	
+	/**
+	 * public void add(String value)
+	 * adds value at the end of the sequence
+	 * complexity: O(log(n))
+	 */
+	public void add(String value)
+	{
+		insertAt(size(), value);
+	}
+	
+	/**
+	 * public void insertAt(int index, String value)
+	 * inserts value at index, the values from index on move one position up
+	 * throws IndexOutOfBoundsException unless 0 <= index <= size()
+	 * complexity: O(log(n))
+	 */
+	public void insertAt(int index, String value)
+	{
+		checkIndex(index, size());
+		this.root = insert(this.root, index, this.nodes.new AVLNode(value, 0, this.nodes.new AVLNode(), this.nodes.new AVLNode(), null));
+	}
+	
+	/**
+	 * returns the root of the subtree of node after node x is inserted at index in it
+	 * complexity: O(log(n))
+	 */
+	private AVLTree.AVLNode insert(AVLTree.AVLNode node, int index, AVLTree.AVLNode x)
+	{
+		if(!node.isRealNode())
+		{
+			return x;
+		}
+		int leftSize = node.left.getSize();
+		if(index <= leftSize)
+		{
+			return join(insert(node.left, index, x), node, node.right);
+		}
+		return join(node.left, node, insert(node.right, index - leftSize - 1, x));
+	}
+	
+	/**
+	 * public String removeAt(int index)
+	 * removes the value at index and returns it, the values after it move one position down
+	 * throws IndexOutOfBoundsException unless 0 <= index < size()
+	 * complexity: O(log(n))
+	 */
+	public String removeAt(int index)
+	{
+		checkIndex(index, size() - 1);
+		AVLTree.AVLNode[] removed = new AVLTree.AVLNode[1];
+		this.root = remove(this.root, index, removed);
+		return removed[0].getValue();
+	}
+	
+	/**
+	 * returns the root of the subtree of node after the node at index is removed from it
+	 * (the removed node is put in removed[0])
+	 * complexity: O(log(n))
+	 */
+	private AVLTree.AVLNode remove(AVLTree.AVLNode node, int index, AVLTree.AVLNode[] removed)
+	{
+		int leftSize = node.left.getSize();
+		if(index < leftSize)
+		{
+			return join(remove(node.left, index, removed), node, node.right);
+		}
+		if(index > leftSize)
+		{
+			return join(node.left, node, remove(node.right, index - leftSize - 1, removed));
+		}
+		removed[0] = node;
+		return concat(node.left, node.right);
+	}
+	
+	/**
+	 * public Sequence subList(int from, int to)
+	 * moves the values at from..to-1 out of the sequence into a new sequence, and returns it.
+	 * the values after them move to from.
+	 * throws IndexOutOfBoundsException unless 0 <= from <= to <= size()
+	 * complexity: O(log(n))
+	 */
+	public Sequence subList(int from, int to)
+	{
+		checkIndex(to, size());
+		checkIndex(from, to);
+		AVLTree.AVLNode[] parts = split(this.root, to);
+		AVLTree.AVLNode tail = parts[1];
+		parts = split(parts[0], from);
+		this.root = concat(parts[0], tail);
+		return new Sequence(parts[1]);
+	}
+	
+	/**
+	 * public void concat(Sequence other)
+	 * moves the values of other to the end of the sequence, other becomes empty
+	 * complexity: O(log(n))
+	 */
+	public void concat(Sequence other)
+	{
+		if(other == this)
+		{
+			throw new IllegalArgumentException("a sequence cannot be concatenated to itself");
+		}
+		this.root = concat(this.root, other.root);
+		other.root = other.nodes.new AVLNode();
+	}
+	
+	/**
+	 * public String[] toArray()
+	 * returns the values of the sequence in their order
+	 * complexity: O(n)
+	 */
+	public String[] toArray()
+	{
+		String[] values = new String[size()];
+		toArray(this.root, values, 0);
+		return values;
+	}
+	
+	private static int toArray(AVLTree.AVLNode node, String[] values, int i)
+	{
+		while(node.isRealNode())
+		{
+			i = toArray(node.left, values, i);
+			values[i++] = node.getValue();
+			node = node.right;
+		}
+		return i;
+	}
+	
+	/**
+	 * splits the subtree of node into its first index nodes and the others,
+	 * and returns the roots of the two parts
+	 * complexity: O(log(n))
+	 */
+	private AVLTree.AVLNode[] split(AVLTree.AVLNode node, int index)
+	{
+		if(!node.isRealNode())
+		{
+			return new AVLTree.AVLNode[] {node, this.nodes.new AVLNode()}; //the parts do not share the virtual node
+		}
+		int leftSize = node.left.getSize();
+		AVLTree.AVLNode left = node.left;
+		AVLTree.AVLNode right = node.right;
+		AVLTree.AVLNode[] parts;
+		if(index <= leftSize)
+		{
+			parts = split(left, index);
+			parts[1] = join(parts[1], node, right);
+		}
+		else
+		{
+			parts = split(right, index - leftSize - 1);
+			parts[0] = join(left, node, parts[0]);
+		}
+		return parts;
+	}
+	
+	/**
+	 * returns the root of the concatenation of the subtrees left and right,
+	 * with the first node of right as the separator
+	 * complexity: O(log(n))
+	 */
+	private AVLTree.AVLNode concat(AVLTree.AVLNode left, AVLTree.AVLNode right)
+	{
+		if(!right.isRealNode())
+		{
+			return left;
+		}
+		if(!left.isRealNode())
+		{
+			return right;
+		}
+		AVLTree.AVLNode[] first = new AVLTree.AVLNode[1];
+		AVLTree.AVLNode rest = removeFirst(right, first);
+		return join(left, first[0], rest);
+	}
+	
+	/**
+	 * returns the root of the subtree of node without its first node (which is put in first[0])
+	 * complexity: O(log(n))
+	 */
+	private AVLTree.AVLNode removeFirst(AVLTree.AVLNode node, AVLTree.AVLNode[] first)
+	{
+		if(!node.left.isRealNode())
+		{
+			first[0] = node;
+			return node.right;
+		}
+		return join(removeFirst(node.left, first), node, node.right);
+	}
+}
@@ -0,0 +1,440 @@
+import java.util.ArrayDeque;
+
+/**
+ * public class SplayTree
+ *
+ * A self adjusting binary search tree (Sleator and Tarjan) with the insert/delete/search/
+ * split/join operations of AVLTree. every access splays the accessed node to the root,
+ * so a key that is accessed often stays near the root: the amortized cost of an access
+ * is O(log(n)), and O(log(m/f)) for a key that makes f of m accesses.
+ * searches change the shape of the tree, so a splay tree is not safe for concurrent readers.
+ */
+public class SplayTree implements OrderedIndex {
+	Node root; //null if the tree is empty
+	
+	/**
+	 * A node of a splay tree, with the size of its subtree
+	 */
+	private static class Node {
+		private final int key;
+		private String info;
+		private Node left;
+		private Node right;
+		private Node parent;
+		private int size = 1;
+		
+		private Node(int key, String info)
+		{
+			this.key = key;
+			this.info = info;
+		}
+		
+		/**
+		 * updates the size of the node from the sizes of its sons
+		 * complexity: O(1)
+		 */
+		private void updateSize()
+		{
+			this.size = 1 + sizeOf(this.left) + sizeOf(this.right);
+		}
+	}
+	
+	/**
+	 * Creates an empty splay tree
+	 * complexity: O(1)
+	 */
+	public SplayTree()
+	{
+		this.root = null;
+	}
+	
+	/**
+	 * Creates a splay tree with the given root
+	 * complexity: O(1)
+	 */
+	private SplayTree(Node root)
+	{
+		this.root = root;
+		if(root != null)
+		{
+			root.parent = null;
+		}
+	}
+	
+	private static int sizeOf(Node node)
+	{
+		return node == null ? 0 : node.size;
+	}
+	
+	/**
+	 * rotates x above its parent, returns 1 (the number of rotations)
+	 * complexity: O(1)
+	 */
+	private int rotate(Node x)
+	{
+		Node y = x.parent;
+		Node z = y.parent;
+		if(y.left == x)
+		{
+			y.left = x.right;
+			if(x.right != null)
+			{
+				x.right.parent = y;
+			}
+			x.right = y;
+		}
+		else
+		{
+			y.right = x.left;
+			if(x.left != null)
+			{
+				x.left.parent = y;
+			}
+			x.left = y;
+		}
+		y.parent = x;
+		x.parent = z;
+		if(z == null)
+		{
+			this.root = x;
+		}
+		else if(z.left == y)
+		{
+			z.left = x;
+		}
+		else
+		{
+			z.right = x;
+		}
+		y.updateSize();
+		x.updateSize();
+		return 1;
+	}
+	
+	/**
+	 * moves x to the root by zig, zig-zig and zig-zag steps, returns the number of rotations
+	 * complexity: O(depth(x)), O(log(n)) amortized
+	 */
+	private int splay(Node x)
+	{
+		int rotations = 0;
+		while(x.parent != null)
+		{
+			Node y = x.parent;
+			Node z = y.parent;
+			if(z != null) //zig-zig rotates the parent first, zig-zag rotates x twice
+			{
+				rotations += ((z.left == y) == (y.left == x)) ? rotate(y) : rotate(x);
+			}
+			rotations += rotate(x);
+		}
+		return rotations;
+	}
+	
+	/**
+	 * returns the node with key k, or the last node a search of k visits if k is not in the tree
+	 * @pre the tree is not empty
+	 * complexity: O(depth(k))
+	 */
+	private Node find(int k)
+	{
+		Node node = this.root;
+		while(node.key != k)
+		{
+			Node next = k < node.key ? node.left : node.right;
+			if(next == null)
+			{
+				break;
+			}
+			node = next;
+		}
+		return node;
+	}
+	
+	/**
+	 * public boolean empty()
+	 * returns true if and only if the tree is empty
+	 * complexity: O(1)
+	 */
+	public boolean empty()
+	{
+		return this.root == null;
+	}
+	
+	/**
+	 * public int size()
+	 * returns the number of nodes in the tree
+	 * complexity: O(1)
+	 */
+	public int size()
+	{
+		return sizeOf(this.root);
+	}
+	
+	/**
+	 * public String search(int k)
+	 * returns the info of the item with key k, or null if k is not in the tree.
+	 * the last node the search visits is splayed to the root.
+	 * complexity: O(log(n)) amortized
+	 */
+	public String search(int k)
+	{
+		if(this.root == null)
+		{
+			return null;
+		}
+		splay(find(k));
+		return this.root.key == k ? this.root.info : null;
+	}
+	
+	/**
+	 * public int insert(int k, String i)
+	 * inserts an item with key k and info i, and makes it the root.
+	 * returns the number of rotations, or -1 if an item with key k already exists in the tree.
+	 * complexity: O(log(n)) amortized
+	 */
+	public int insert(int k, String i)
+	{
+		Node node = new Node(k, i);
+		if(this.root == null)
+		{
+			this.root = node;
+			return 0;
+		}
+		int rotations = splay(find(k));
+		Node r = this.root;
+		if(r.key == k)
+		{
+			return -1;
+		}
+		if(k < r.key) //r and its right subtree are bigger than k
+		{
+			node.left = r.left;
+			r.left = null;
+			node.right = r;
+		}
+		else
+		{
+			node.right = r.right;
+			r.right = null;
+			node.left = r;
+		}
+		if(node.left != null)
+		{
+			node.left.parent = node;
+		}
+		if(node.right != null)
+		{
+			node.right.parent = node;
+		}
+		r.updateSize();
+		node.updateSize();
+		this.root = node;
+		return rotations;
+	}
+	
+	/**
+	 * public int delete(int k)
+	 * deletes the item with key k from the tree, and joins its two subtrees.
+	 * returns the number of rotations, or -1 if k is not in the tree.
+	 * complexity: O(log(n)) amortized
+	 */
+	public int delete(int k)
+	{
+		if(this.root == null)
+		{
+			return -1;
+		}
+		int rotations = splay(find(k));
+		if(this.root.key != k)
+		{
+			return -1;
+		}
+		Node left = this.root.left;
+		Node right = this.root.right;
+		if(left == null)
+		{
+			this.root = right;
+			if(right != null)
+			{
+				right.parent = null;
+			}
+			return rotations;
+		}
+		left.parent = null;
+		this.root = left;
+		rotations += splay(find(k)); //the maximum of left, which has no right son after the splay
+		this.root.right = right;
+		if(right != null)
+		{
+			right.parent = this.root;
+		}
+		this.root.updateSize();
+		return rotations;
+	}
+	
+	/**
+	 * public String min()
+	 * returns the info of the item with the smallest key, or null if the tree is empty
+	 * complexity: O(log(n)) amortized
+	 */
+	public String min()
+	{
+		if(this.root == null)
+		{
+			return null;
+		}
+		splay(find(Integer.MIN_VALUE));
+		return this.root.info;
+	}
+	
+	/**
+	 * public String max()
+	 * returns the info of the item with the largest key, or null if the tree is empty
+	 * complexity: O(log(n)) amortized
+	 */
+	public String max()
+	{
+		if(this.root == null)
+		{
+			return null;
+		}
+		splay(find(Integer.MAX_VALUE));
+		return this.root.info;
+	}
+	
+	/**
+	 * public int[] keysToArray()
+	 * returns a sorted array of the keys of the tree, without changing its shape
+	 * complexity: O(n)
+	 */
+	public int[] keysToArray()
+	{
+		int[] keys = new int[size()];
+		toArrays(keys, null);
+		return keys;
+	}
+	
+	/**
+	 * public String[] infoToArray()
+	 * returns an array of the infos of the tree, sorted by their keys, without changing its shape
+	 * complexity: O(n)
+	 */
+	public String[] infoToArray()
+	{
+		String[] infos = new String[size()];
+		toArrays(null, infos);
+		return infos;
+	}
+	
+	/**
+	 * fills keys and infos (either may be null) by an in-order walk with an explicit stack
+	 * complexity: O(n)
+	 */
+	private void toArrays(int[] keys, String[] infos)
+	{
+		ArrayDeque<Node> stack = new ArrayDeque<>();
+		Node node = this.root;
+		int i = 0;
+		while(node != null || !stack.isEmpty())
+		{
+			while(node != null)
+			{
+				stack.push(node);
+				node = node.left;
+			}
+			node = stack.pop();
+			if(keys != null)
+			{
+				keys[i] = node.key;
+			}
+			if(infos != null)
+			{
+				infos[i] = node.info;
+			}
+			i++;
+			node = node.right;
+		}
+	}
+	
+	/**
+	 * public int depth(int k)
+	 * returns the number of nodes a search of k visits now (the root has depth 1),
+	 * without splaying
+	 * complexity: O(depth(k))
+	 */
+	public int depth(int k)
+	{
+		int depth = 0;
+		Node node = this.root;
+		while(node != null)
+		{
+			depth++;
+			if(node.key == k)
+			{
+				break;
+			}
+			node = k < node.key ? node.left : node.right;
+		}
+		return depth;
+	}
+	
+	/**
+	 * public SplayTree[] split(int x)
+	 * splits the tree into [t1, t2] with keys(t1) < x < keys(t2). the item with key x is
+	 * not in either of them. this tree should not be used after the split.
+	 * @pre search(x) != null
+	 * complexity: O(log(n)) amortized
+	 */
+	public SplayTree[] split(int x)
+	{
+		splay(find(x));
+		SplayTree[] trees = {new SplayTree(this.root.left), new SplayTree(this.root.right)};
+		this.root = null;
+		return trees;
+	}
+	
+	/**
+	 * public int join(AVLTree.IAVLNode x, SplayTree t)
+	 * joins the tree with x and t into this tree, with x as the root.
+	 * t should not be used after the join.
+	 * returns 1, the cost of the join.
+	 * @pre keys(t) < x.key < keys(this) or keys(t) > x.key > keys(this)
+	 * complexity: O(1)
+	 */
+	public int join(AVLTree.IAVLNode x, SplayTree t)
+	{
+		Node node = new Node(x.getKey(), x.getValue());
+		Node other = t.root;
+		t.root = null;
+		boolean thisSmaller = (this.root != null && this.root.key < node.key) || (other != null && other.key > node.key);
+		node.left = thisSmaller ? this.root : other;
+		node.right = thisSmaller ? other : this.root;
+		if(node.left != null)
+		{
+			node.left.parent = node;
+		}
+		if(node.right != null)
+		{
+			node.right.parent = node;
+		}
+		node.updateSize();
+		this.root = node;
+		return 1;
+	}
+	
+	/**
+	 * public int join(AVLTree.IAVLNode x, OrderedIndex t)
+	 * joins like join(x, (SplayTree) t), for the callers that hold the engine as an OrderedIndex.
+	 * throws IllegalArgumentException if t is not a SplayTree
+	 * complexity: O(1)
+	 */
+	public int join(AVLTree.IAVLNode x, OrderedIndex t)
+	{
+		if(!(t instanceof SplayTree))
+		{
+			throw new IllegalArgumentException("a SplayTree joins only a SplayTree");
+		}
+		return join(x, (SplayTree) t);
+	}
+}
@@ -0,0 +1,673 @@
+/**
+ * public class TopDownTree
+ *
+ * An AVL tree without parent pointers, with the size of every subtree.
+ * a node keeps a balance factor (height(right) - height(left)) instead of a height.
+ * insert descends once, adding 1 to the sizes on the way down, and remembers the deepest
+ * node whose balance factor is not 0 (Knuth's algorithm A): only the path below that node
+ * changes its balance factors, and at most one rotation is made there, so no walk back up
+ * is needed. delete descends once as well, keeping the path in a stack of MAX_HEIGHT nodes,
+ * which is walked back only as far as the subtree heights change.
+ * split and join need the heights of the subtrees they cut and hang: the height of the
+ * root is found by one walk down the taller sons, and the heights below follow from it
+ * and the balance factors on the way down.
+ * the stack belongs to the tree, so a tree should be modified by one thread at a time.
+ */
+public class TopDownTree implements OrderedIndex {
+	private static final int MAX_HEIGHT = 48; //an AVL tree of less than 2^31 nodes is at most 45 high
+	Node root; //null if the tree is empty
+	private final Node[] path = new Node[MAX_HEIGHT]; //the ancestors of the deleted node
+	private final int[] dirs = new int[MAX_HEIGHT]; //the direction taken at every ancestor, -1 (left) or 1 (right)
+	
+	/**
+	 * A node of a top down tree
+	 */
+	private static final class Node {
+		private int key;
+		private String info;
+		private Node left;
+		private Node right;
+		private int size = 1; //number of nodes in the subtree
+		private byte balance; //height(right) - height(left), -1, 0 or 1
+		
+		private Node(int key, String info)
+		{
+			this.key = key;
+			this.info = info;
+		}
+		
+		private Node child(int dir)
+		{
+			return dir < 0 ? this.left : this.right;
+		}
+		
+		private void setChild(int dir, Node child)
+		{
+			if(dir < 0)
+			{
+				this.left = child;
+			}
+			else
+			{
+				this.right = child;
+			}
+		}
+		
+		private void updateSize()
+		{
+			this.size = 1 + sizeOf(this.left) + sizeOf(this.right);
+		}
+	}
+	
+	/**
+	 * Creates an empty tree
+	 * complexity: O(1)
+	 */
+	public TopDownTree()
+	{
+	}
+	
+	private static int sizeOf(Node node)
+	{
+		return node == null ? 0 : node.size;
+	}
+	
+	/**
+	 * public boolean empty()
+	 * returns true if and only if the tree is empty
+	 * complexity: O(1)
+	 */
+	public boolean empty()
+	{
+		return this.root == null;
+	}
+	
+	/**
+	 * public int size()
+	 * returns the number of nodes in the tree
+	 * complexity: O(1)
+	 */
+	public int size()
+	{
+		return sizeOf(this.root);
+	}
+	
+	/**
+	 * public String search(int k)
+	 * returns the info of the item with key k, or null if k is not in the tree
+	 * complexity: O(log(n))
+	 */
+	public String search(int k)
+	{
+		Node node = this.root;
+		while(node != null && node.key != k)
+		{
+			node = k < node.key ? node.left : node.right;
+		}
+		return node == null ? null : node.info;
+	}
+	
+	/**
+	 * public int depth(int k)
+	 * returns the number of nodes a search of k visits
+	 * complexity: O(log(n))
+	 */
+	public int depth(int k)
+	{
+		int depth = 0;
+		Node node = this.root;
+		while(node != null)
+		{
+			depth++;
+			if(node.key == k)
+			{
+				break;
+			}
+			node = k < node.key ? node.left : node.right;
+		}
+		return depth;
+	}
+	
+	/**
+	 * public String min()
+	 * returns the info of the item with the smallest key, or null if the tree is empty
+	 * complexity: O(log(n))
+	 */
+	public String min()
+	{
+		Node node = this.root;
+		while(node != null && node.left != null)
+		{
+			node = node.left;
+		}
+		return node == null ? null : node.info;
+	}
+	
+	/**
+	 * public String max()
+	 * returns the info of the item with the largest key, or null if the tree is empty
+	 * complexity: O(log(n))
+	 */
+	public String max()
+	{
+		Node node = this.root;
+		while(node != null && node.right != null)
+		{
+			node = node.right;
+		}
+		return node == null ? null : node.info;
+	}
+	
+	/**
+	 * public int insert(int k, String i)
+	 * inserts an item with key k and info i to the tree in one pass down.
+	 * returns the number of rotations (0, 1 or 2), or -1 if an item with key k already exists.
+	 * complexity: O(log(n))
+	 */
+	public int insert(int k, String i)
+	{
+		if(this.root == null)
+		{
+			this.root = new Node(k, i);
+			return 0;
+		}
+		Node parentOfTop = null; //the parent of top
+		Node top = this.root; //the deepest node on the path with balance != 0, or the root
+		Node node = this.root;
+		while(true)
+		{
+			if(node.key == k)
+			{
+				undoSizes(k); //the sizes on the path were counted for a new node
+				return -1;
+			}
+			node.size++;
+			int dir = k < node.key ? -1 : 1;
+			Node next = node.child(dir);
+			if(next == null)
+			{
+				node.setChild(dir, new Node(k, i));
+				break;
+			}
+			if(next.balance != 0)
+			{
+				parentOfTop = node;
+				top = next;
+			}
+			node = next;
+		}
+		for (Node n = top.child(k < top.key ? -1 : 1); n.key != k; n = n.child(n.balance)) //the nodes below top were balanced, now they lean towards k
+		{
+			n.balance = (byte) (k < n.key ? -1 : 1);
+		}
+		int a = k < top.key ? -1 : 1; //the side of top that grew
+		if(top.balance == 0)
+		{
+			top.balance = (byte) a;
+			return 0;
+		}
+		if(top.balance == -a)
+		{
+			top.balance = 0;
+			return 0;
+		}
+		int rotations = top.child(a).balance == a ? 1 : 2;
+		Node subtree = rotations == 1 ? rotateSingle(top, a) : rotateDouble(top, a);
+		if(rotations == 1)
+		{
+			top.balance = 0;
+			subtree.balance = 0;
+		}
+		replaceChild(parentOfTop, top, subtree);
+		return rotations;
+	}
+	
+	/**
+	 * subtracts 1 from the sizes of the path from the root to k, after a failed insert
+	 * complexity: O(log(n))
+	 */
+	private void undoSizes(int k)
+	{
+		for (Node node = this.root; node.key != k; node = k < node.key ? node.left : node.right)
+		{
+			node.size--;
+		}
+	}
+	
+	/**
+	 * public int delete(int k)
+	 * deletes the item with key k from the tree in one pass down, and rebalances the path
+	 * from the stack as far as the heights change.
+	 * returns the number of rotations, or -1 if k is not in the tree.
+	 * complexity: O(log(n))
+	 */
+	public int delete(int k)
+	{
+		int depth = 0;
+		Node node = this.root;
+		while(node != null && node.key != k)
+		{
+			node.size--;
+			this.path[depth] = node;
+			this.dirs[depth++] = k < node.key ? -1 : 1;
+			node = k < node.key ? node.left : node.right;
+		}
+		if(node == null) //k is not in the tree, restore the sizes
+		{
+			for (int j = 0; j < depth; j++)
+			{
+				this.path[j].size++;
+				this.path[j] = null;
+			}
+			return -1;
+		}
+		if(node.left != null && node.right != null) //move the successor's item here, and delete the successor
+		{
+			Node target = node;
+			node.size--;
+			this.path[depth] = node;
+			this.dirs[depth++] = 1;
+			node = node.right;
+			while(node.left != null)
+			{
+				node.size--;
+				this.path[depth] = node;
+				this.dirs[depth++] = -1;
+				node = node.left;
+			}
+			target.key = node.key;
+			target.info = node.info;
+		}
+		Node child = node.left != null ? node.left : node.right;
+		if(depth == 0)
+		{
+			this.root = child;
+			return 0;
+		}
+		this.path[depth-1].setChild(this.dirs[depth-1], child);
+		int rotations = 0;
+		for (int j = depth - 1; j >= 0; j--) //the subtree of path[j] in direction dirs[j] got shorter
+		{
+			Node n = this.path[j];
+			int dir = this.dirs[j];
+			this.path[j] = null;
+			if(n.balance == 0) //the height of n does not change
+			{
+				n.balance = (byte) -dir;
+				clearPath(j);
+				break;
+			}
+			if(n.balance == dir) //n got shorter, continue up
+			{
+				n.balance = 0;
+				continue;
+			}
+			int a = -dir; //the taller side of n is now 2 higher
+			Node r = n.child(a);
+			Node subtree;
+			boolean shorter = true;
+			if(r.balance == 0)
+			{
+				subtree = rotateSingle(n, a);
+				n.balance = (byte) a;
+				r.balance = (byte) -a;
+				shorter = false;
+				rotations++;
+			}
+			else if(r.balance == a)
+			{
+				subtree = rotateSingle(n, a);
+				n.balance = 0;
+				r.balance = 0;
+				rotations++;
+			}
+			else
+			{
+				subtree = rotateDouble(n, a);
+				rotations += 2;
+			}
+			replaceChild(j == 0 ? null : this.path[j-1], n, subtree);
+			if(!shorter)
+			{
+				clearPath(j);
+				break;
+			}
+		}
+		return rotations;
+	}
+	
+	/**
+	 * drops the references of the stack below index j
+	 * complexity: O(j)
+	 */
+	private void clearPath(int j)
+	{
+		while(j > 0)
+		{
+			this.path[--j] = null;
+		}
+	}
+	
+	/**
+	 * puts subtree in the place of the son old of parent (or of the root if parent is null)
+	 * complexity: O(1)
+	 */
+	private void replaceChild(Node parent, Node old, Node subtree)
+	{
+		if(parent == null)
+		{
+			this.root = subtree;
+		}
+		else if(parent.left == old)
+		{
+			parent.left = subtree;
+		}
+		else
+		{
+			parent.right = subtree;
+		}
+	}
+	
+	/**
+	 * rotates the son of s in direction a above s, and returns it (the balance factors
+	 * are set by the caller)
+	 * complexity: O(1)
+	 */
+	private static Node rotateSingle(Node s, int a)
+	{
+		Node r = s.child(a);
+		s.setChild(a, r.child(-a));
+		r.setChild(-a, s);
+		s.updateSize();
+		r.updateSize();
+		return r;
+	}
+	
+	/**
+	 * rotates the inner grandson of s in direction a above s and its parent, sets the
+	 * balance factors of the three nodes, and returns the grandson
+	 * complexity: O(1)
+	 */
+	private static Node rotateDouble(Node s, int a)
+	{
+		Node r = s.child(a);
+		Node p = r.child(-a);
+		r.setChild(-a, p.child(a));
+		p.setChild(a, r);
+		s.setChild(a, p.child(-a));
+		p.setChild(-a, s);
+		s.balance = (byte) (p.balance == a ? -a : 0);
+		r.balance = (byte) (p.balance == -a ? a : 0);
+		p.balance = 0;
+		s.updateSize();
+		r.updateSize();
+		p.updateSize();
+		return p;
+	}
+	
+	/**
+	 * returns the height of the subtree of node (-1 if it is null) by walking down its taller sons
+	 * complexity: O(height(node))
+	 */
+	private static int height(Node node)
+	{
+		int height = -1;
+		while(node != null)
+		{
+			height++;
+			node = node.balance < 0 ? node.left : node.right;
+		}
+		return height;
+	}
+	
+	/**
+	 * public TopDownTree[] split(int x)
+	 * splits the tree into [t1, t2] with keys(t1) < x < keys(t2). the item with key x is
+	 * not in either of them. this tree is empty after the split.
+	 * @pre search(x) != null
+	 * complexity: O(log(n))
+	 */
+	public TopDownTree[] split(int x)
+	{
+		int[] heights = new int[2];
+		Node[] parts = cut(this.root, height(this.root), x, heights);
+		this.root = null;
+		TopDownTree[] trees = {new TopDownTree(), new TopDownTree()};
+		trees[0].root = parts[0];
+		trees[1].root = parts[1];
+		return trees;
+	}
+	
+	/**
+	 * splits the subtree of node, of height h, into the subtrees of the keys smaller than x
+	 * and the keys bigger than x, and puts their heights in heights: the parts of the son
+	 * that contains x are linked with the other son on the way back up, by the node itself
+	 * @pre x is in the subtree of node
+	 * complexity: O(h)
+	 */
+	private static Node[] cut(Node node, int h, int x, int[] heights)
+	{
+		int leftHeight = h - 1 - (node.balance > 0 ? 1 : 0);
+		int rightHeight = h - 1 - (node.balance < 0 ? 1 : 0);
+		Node left = node.left;
+		Node right = node.right;
+		if(x == node.key)
+		{
+			heights[0] = leftHeight;
+			heights[1] = rightHeight;
+			return new Node[] {left, right};
+		}
+		if(x < node.key)
+		{
+			Node[] parts = cut(left, leftHeight, x, heights);
+			parts[1] = link(parts[1], heights[1], node, right, rightHeight, heights, 1);
+			return parts;
+		}
+		Node[] parts = cut(right, rightHeight, x, heights);
+		parts[0] = link(left, leftHeight, node, parts[0], heights[0], heights, 0);
+		return parts;
+	}
+	
+	/**
+	 * public int join(AVLTree.IAVLNode x, TopDownTree t)
+	 * joins the tree with x and t into this tree. t is empty after the join.
+	 * returns the difference between the heights of the trees + 1.
+	 * @pre keys(t) < x.key < keys(this) or keys(t) > x.key > keys(this)
+	 * complexity: O(log(n))
+	 */
+	public int join(AVLTree.IAVLNode x, TopDownTree t)
+	{
+		Node node = new Node(x.getKey(), x.getValue());
+		Node other = t.root;
+		t.root = null;
+		boolean thisSmaller = (this.root != null && this.root.key < node.key) || (other != null && other.key > node.key);
+		Node a = thisSmaller ? this.root : other;
+		Node b = thisSmaller ? other : this.root;
+		int aHeight = height(a);
+		int bHeight = height(b);
+		this.root = link(a, aHeight, node, b, bHeight, new int[1], 0);
+		return Math.abs(aHeight - bHeight) + 1;
+	}
+	
+	/**
+	 * public int join(AVLTree.IAVLNode x, OrderedIndex t)
+	 * joins like join(x, (TopDownTree) t), for the callers that hold the engine as an OrderedIndex.
+	 * throws IllegalArgumentException if t is not a TopDownTree
+	 * complexity: O(log(n))
+	 */
+	public int join(AVLTree.IAVLNode x, OrderedIndex t)
+	{
+		if(!(t instanceof TopDownTree))
+		{
+			throw new IllegalArgumentException("a TopDownTree joins only a TopDownTree");
+		}
+		return join(x, (TopDownTree) t);
+	}
+	
+	/**
+	 * returns the root of an AVL tree of the subtree a, x and the subtree b (either may be null),
+	 * of heights aHeight and bHeight, by hanging the lower one with x on the border of the
+	 * higher one, at its height. the height of the result is put in heights[slot]
+	 * @pre keys(a) < x.key < keys(b)
+	 * complexity: O(|aHeight - bHeight| + 1)
+	 */
+	private static Node link(Node a, int aHeight, Node x, Node b, int bHeight, int[] heights, int slot)
+	{
+		if(aHeight > bHeight + 1)
+		{
+			int leftHeight = aHeight - 1 - (a.balance > 0 ? 1 : 0);
+			a.right = link(a.right, aHeight - 1 - (a.balance < 0 ? 1 : 0), x, b, bHeight, heights, slot);
+			return fix(a, leftHeight, heights[slot], heights, slot);
+		}
+		if(bHeight > aHeight + 1)
+		{
+			int rightHeight = bHeight - 1 - (b.balance < 0 ? 1 : 0);
+			b.left = link(a, aHeight, x, b.left, bHeight - 1 - (b.balance > 0 ? 1 : 0), heights, slot);
+			return fix(b, heights[slot], rightHeight, heights, slot);
+		}
+		x.left = a;
+		x.right = b;
+		return fix(x, aHeight, bHeight, heights, slot);
+	}
+	
+	/**
+	 * sets the balance factor and the size of n, whose sons have the heights leftHeight and
+	 * rightHeight (at most 2 apart), rotates it if they are 2 apart, and returns the root
+	 * of the subtree. its height is put in heights[slot]
+	 * complexity: O(1)
+	 */
+	private static Node fix(Node n, int leftHeight, int rightHeight, int[] heights, int slot)
+	{
+		int diff = rightHeight - leftHeight;
+		int tall = Math.max(leftHeight, rightHeight);
+		if(Math.abs(diff) <= 1)
+		{
+			n.balance = (byte) diff;
+			n.updateSize();
+			heights[slot] = tall + 1;
+			return n;
+		}
+		int a = diff > 0 ? 1 : -1; //the side of n that is 2 higher
+		Node r = n.child(a);
+		heights[slot] = tall;
+		if(r.balance == 0)
+		{
+			Node subtree = rotateSingle(n, a);
+			n.balance = (byte) a;
+			r.balance = (byte) -a;
+			heights[slot] = tall + 1;
+			return subtree;
+		}
+		if(r.balance == a)
+		{
+			Node subtree = rotateSingle(n, a);
+			n.balance = 0;
+			r.balance = 0;
+			return subtree;
+		}
+		return rotateDouble(n, a);
+	}
+	
+	/**
+	 * public int rank(int k)
+	 * returns the number of items in the tree with keys smaller than k
+	 * complexity: O(log(n))
+	 */
+	public int rank(int k)
+	{
+		int rank = 0;
+		Node node = this.root;
+		while(node != null)
+		{
+			if(k <= node.key)
+			{
+				node = node.left;
+			}
+			else
+			{
+				rank += sizeOf(node.left) + 1;
+				node = node.right;
+			}
+		}
+		return rank;
+	}
+	
+	/**
+	 * public int select(int i)
+	 * returns the key of the i'th smallest item in the tree
+	 * @pre 1 <= i <= size()
+	 * complexity: O(log(n))
+	 */
+	public int select(int i)
+	{
+		Node node = this.root;
+		while(i != sizeOf(node.left) + 1)
+		{
+			if(i <= sizeOf(node.left))
+			{
+				node = node.left;
+			}
+			else
+			{
+				i -= sizeOf(node.left) + 1;
+				node = node.right;
+			}
+		}
+		return node.key;
+	}
+	
+	/**
+	 * public int[] keysToArray()
+	 * returns a sorted array of the keys of the tree
+	 * complexity: O(n)
+	 */
+	public int[] keysToArray()
+	{
+		int[] keys = new int[size()];
+		toArrays(keys, null);
+		return keys;
+	}
+	
+	/**
+	 * public String[] infoToArray()
+	 * returns an array of the infos of the tree, sorted by their keys
+	 * complexity: O(n)
+	 */
+	public String[] infoToArray()
+	{
+		String[] infos = new String[size()];
+		toArrays(null, infos);
+		return infos;
+	}
+	
+	/**
+	 * fills keys and infos (either may be null) by an in-order walk with a stack of MAX_HEIGHT nodes
+	 * complexity: O(n)
+	 */
+	private void toArrays(int[] keys, String[] infos)
+	{
+		Node[] stack = new Node[MAX_HEIGHT];
+		int top = 0;
+		int i = 0;
+		Node node = this.root;
+		while(node != null || top > 0)
+		{
+			while(node != null)
+			{
+				stack[top++] = node;
+				node = node.left;
+			}
+			node = stack[--top];
+			if(keys != null)
+			{
+				keys[i] = node.key;
+			}
+			if(infos != null)
+			{
+				infos[i] = node.info;
+			}
+			i++;
+			node = node.right;
+		}
+	}
+}
@@ -0,0 +1,269 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * public class Trace
+ *
+ * A recording of the calls made to a tree (see AVLTree.setTrace): the operation, the key,
+ * the time since the previous call and the duration of every call. the keys of joined
+ * trees are recorded with their join, the values are not recorded at all.
+ * the binary form written by writeTo keeps the keys as differences from the previous key
+ * and all the numbers as variable length integers, so a record takes a few bytes.
+ */
+public class Trace {
+	public static final byte LOAD = 0; //a key that was in the tree when the recording started
+	public static final byte INSERT = 1;
+	public static final byte DELETE = 2;
+	public static final byte SEARCH = 3;
+	public static final byte SPLIT = 4;
+	public static final byte JOIN = 5;
+	static final String[] NAMES = {"load", "insert", "delete", "search", "split", "join"};
+	private static final int TRACE_MAGIC = 0x41565431; //"AVT1", the header of the writeTo format
+	byte[] ops = new byte[1024];
+	int[] keys = new int[1024];
+	private long[] gaps = new long[1024]; //nanoseconds since the start of the previous call
+	private long[] durations = new long[1024]; //nanoseconds the call took
+	final ArrayList<int[]> joined = new ArrayList<int[]>(); //the keys of the joined trees, by the order of the joins
+	int n; //number of records
+	private long lastStart; //the start of the previous call, 0 if there is none
+	private final ThreadLocal<long[]> searches = ThreadLocal.withInitial(() -> new long[3]); //per thread: the key of its last search, its start, and 1 if no record took it yet
+	
+	/**
+	 * Creates an empty trace
+	 * complexity: O(1)
+	 */
+	public Trace()
+	{
+	}
+	
+	/**
+	 * adds a record of a call of op with key that ran from start to end (in System.nanoTime())
+	 * complexity: O(1) amortized
+	 */
+	synchronized void record(byte op, int key, long start, long end)
+	{
+		if(this.n == this.ops.length)
+		{
+			int capacity = 2 * this.n;
+			this.ops = Arrays.copyOf(this.ops, capacity);
+			this.keys = Arrays.copyOf(this.keys, capacity);
+			this.gaps = Arrays.copyOf(this.gaps, capacity);
+			this.durations = Arrays.copyOf(this.durations, capacity);
+		}
+		this.ops[this.n] = op;
+		this.keys[this.n] = key;
+		if(op != LOAD)
+		{
+			this.gaps[this.n] = this.lastStart == 0 ? 0 : start - this.lastStart;
+			this.durations[this.n] = end - start;
+			this.lastStart = start;
+		}
+		this.n++;
+	}
+	
+	/**
+	 * marks the start of a search of key by the current thread, so the call that the
+	 * search is a part of is timed from it (see started)
+	 * complexity: O(1)
+	 */
+	void searching(int key)
+	{
+		long[] search = this.searches.get();
+		search[0] = key;
+		search[1] = System.nanoTime();
+		search[2] = 1;
+	}
+	
+	/**
+	 * returns the start of the call of the current thread that reached key: the start of its
+	 * last search if that was a search of key that no record took yet, else now.
+	 * the state is kept per thread, so concurrent callers do not take each other's searches.
+	 * complexity: O(1)
+	 */
+	long started(int key)
+	{
+		long[] search = this.searches.get();
+		if(search[2] == 1 && search[0] == key)
+		{
+			search[2] = 0;
+			return search[1];
+		}
+		return System.nanoTime();
+	}
+	
+	/**
+	 * adds a record of a join with key as the separator and the keys joined
+	 * complexity: O(1) amortized
+	 */
+	synchronized void recordJoin(int key, int[] joined, long start, long end)
+	{
+		this.joined.add(joined);
+		record(JOIN, key, start, end);
+	}
+	
+	/**
+	 * public int size()
+	 * returns the number of records in the trace
+	 * complexity: O(1)
+	 */
+	public synchronized int size()
+	{
+		return this.n;
+	}
+	
+	/**
+	 * public long recordedNanos(byte op)
+	 * returns the total duration of the recorded calls of op
+	 * complexity: O(size())
+	 */
+	public synchronized long recordedNanos(byte op)
+	{
+		long total = 0;
+		for (int j = 0; j < this.n; j++)
+		{
+			if(this.ops[j] == op)
+			{
+				total += this.durations[j];
+			}
+		}
+		return total;
+	}
+	
+	/**
+	 * public void writeTo(WritableByteChannel channel)
+	 * writes the trace to channel. the channel is not closed.
+	 * complexity: O(size() + number of joined keys)
+	 */
+	public synchronized void writeTo(WritableByteChannel channel) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+		out.writeInt(TRACE_MAGIC);
+		out.writeInt(this.n);
+		int previous = 0;
+		int join = 0;
+		for (int j = 0; j < this.n; j++)
+		{
+			out.writeByte(this.ops[j]);
+			writeVarLong(out, zigzag((long) this.keys[j] - previous));
+			previous = this.keys[j];
+			if(this.ops[j] == LOAD)
+			{
+				continue;
+			}
+			writeVarLong(out, this.gaps[j]);
+			writeVarLong(out, this.durations[j]);
+			if(this.ops[j] == JOIN)
+			{
+				int[] keys = this.joined.get(join++);
+				writeVarLong(out, keys.length);
+				int last = 0;
+				for (int k : keys)
+				{
+					writeVarLong(out, zigzag((long) k - last));
+					last = k;
+				}
+			}
+		}
+		out.flush();
+	}
+	
+	/**
+	 * public static Trace readFrom(ReadableByteChannel channel)
+	 * reads a trace written by writeTo from channel.
+	 * throws IOException if the data is not a trace or one of its counts is illegal.
+	 * complexity: O(size() + number of joined keys)
+	 */
+	public static Trace readFrom(ReadableByteChannel channel) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+		if(in.readInt() != TRACE_MAGIC)
+		{
+			throw new IOException("not a trace");
+		}
+		int n = in.readInt();
+		Trace trace = new Trace();
+		int previous = 0;
+		for (int j = 0; j < n; j++)
+		{
+			byte op = in.readByte();
+			if(op < LOAD || op > JOIN)
+			{
+				throw new IOException("unknown operation " + op);
+			}
+			previous = (int) (previous + unzigzag(readVarLong(in)));
+			if(op == LOAD)
+			{
+				trace.record(op, previous, 0, 0);
+				continue;
+			}
+			long gap = readVarLong(in);
+			long duration = readVarLong(in);
+			if(op == JOIN)
+			{
+				long joinedCount = readVarLong(in);
+				if(joinedCount < 0 || joinedCount > Integer.MAX_VALUE)
+				{
+					throw new IOException("illegal number of joined keys " + joinedCount);
+				}
+				int[] keys = new int[(int) joinedCount];
+				int last = 0;
+				for (int q = 0; q < keys.length; q++)
+				{
+					last = (int) (last + unzigzag(readVarLong(in)));
+					keys[q] = last;
+				}
+				trace.joined.add(keys);
+			}
+			trace.record(op, previous, 0, duration);
+			trace.gaps[j] = gap;
+		}
+		return trace;
+	}
+	
+	private static long zigzag(long v)
+	{
+		return (v << 1) ^ (v >> 63);
+	}
+	
+	private static long unzigzag(long v)
+	{
+		return (v >>> 1) ^ -(v & 1);
+	}
+	
+	/**
+	 * writes v (as an unsigned number) 7 bits at a time, the high bit of a byte marks that more follow
+	 * complexity: O(1)
+	 */
+	private static void writeVarLong(DataOutputStream out, long v) throws IOException
+	{
+		while((v & ~0x7FL) != 0)
+		{
+			out.writeByte((int) (v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+	
+	private static long readVarLong(DataInputStream in) throws IOException
+	{
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			int b = in.readUnsignedByte();
+			v |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0)
+			{
+				return v;
+			}
+		}
+		throw new IOException("malformed number");
+	}
+}
@@ -0,0 +1,358 @@
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+/**
+ * public class TraceReplay
+ *
+ * Replays a trace against an index engine and measures it: the throughput, the latency
+ * histogram of every operation and the bytes allocated by the replaying threads.
+ * the LOAD records are inserted, and the trees joined by the JOIN records are built, before
+ * the measurement, so neither is counted in the time or the allocated bytes. inserts use an empty value.
+ * with several threads the records are dealt to the threads in turn, every thread
+ * replays its records in order while holding the lock of the index, and splits and
+ * joins are skipped, since their preconditions depend on the exact order.
+ * a split is replayed as a split followed by joining the parts back, so the replay can
+ * go on with the same index, and only the split call is timed (not the search for its
+ * value before it or the join after it).
+ */
+public class TraceReplay {
+	
+	/**
+	 * the measurements of a replay
+	 */
+	public static final class Result {
+		public final long ops; //number of replayed calls
+		public final long skipped; //number of calls that were not replayed
+		public final long nanos; //wall time of the replay
+		public final long allocatedBytes; //bytes allocated by the replaying threads, -1 if it is unknown
+		public final LatencyHistogram[] latencies; //by operation, indexed by the Trace constants
+		
+		Result(long ops, long skipped, long nanos, long allocatedBytes, LatencyHistogram[] latencies)
+		{
+			this.ops = ops;
+			this.skipped = skipped;
+			this.nanos = nanos;
+			this.allocatedBytes = allocatedBytes;
+			this.latencies = latencies;
+		}
+		
+		public double opsPerSecond()
+		{
+			return this.nanos == 0 ? 0 : this.ops * 1e9 / this.nanos;
+		}
+		
+		public String toString()
+		{
+			StringBuilder text = new StringBuilder(String.format("ops=%d skipped=%d ops/s=%.0f allocated=%d bytes (%.1f bytes/op)",
+					this.ops, this.skipped, opsPerSecond(), this.allocatedBytes, this.ops == 0 ? 0.0 : (double) this.allocatedBytes / this.ops));
+			for (int op = Trace.INSERT; op <= Trace.JOIN; op++)
+			{
+				if(this.latencies[op].count() > 0)
+				{
+					text.append('\n').append(Trace.NAMES[op]).append(": ").append(this.latencies[op]);
+				}
+			}
+			return text.toString();
+		}
+	}
+	
+	/**
+	 * public static Result run(Trace trace, Supplier<? extends OrderedIndex> factory, int threads)
+	 * replays trace on a new index of factory with the given number of threads.
+	 * with more than one thread every call takes the lock of the index and the splits and
+	 * joins are skipped (counted in Result.skipped). a split is timed without the join that
+	 * puts the index back together.
+	 * complexity: O(the cost of the calls of the trace)
+	 */
+	public static Result run(Trace trace, Supplier<? extends OrderedIndex> factory, int threads)
+	{
+		OrderedIndex index = factory.get();
+		synchronized(trace)
+		{
+			for (int j = 0; j < trace.n; j++)
+			{
+				if(trace.ops[j] == Trace.LOAD)
+				{
+					index.insert(trace.keys[j], "");
+				}
+			}
+		}
+		Worker[] workers = new Worker[threads];
+		int[] joinIndex = joinIndexes(trace);
+		for (int t = 0; t < threads; t++)
+		{
+			workers[t] = new Worker(trace, joinIndex, index, factory, t, threads);
+			workers[t].prepare();
+		}
+		long start = System.nanoTime();
+		if(threads == 1)
+		{
+			workers[0].run();
+		}
+		else
+		{
+			Thread[] running = new Thread[threads];
+			for (int t = 0; t < threads; t++)
+			{
+				running[t] = new Thread(workers[t], "trace-replay-" + t);
+				running[t].start();
+			}
+			for (Thread thread : running)
+			{
+				try
+				{
+					thread.join();
+				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("the replay was interrupted", e);
+				}
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		LatencyHistogram[] latencies = new LatencyHistogram[Trace.NAMES.length];
+		long ops = 0;
+		long skipped = 0;
+		long allocated = 0;
+		for (int op = 0; op < latencies.length; op++)
+		{
+			latencies[op] = new LatencyHistogram();
+		}
+		for (Worker worker : workers)
+		{
+			for (int op = 0; op < latencies.length; op++)
+			{
+				latencies[op].add(worker.latencies[op]);
+			}
+			ops += worker.ops;
+			skipped += worker.skipped;
+			allocated = (allocated < 0 || worker.allocated < 0) ? -1 : allocated + worker.allocated;
+		}
+		return new Result(ops, skipped, nanos, allocated, latencies);
+	}
+	
+	/**
+	 * returns for every JOIN record the index of its keys in trace.joined
+	 * complexity: O(size of trace)
+	 */
+	private static int[] joinIndexes(Trace trace)
+	{
+		synchronized(trace)
+		{
+			int[] joinIndex = new int[trace.n];
+			int join = 0;
+			for (int j = 0; j < trace.n; j++)
+			{
+				joinIndex[j] = trace.ops[j] == Trace.JOIN ? join++ : -1;
+			}
+			return joinIndex;
+		}
+	}
+	
+	/**
+	 * returns the number of bytes the current thread allocated so far, or -1 if the JVM does not tell
+	 * complexity: O(1)
+	 */
+	private static long allocatedBytes()
+	{
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean)
+		{
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+	
+	/**
+	 * replays the records t, t + threads, t + 2*threads, ... of a trace
+	 */
+	private static final class Worker implements Runnable {
+		private final Trace trace;
+		private final int[] joinIndex;
+		private final OrderedIndex index;
+		private final Supplier<? extends OrderedIndex> factory;
+		private OrderedIndex[] others; //the trees of the joins, by the order of the joins, built by prepare
+		private final int first;
+		private final int step;
+		private final LatencyHistogram[] latencies = new LatencyHistogram[Trace.NAMES.length];
+		private long ops;
+		private long skipped;
+		private long allocated;
+		
+		Worker(Trace trace, int[] joinIndex, OrderedIndex index, Supplier<? extends OrderedIndex> factory, int first, int step)
+		{
+			this.trace = trace;
+			this.joinIndex = joinIndex;
+			this.index = index;
+			this.factory = factory;
+			this.first = first;
+			this.step = step;
+			for (int op = 0; op < this.latencies.length; op++)
+			{
+				this.latencies[op] = new LatencyHistogram();
+			}
+		}
+		
+		/**
+		 * builds the trees of the JOIN records before the replay, so they are not measured
+		 */
+		void prepare()
+		{
+			synchronized(this.trace)
+			{
+				this.others = new OrderedIndex[this.trace.joined.size()];
+				if(this.step > 1) //the joins are skipped
+				{
+					return;
+				}
+				for (int j = this.first; j < this.joinIndex.length; j += this.step)
+				{
+					if(this.trace.ops[j] == Trace.JOIN)
+					{
+						this.others[this.joinIndex[j]] = build(this.trace.joined.get(this.joinIndex[j]));
+					}
+				}
+			}
+		}
+		
+		public void run()
+		{
+			long allocatedBefore = allocatedBytes();
+			for (int j = this.first; j < this.joinIndex.length; j += this.step)
+			{
+				byte op = this.trace.ops[j];
+				int key = this.trace.keys[j];
+				if(op == Trace.LOAD)
+				{
+					continue;
+				}
+				if((op == Trace.SPLIT || op == Trace.JOIN) && this.step > 1)
+				{
+					this.skipped++;
+					continue;
+				}
+				long nanos;
+				if(op == Trace.SPLIT) //only the split call is timed
+				{
+					synchronized(this.index)
+					{
+						nanos = splitAndRejoin(key);
+					}
+				}
+				else
+				{
+					OrderedIndex other = null;
+					if(op == Trace.JOIN)
+					{
+						other = this.others[this.joinIndex[j]];
+						this.others[this.joinIndex[j]] = null; //the index takes its nodes
+					}
+					long start = System.nanoTime();
+					synchronized(this.index)
+					{
+						apply(op, key, other);
+					}
+					nanos = System.nanoTime() - start;
+				}
+				if(nanos >= 0)
+				{
+					this.latencies[op].record(nanos);
+					this.ops++;
+				}
+				else
+				{
+					this.skipped++;
+				}
+			}
+			long allocatedAfter = allocatedBytes();
+			this.allocated = allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore;
+		}
+		
+		/**
+		 * returns a new index of the factory with the given keys
+		 */
+		private OrderedIndex build(int[] keys)
+		{
+			OrderedIndex other = this.factory.get();
+			for (int k : keys)
+			{
+				other.insert(k, "");
+			}
+			return other;
+		}
+		
+		/**
+		 * makes the call op(key) on the index for an INSERT, DELETE, SEARCH or JOIN (joining other)
+		 */
+		private void apply(byte op, int key, OrderedIndex other)
+		{
+			switch(op)
+			{
+				case Trace.INSERT:
+					this.index.insert(key, "");
+					break;
+				case Trace.DELETE:
+					this.index.delete(key);
+					break;
+				case Trace.SEARCH:
+					this.index.search(key);
+					break;
+				default:
+					this.index.join(separator(this.index, key, ""), other);
+			}
+		}
+		
+		/**
+		 * splits the index at key and joins the parts back,
+		 * returns the nanoseconds of the split call, or -1 if key is not in the index
+		 */
+		private long splitAndRejoin(int key)
+		{
+			String info = this.index.search(key);
+			if(info == null) //split needs the key in the index
+			{
+				return -1;
+			}
+			long start = System.nanoTime();
+			OrderedIndex[] parts = this.index.split(key);
+			long nanos = System.nanoTime() - start;
+			parts[0].join(separator(parts[0], key, info), parts[1]);
+			restore(parts[0]);
+			return nanos;
+		}
+		
+		/**
+		 * makes the index hold the items of whole, a tree of its engine, after a split
+		 */
+		private void restore(OrderedIndex whole)
+		{
+			if(this.index instanceof AVLTree)
+			{
+				((AVLTree) this.index).become((AVLTree) whole);
+			}
+			else if(this.index instanceof SplayTree)
+			{
+				((SplayTree) this.index).root = ((SplayTree) whole).root;
+			}
+			else if(this.index instanceof WideTree)
+			{
+				((WideTree) this.index).root = ((WideTree) whole).root;
+			}
+			else
+			{
+				((TopDownTree) this.index).root = ((TopDownTree) whole).root;
+			}
+		}
+		
+		/**
+		 * returns a separator node with key and info for a join into index: a node of index if
+		 * it is an AVLTree, which takes the node itself, and otherwise a node that is only read
+		 */
+		private static AVLTree.IAVLNode separator(OrderedIndex index, int key, String info)
+		{
+			AVLTree tree = index instanceof AVLTree ? (AVLTree) index : new AVLTree();
+			return tree.new AVLNode(info, key, tree.new AVLNode(), tree.new AVLNode(), null);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * public class TtlEvictor
+ *
+ * Applies a time-to-live policy to a tree whose keys are timestamps:
+ * every run evicts the items with keys older than clock() - ttl with evictBelow,
+ * so the cost of an expiry does not depend on the number of expired items.
+ * the evicted trees are handed to the reclaimer (if there is one) outside the lock.
+ * the evictor synchronizes on the tree, so other threads that access the tree
+ * should synchronize on it as well.
+ */
+public class TtlEvictor implements Runnable {
+	private final AVLTree tree; //the tree to evict from
+	private final int ttl; //how old (in key units) an item may be before it is evicted
+	private final IntSupplier clock; //returns the current time, in key units
+	private final Consumer<AVLTree> reclaimer; //receives the evicted trees, may be null
+	
+	/**
+	 * Creates an evictor for tree with the given ttl, clock and reclaimer
+	 * complexity: O(1)
+	 */
+	public TtlEvictor(AVLTree tree, int ttl, IntSupplier clock, Consumer<AVLTree> reclaimer)
+	{
+		this.tree = tree;
+		this.ttl = ttl;
+		this.clock = clock;
+		this.reclaimer = reclaimer;
+	}
+	
+	/**
+	 * evicts the expired items of the tree once
+	 * complexity: O(log(n))
+	 */
+	public void run()
+	{
+		long bound = (long) this.clock.getAsInt() - this.ttl;
+		if(bound <= Integer.MIN_VALUE) //nothing can be older than bound
+		{
+			return;
+		}
+		AVLTree evicted;
+		synchronized(this.tree)
+		{
+			evicted = this.tree.evictBelow((int) bound);
+		}
+		if(this.reclaimer != null && !evicted.empty())
+		{
+			this.reclaimer.accept(evicted);
+		}
+	}
+	
+	/**
+	 * schedules the evictor to run periodically on executor, returns the scheduled task
+	 * (cancel it to stop the evictor)
+	 * complexity: O(1)
+	 */
+	public ScheduledFuture<?> start(ScheduledExecutorService executor, long period, TimeUnit unit)
+	{
+		return executor.scheduleAtFixedRate(this, period, period, unit);
+	}
+}
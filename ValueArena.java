@@ -0,0 +1,127 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * public class ValueArena
+ *
+ * Append-only storage of values as UTF-8 bytes in large shared chunks, so a value costs
+ * its bytes plus a length prefix, instead of a String object and its array.
+ * a value is referenced by an int: the index of its chunk and its offset in the chunk.
+ * values are decoded to a String by get, and the last values decoded are cached, so
+ * repeated reads of a hot value do not decode it again.
+ * the arena is thread safe: add is synchronized, get takes no lock.
+ * the arena only grows: a value that is replaced or deleted keeps its bytes, until the
+ * tree copies its live values to a new arena (see AVLTree.compactValueArena), so the
+ * arena holds at most the bytes of all the values ever added to it.
+ */
+public class ValueArena {
+	private static final int CHUNK_BITS = 20; //a chunk is 1MB, so an offset takes 20 bits of a reference
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CACHE_SIZE = 256; //the number of decoded values kept, a power of 2
+	private volatile byte[][] chunks = new byte[0][]; //replaced by a longer copy when a chunk is added, so get can read it without the lock
+	private int used = CHUNK_SIZE; //the number of bytes used in the last chunk (no chunk yet)
+	private long bytes; //the number of bytes allocated for chunks
+	private long valueBytes; //the number of bytes taken by the values, with their length prefixes
+	private final Decoded[] cache = new Decoded[CACHE_SIZE]; //the last value decoded in every slot, by its reference
+	
+	/**
+	 * A decoded value with its reference. it is immutable, so the cache can be read and
+	 * written without a lock: a reader sees either a whole entry or an older one.
+	 */
+	private static final class Decoded {
+		private final int ref;
+		private final String value;
+		
+		private Decoded(int ref, String value)
+		{
+			this.ref = ref;
+			this.value = value;
+		}
+	}
+	
+	/**
+	 * stores s in the arena and returns its reference
+	 * complexity: O(length of s)
+	 */
+	public synchronized int add(String s)
+	{
+		byte[] value = s.getBytes(StandardCharsets.UTF_8);
+		int length = value.length + 5; //the length prefix takes at most 5 bytes
+		if(this.used + length > CHUNK_SIZE) //start a new chunk, a large value gets a chunk of its own
+		{
+			if(this.chunks.length == (1 << (31 - CHUNK_BITS)))
+			{
+				throw new IllegalStateException("the value arena is full");
+			}
+			byte[][] chunks = Arrays.copyOf(this.chunks, this.chunks.length + 1);
+			chunks[chunks.length-1] = new byte[Math.max(CHUNK_SIZE, length)];
+			this.bytes += chunks[chunks.length-1].length;
+			this.used = 0;
+			this.chunks = chunks;
+		}
+		byte[] chunk = this.chunks[this.chunks.length-1];
+		int ref = ((this.chunks.length-1) << CHUNK_BITS) | this.used;
+		int start = this.used;
+		int n = value.length;
+		while(n >= 0x80) //length prefix, 7 bits per byte
+		{
+			chunk[this.used++] = (byte) (n | 0x80);
+			n >>>= 7;
+		}
+		chunk[this.used++] = (byte) n;
+		System.arraycopy(value, 0, chunk, this.used, value.length);
+		this.used += value.length;
+		this.valueBytes += this.used - start;
+		return ref;
+	}
+	
+	/**
+	 * Returns the value with reference ref, from the cache if it was decoded lately.
+	 * the reference should reach the caller through the structure that keeps it (a tree
+	 * node), so its bytes are visible to the caller.
+	 * @pre ref was returned by add
+	 * complexity: O(1) for a cached value, O(length of the value) otherwise
+	 */
+	public String get(int ref)
+	{
+		int slot = (ref ^ (ref >>> 16)) & (CACHE_SIZE - 1);
+		Decoded cached = this.cache[slot];
+		if(cached != null && cached.ref == ref)
+		{
+			return cached.value;
+		}
+		byte[] chunk = this.chunks[ref >>> CHUNK_BITS];
+		int offset = ref & (CHUNK_SIZE - 1);
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do
+		{
+			b = chunk[offset++];
+			length |= (b & 0x7F) << shift;
+			shift += 7;
+		}
+		while((b & 0x80) != 0);
+		String value = new String(chunk, offset, length, StandardCharsets.UTF_8);
+		this.cache[slot] = new Decoded(ref, value);
+		return value;
+	}
+	
+	/**
+	 * Returns the number of bytes the arena allocated
+	 * complexity: O(1)
+	 */
+	public synchronized long bytes()
+	{
+		return this.bytes;
+	}
+	
+	/**
+	 * Returns the number of bytes taken by the values that were added, with their length prefixes
+	 * complexity: O(1)
+	 */
+	public synchronized long valueBytes()
+	{
+		return this.valueBytes;
+	}
+}
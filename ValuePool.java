@@ -0,0 +1,59 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * public class ValuePool
+ *
+ * A dictionary of values: every distinct value gets an int id and a single canonical instance.
+ * trees that use the pool keep the canonical instance in their nodes, so a value that repeats
+ * in many nodes (and in many trees) takes the memory of one String.
+ * the pool is thread safe, and only grows.
+ */
+public class ValuePool {
+	private final HashMap<String, Integer> ids = new HashMap<String, Integer>(); //value -> id
+	private final ArrayList<String> values = new ArrayList<String>(); //id -> canonical value
+	
+	/**
+	 * Returns the canonical instance of s, adding s to the pool if it is new
+	 * complexity: O(1) expected
+	 */
+	public synchronized String intern(String s)
+	{
+		return this.values.get(id(s));
+	}
+	
+	/**
+	 * Returns the id of s, adding s to the pool if it is new
+	 * complexity: O(1) expected
+	 */
+	public synchronized int id(String s)
+	{
+		Integer id = this.ids.get(s);
+		if(id == null)
+		{
+			id = this.values.size();
+			this.ids.put(s, id);
+			this.values.add(s);
+		}
+		return id;
+	}
+	
+	/**
+	 * Returns the value with the given id
+	 * @pre 0 <= id < size()
+	 * complexity: O(1)
+	 */
+	public synchronized String value(int id)
+	{
+		return this.values.get(id);
+	}
+	
+	/**
+	 * Returns the number of distinct values in the pool
+	 * complexity: O(1)
+	 */
+	public synchronized int size()
+	{
+		return this.values.size();
+	}
+}
@@ -0,0 +1,770 @@
+/**
+ * public class WideTree
+ *
+ * A B+ tree of int keys with the operations of AVLTree, including split, join and rank/select.
+ * a node keeps up to WIDTH sorted keys in an array (the leaves keep the items, an inner node
+ * keeps the minimal key of every son), so a search makes one cache miss per level instead of
+ * one per binary node: about 5 levels for 10^7 keys against the 24 levels of an AVL tree.
+ * the position inside a node is found by a scan without branches on the keys, which the
+ * JIT compiles to compare and add instructions.
+ * every node except the root has at least WIDTH/2 keys, and every node keeps the number of
+ * items in its subtree.
+ */
+public class WideTree implements OrderedIndex {
+	private static final int WIDTH = 32; //the maximal number of keys in a node
+	private static final int HALF = WIDTH / 2; //the minimal number of keys in a node that is not the root
+	Node root = new Node(0); //an empty leaf if the tree is empty
+	private boolean changed; //set by the recursive insert and delete if they changed the tree
+	private int rebalanceNum; //number of node splits, merges and moves of the last operation
+	
+	/**
+	 * A node of a wide tree. a leaf (height 0) keeps keys and infos, an inner node keeps
+	 * its sons and the minimal key of every son. the arrays have room for one extra entry,
+	 * so a node may overflow before it is split.
+	 */
+	private static final class Node {
+		private final int height;
+		private int n; //number of keys
+		private int size; //number of items in the subtree
+		private final int[] keys = new int[WIDTH + 1];
+		private final String[] infos;
+		private final Node[] children;
+		
+		private Node(int height)
+		{
+			this.height = height;
+			this.infos = height == 0 ? new String[WIDTH + 1] : null;
+			this.children = height == 0 ? null : new Node[WIDTH + 1];
+		}
+		
+		/**
+		 * recomputes the size of the node from its keys or its sons
+		 * complexity: O(WIDTH)
+		 */
+		private void recount()
+		{
+			if(this.height == 0)
+			{
+				this.size = this.n;
+				return;
+			}
+			this.size = 0;
+			for (int j = 0; j < this.n; j++)
+			{
+				this.size += this.children[j].size;
+			}
+		}
+	}
+	
+	/**
+	 * Creates an empty wide tree
+	 * complexity: O(1)
+	 */
+	public WideTree()
+	{
+	}
+	
+	/**
+	 * returns the number of keys[j] < k with from <= j < n, without branches on the keys
+	 * complexity: O(n)
+	 */
+	private static int countLess(int[] keys, int from, int n, int k)
+	{
+		int count = 0;
+		for (int j = from; j < n; j++)
+		{
+			count += (int) (((long) keys[j] - k) >>> 63); //1 if keys[j] - k is negative
+		}
+		return count;
+	}
+	
+	/**
+	 * returns the index of the son of the inner node whose subtree may contain k:
+	 * the number of sons after the first one whose minimal key is at most k
+	 * complexity: O(WIDTH)
+	 */
+	private static int childIndex(Node node, int k)
+	{
+		int count = 0;
+		for (int j = 1; j < node.n; j++)
+		{
+			count += (int) ((((long) k - node.keys[j]) >>> 63) ^ 1); //1 if k - keys[j] is not negative
+		}
+		return count;
+	}
+	
+	/**
+	 * public boolean empty()
+	 * returns true if and only if the tree is empty
+	 * complexity: O(1)
+	 */
+	public boolean empty()
+	{
+		return this.root.size == 0;
+	}
+	
+	/**
+	 * public int size()
+	 * returns the number of items in the tree
+	 * complexity: O(1)
+	 */
+	public int size()
+	{
+		return this.root.size;
+	}
+	
+	/**
+	 * public String search(int k)
+	 * returns the info of the item with key k, or null if k is not in the tree
+	 * complexity: O(log(n))
+	 */
+	public String search(int k)
+	{
+		Node node = this.root;
+		while(node.height > 0)
+		{
+			node = node.children[childIndex(node, k)];
+		}
+		int j = countLess(node.keys, 0, node.n, k);
+		return j < node.n && node.keys[j] == k ? node.infos[j] : null;
+	}
+	
+	/**
+	 * public int depth(int k)
+	 * returns the number of nodes a search of k visits
+	 * complexity: O(1)
+	 */
+	public int depth(int k)
+	{
+		return this.root.height + 1;
+	}
+	
+	/**
+	 * public String min()
+	 * returns the info of the item with the smallest key, or null if the tree is empty
+	 * complexity: O(log(n))
+	 */
+	public String min()
+	{
+		Node node = this.root;
+		while(node.height > 0)
+		{
+			node = node.children[0];
+		}
+		return node.n == 0 ? null : node.infos[0];
+	}
+	
+	/**
+	 * public String max()
+	 * returns the info of the item with the largest key, or null if the tree is empty
+	 * complexity: O(log(n))
+	 */
+	public String max()
+	{
+		Node node = this.root;
+		while(node.height > 0)
+		{
+			node = node.children[node.n - 1];
+		}
+		return node.n == 0 ? null : node.infos[node.n - 1];
+	}
+	
+	/**
+	 * public int insert(int k, String i)
+	 * inserts an item with key k and info i to the tree.
+	 * returns the number of node splits, or -1 if an item with key k already exists in the tree.
+	 * complexity: O(WIDTH * log(n))
+	 */
+	public int insert(int k, String i)
+	{
+		this.changed = false;
+		this.rebalanceNum = 0;
+		Node sibling = insert(this.root, k, i);
+		if(sibling != null) //the root was split
+		{
+			this.root = newRoot(this.root, sibling);
+		}
+		return this.changed ? this.rebalanceNum : -1;
+	}
+	
+	/**
+	 * inserts k and i to the subtree of node, returns the new right sibling of node
+	 * if node was split, otherwise null
+	 * complexity: O(WIDTH * height(node))
+	 */
+	private Node insert(Node node, int k, String i)
+	{
+		if(node.height == 0)
+		{
+			int j = countLess(node.keys, 0, node.n, k);
+			if(j < node.n && node.keys[j] == k)
+			{
+				return null;
+			}
+			System.arraycopy(node.keys, j, node.keys, j + 1, node.n - j);
+			System.arraycopy(node.infos, j, node.infos, j + 1, node.n - j);
+			node.keys[j] = k;
+			node.infos[j] = i;
+			node.n++;
+			node.size++;
+			this.changed = true;
+		}
+		else
+		{
+			int j = childIndex(node, k);
+			Node sibling = insert(node.children[j], k, i);
+			if(!this.changed)
+			{
+				return null;
+			}
+			node.size++;
+			node.keys[j] = node.children[j].keys[0];
+			if(sibling != null)
+			{
+				insertChild(node, j + 1, sibling);
+			}
+		}
+		return node.n > WIDTH ? splitNode(node) : null;
+	}
+	
+	/**
+	 * public int delete(int k)
+	 * deletes the item with key k from the tree.
+	 * returns the number of node merges and moves, or -1 if k is not in the tree.
+	 * complexity: O(WIDTH * log(n))
+	 */
+	public int delete(int k)
+	{
+		this.changed = false;
+		this.rebalanceNum = 0;
+		delete(this.root, k);
+		if(this.root.height > 0 && this.root.n == 1) //the root lost a son
+		{
+			this.root = this.root.children[0];
+		}
+		return this.changed ? this.rebalanceNum : -1;
+	}
+	
+	/**
+	 * deletes k from the subtree of node, and merges or refills the son that lost a key
+	 * if it has less than HALF keys
+	 * complexity: O(WIDTH * height(node))
+	 */
+	private void delete(Node node, int k)
+	{
+		if(node.height == 0)
+		{
+			int j = countLess(node.keys, 0, node.n, k);
+			if(j == node.n || node.keys[j] != k)
+			{
+				return;
+			}
+			System.arraycopy(node.keys, j + 1, node.keys, j, node.n - j - 1);
+			System.arraycopy(node.infos, j + 1, node.infos, j, node.n - j - 1);
+			node.n--;
+			node.infos[node.n] = null;
+			node.size--;
+			this.changed = true;
+			return;
+		}
+		int j = childIndex(node, k);
+		delete(node.children[j], k);
+		if(!this.changed)
+		{
+			return;
+		}
+		node.size--;
+		node.keys[j] = node.children[j].keys[0];
+		if(node.children[j].n < HALF)
+		{
+			fixChild(node, j);
+		}
+	}
+	
+	/**
+	 * merges the son j of node with a neighbour, or moves keys between them so both
+	 * have at least HALF keys
+	 * @pre node has at least 2 sons
+	 * complexity: O(WIDTH)
+	 */
+	private void fixChild(Node node, int j)
+	{
+		int l = j > 0 ? j - 1 : j;
+		Node a = node.children[l];
+		Node b = node.children[l + 1];
+		if(a.n + b.n <= WIDTH)
+		{
+			move(b, 0, a, a.n, b.n);
+			removeChild(node, l + 1);
+		}
+		else
+		{
+			balance(a, b);
+			node.keys[l + 1] = b.keys[0];
+		}
+		node.keys[l] = a.keys[0];
+		this.rebalanceNum++;
+	}
+	
+	/**
+	 * moves keys between the neighbours a and b (a is on the left) so they have the same
+	 * number of keys, up to one
+	 * complexity: O(WIDTH)
+	 */
+	private static void balance(Node a, Node b)
+	{
+		int target = (a.n + b.n) / 2; //the number of keys a keeps
+		if(a.n > target)
+		{
+			int count = a.n - target;
+			shift(b, count);
+			move(a, target, b, 0, count);
+		}
+		else if(a.n < target)
+		{
+			int count = target - a.n;
+			move(b, 0, a, a.n, count);
+			shift(b, -count);
+			b.recount();
+		}
+	}
+	
+	/**
+	 * copies count entries of src from index from to dst at index to (the entries of dst
+	 * there are overwritten), and removes them from src if they are its last ones
+	 * complexity: O(count)
+	 */
+	private static void move(Node src, int from, Node dst, int to, int count)
+	{
+		System.arraycopy(src.keys, from, dst.keys, to, count);
+		if(src.height == 0)
+		{
+			System.arraycopy(src.infos, from, dst.infos, to, count);
+		}
+		else
+		{
+			System.arraycopy(src.children, from, dst.children, to, count);
+		}
+		dst.n = Math.max(dst.n, to + count);
+		if(from + count == src.n)
+		{
+			clear(src, from, src.n);
+			src.n = from;
+		}
+		src.recount();
+		dst.recount();
+	}
+	
+	/**
+	 * shifts the entries of node by count places (to the right if count > 0,
+	 * otherwise its first -count entries are dropped), without updating its size
+	 * complexity: O(WIDTH)
+	 */
+	private static void shift(Node node, int count)
+	{
+		int from = Math.max(0, -count);
+		System.arraycopy(node.keys, from, node.keys, from + count, node.n - from);
+		if(node.height == 0)
+		{
+			System.arraycopy(node.infos, from, node.infos, from + count, node.n - from);
+		}
+		else
+		{
+			System.arraycopy(node.children, from, node.children, from + count, node.n - from);
+		}
+		int n = node.n + count;
+		if(count < 0)
+		{
+			clear(node, n, node.n);
+		}
+		node.n = n;
+	}
+	
+	/**
+	 * drops the references of the entries from..to-1 of node
+	 * complexity: O(to - from)
+	 */
+	private static void clear(Node node, int from, int to)
+	{
+		for (int j = from; j < to; j++)
+		{
+			if(node.height == 0)
+			{
+				node.infos[j] = null;
+			}
+			else
+			{
+				node.children[j] = null;
+			}
+		}
+	}
+	
+	/**
+	 * splits a node with WIDTH+1 keys, returns the new right half
+	 * complexity: O(WIDTH)
+	 */
+	private Node splitNode(Node node)
+	{
+		Node right = new Node(node.height);
+		move(node, node.n / 2, right, 0, node.n - node.n / 2);
+		this.rebalanceNum++;
+		return right;
+	}
+	
+	/**
+	 * inserts child to the inner node at index j, and adds its size to the node
+	 * complexity: O(WIDTH)
+	 */
+	private static void insertChild(Node node, int j, Node child)
+	{
+		System.arraycopy(node.keys, j, node.keys, j + 1, node.n - j);
+		System.arraycopy(node.children, j, node.children, j + 1, node.n - j);
+		node.keys[j] = child.keys[0];
+		node.children[j] = child;
+		node.n++;
+	}
+	
+	/**
+	 * removes the son j of the inner node (without changing its size)
+	 * complexity: O(WIDTH)
+	 */
+	private static void removeChild(Node node, int j)
+	{
+		System.arraycopy(node.keys, j + 1, node.keys, j, node.n - j - 1);
+		System.arraycopy(node.children, j + 1, node.children, j, node.n - j - 1);
+		node.n--;
+		node.children[node.n] = null;
+	}
+	
+	/**
+	 * returns a new root with the sons a and b
+	 * complexity: O(1)
+	 */
+	private static Node newRoot(Node a, Node b)
+	{
+		Node root = new Node(a.height + 1);
+		root.keys[0] = a.keys[0];
+		root.keys[1] = b.keys[0];
+		root.children[0] = a;
+		root.children[1] = b;
+		root.n = 2;
+		root.size = a.size + b.size;
+		return root;
+	}
+	
+	/**
+	 * public int rank(int k)
+	 * returns the number of items in the tree with keys smaller than k
+	 * complexity: O(WIDTH * log(n))
+	 */
+	public int rank(int k)
+	{
+		int rank = 0;
+		Node node = this.root;
+		while(node.height > 0)
+		{
+			int j = childIndex(node, k);
+			for (int c = 0; c < j; c++)
+			{
+				rank += node.children[c].size;
+			}
+			node = node.children[j];
+		}
+		return rank + countLess(node.keys, 0, node.n, k);
+	}
+	
+	/**
+	 * public int select(int i)
+	 * returns the key of the i'th smallest item in the tree
+	 * @pre 1 <= i <= size()
+	 * complexity: O(WIDTH * log(n))
+	 */
+	public int select(int i)
+	{
+		Node node = this.root;
+		while(node.height > 0)
+		{
+			int j = 0;
+			while(i > node.children[j].size)
+			{
+				i -= node.children[j].size;
+				j++;
+			}
+			node = node.children[j];
+		}
+		return node.keys[i - 1];
+	}
+	
+	/**
+	 * public int[] keysToArray()
+	 * returns a sorted array of the keys of the tree
+	 * complexity: O(n)
+	 */
+	public int[] keysToArray()
+	{
+		int[] keys = new int[size()];
+		toArrays(this.root, keys, null, 0);
+		return keys;
+	}
+	
+	/**
+	 * public String[] infoToArray()
+	 * returns an array of the infos of the tree, sorted by their keys
+	 * complexity: O(n)
+	 */
+	public String[] infoToArray()
+	{
+		String[] infos = new String[size()];
+		toArrays(this.root, null, infos, 0);
+		return infos;
+	}
+	
+	/**
+	 * copies the items of the subtree of node to keys and infos (either may be null)
+	 * from index i, returns the index after the last item
+	 * complexity: O(size(node))
+	 */
+	private static int toArrays(Node node, int[] keys, String[] infos, int i)
+	{
+		if(node.height > 0)
+		{
+			for (int j = 0; j < node.n; j++)
+			{
+				i = toArrays(node.children[j], keys, infos, i);
+			}
+			return i;
+		}
+		if(keys != null)
+		{
+			System.arraycopy(node.keys, 0, keys, i, node.n);
+		}
+		if(infos != null)
+		{
+			System.arraycopy(node.infos, 0, infos, i, node.n);
+		}
+		return i + node.n;
+	}
+	
+	/**
+	 * public void scan(int lo, int hi, AVLTree.BatchConsumer consumer)
+	 * passes the items with keys in [lo, hi] in ascending order of keys to consumer,
+	 * a leaf at a time (the arrays are reused between the calls)
+	 * complexity: O(WIDTH * log(n) + k), k is the number of items in the range
+	 */
+	public void scan(int lo, int hi, AVLTree.BatchConsumer consumer)
+	{
+		scan(this.root, lo, hi, new int[WIDTH], new String[WIDTH], consumer);
+	}
+	
+	private static void scan(Node node, int lo, int hi, int[] keys, String[] infos, AVLTree.BatchConsumer consumer)
+	{
+		if(node.height > 0)
+		{
+			for (int j = childIndex(node, lo); j < node.n && node.keys[j] <= hi; j++)
+			{
+				scan(node.children[j], lo, hi, keys, infos, consumer);
+			}
+			return;
+		}
+		int from = countLess(node.keys, 0, node.n, lo);
+		int to = from;
+		while(to < node.n && node.keys[to] <= hi)
+		{
+			to++;
+		}
+		if(from < to)
+		{
+			System.arraycopy(node.keys, from, keys, 0, to - from);
+			System.arraycopy(node.infos, from, infos, 0, to - from);
+			consumer.accept(keys, infos, to - from);
+		}
+	}
+	
+	/**
+	 * public WideTree[] split(int x)
+	 * splits the tree into [t1, t2] with keys(t1) < x < keys(t2). the item with key x is
+	 * not in either of them. this tree is empty after the split.
+	 * @pre search(x) != null
+	 * complexity: O(WIDTH * log(n))
+	 */
+	public WideTree[] split(int x)
+	{
+		Node[] parts = cut(this.root, x);
+		this.root = new Node(0);
+		WideTree[] trees = {new WideTree(), new WideTree()};
+		for (int j = 0; j < 2; j++)
+		{
+			if(parts[j] != null)
+			{
+				trees[j].root = parts[j];
+			}
+		}
+		return trees;
+	}
+	
+	/**
+	 * splits the subtree of node into the trees of the keys smaller than x and the keys
+	 * bigger than x (null if there are none): the sons of node on both sides of the son
+	 * that contains x are concatenated with the parts of that son
+	 * complexity: O(WIDTH * height(node))
+	 */
+	private Node[] cut(Node node, int x)
+	{
+		if(node.height == 0)
+		{
+			int j = countLess(node.keys, 0, node.n, x);
+			int after = j < node.n && node.keys[j] == x ? j + 1 : j;
+			Node right = slice(node, after, node.n); //the right part first, since a slice may drop the tail of node
+			return new Node[] {slice(node, 0, j), right};
+		}
+		int j = childIndex(node, x);
+		Node[] parts = cut(node.children[j], x);
+		Node right = concat(parts[1], slice(node, j + 1, node.n));
+		return new Node[] {concat(slice(node, 0, j), parts[0]), right};
+	}
+	
+	/**
+	 * returns a node with the entries from..to-1 of node, the son itself if it is
+	 * a single son, or null if there are none. if to is the end of node, the entries
+	 * are dropped from node
+	 * complexity: O(WIDTH)
+	 */
+	private static Node slice(Node node, int from, int to)
+	{
+		if(from == to)
+		{
+			return null;
+		}
+		if(node.height > 0 && to - from == 1)
+		{
+			return node.children[from];
+		}
+		Node part = new Node(node.height);
+		move(node, from, part, 0, to - from);
+		return part;
+	}
+	
+	/**
+	 * public int join(AVLTree.IAVLNode x, WideTree t)
+	 * joins the tree with x and t into this tree. t is empty after the join.
+	 * returns the difference between the heights of the trees + 1.
+	 * @pre keys(t) < x.key < keys(this) or keys(t) > x.key > keys(this)
+	 * complexity: O(WIDTH * log(n))
+	 */
+	public int join(AVLTree.IAVLNode x, WideTree t)
+	{
+		Node other = t.root;
+		t.root = new Node(0);
+		int cost = Math.abs(this.root.height - other.height) + 1;
+		boolean thisSmaller = (this.root.size > 0 && this.root.keys[0] < x.getKey()) || (other.size > 0 && other.keys[0] > x.getKey());
+		Node joined = thisSmaller ? concat(this.root, other) : concat(other, this.root);
+		this.root = joined == null ? new Node(0) : joined;
+		insert(x.getKey(), x.getValue());
+		return cost;
+	}
+	
+	/**
+	 * public int join(AVLTree.IAVLNode x, OrderedIndex t)
+	 * joins like join(x, (WideTree) t), for the callers that hold the engine as an OrderedIndex.
+	 * throws IllegalArgumentException if t is not a WideTree
+	 * complexity: O(WIDTH * log(n))
+	 */
+	public int join(AVLTree.IAVLNode x, OrderedIndex t)
+	{
+		if(!(t instanceof WideTree))
+		{
+			throw new IllegalArgumentException("a WideTree joins only a WideTree");
+		}
+		return join(x, (WideTree) t);
+	}
+	
+	/**
+	 * returns the root of a tree of the items of the subtrees a and b (either may be null),
+	 * by hanging the lower one on the border of the higher one, at its height
+	 * @pre keys(a) < keys(b)
+	 * complexity: O(WIDTH * (|height(a) - height(b)| + 1))
+	 */
+	private Node concat(Node a, Node b)
+	{
+		if(a == null || a.size == 0)
+		{
+			return b;
+		}
+		if(b == null || b.size == 0)
+		{
+			return a;
+		}
+		if(a.height == b.height)
+		{
+			if(a.n + b.n <= WIDTH)
+			{
+				move(b, 0, a, a.n, b.n);
+				return a;
+			}
+			balance(a, b);
+			return newRoot(a, b);
+		}
+		Node sibling = a.height > b.height ? appendRight(a, b) : prependLeft(b, a);
+		Node top = a.height > b.height ? a : b;
+		return sibling == null ? top : newRoot(top, sibling);
+	}
+	
+	/**
+	 * hangs b as the last node of height(b) in the subtree of node, returns the new right
+	 * sibling of node if node was split, otherwise null
+	 * @pre height(node) > height(b), keys(node) < keys(b)
+	 * complexity: O(WIDTH * (height(node) - height(b)))
+	 */
+	private Node appendRight(Node node, Node b)
+	{
+		int size = b.size; //b may be merged with its neighbour
+		if(node.height == b.height + 1)
+		{
+			insertChild(node, node.n, b);
+			if(b.n < HALF)
+			{
+				fixChild(node, node.n - 1);
+			}
+		}
+		else
+		{
+			Node sibling = appendRight(node.children[node.n - 1], b);
+			if(sibling != null)
+			{
+				insertChild(node, node.n, sibling);
+			}
+		}
+		node.size += size;
+		return node.n > WIDTH ? splitNode(node) : null;
+	}
+	
+	/**
+	 * hangs a as the first node of height(a) in the subtree of node, returns the new right
+	 * sibling of node if node was split, otherwise null
+	 * @pre height(node) > height(a), keys(a) < keys(node)
+	 * complexity: O(WIDTH * (height(node) - height(a)))
+	 */
+	private Node prependLeft(Node node, Node a)
+	{
+		int size = a.size; //a may be merged with its neighbour
+		if(node.height == a.height + 1)
+		{
+			insertChild(node, 0, a);
+			if(a.n < HALF)
+			{
+				fixChild(node, 0);
+			}
+		}
+		else
+		{
+			Node sibling = prependLeft(node.children[0], a);
+			node.keys[0] = node.children[0].keys[0];
+			if(sibling != null)
+			{
+				insertChild(node, 1, sibling);
+			}
+		}
+		node.size += size;
+		return node.n > WIDTH ? splitNode(node) : null;
+	}
+}
@@ -0,0 +1,1705 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * class AVLTreeTest
+ *
+ * Randomized tests of AVLTree against java.util.TreeMap: updates (also through handles)
+ * in every mode of the tree, append, appendAll and poll, split and join, the bulk splits, intervals, keys with several
+ * entries, forEachBatch and keysToBuffer, serialization and CompactTree, the deferred rebalancing of a relaxed tree, the
+ * evictions, and mapValues, filter and partition.
+ */
+class AVLTreeTest {
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		for (int seed = 0; seed < 20; seed++)
+		{
+			for (int mode = 0; mode < 6; mode++)
+			{
+				updates(seed, mode);
+				appends(seed, mode);
+			}
+			splitAndJoin(seed);
+			wavlSplitAndJoin(seed);
+			bulkSplits(seed);
+			intervals(seed);
+			entries(seed);
+			valueStorage(seed);
+			fingerSearch(seed);
+			bulkExports(seed);
+		}
+		serialization();
+		staleHandlesWithArena();
+		sharedNodeArena();
+		relaxedJoin();
+		joinEmptiesOther();
+		for (int seed = 0; seed < 5; seed++)
+		{
+			keyFilterInSync(seed);
+			traceRecordsEveryUpdate(seed);
+			relaxedRebalancing(seed);
+			evictions(seed);
+			transforms(seed);
+			compactRoundTrip(seed);
+		}
+		ttlEvictor();
+		System.out.println("AVLTreeTest: ok");
+	}
+
+	/**
+	 * returns an empty tree in one of the modes: 0 plain, 1 WAVL, 2 relaxed balance,
+	 * 3 with a node arena, 4 with a key filter, 5 with a value arena
+	 */
+	static AVLTree newTree(int mode)
+	{
+		AVLTree t = new AVLTree();
+		switch(mode)
+		{
+		case 1:
+			t.setRebalancePolicy(AVLTree.RebalancePolicy.WAVL);
+			break;
+		case 2:
+			t.setRelaxedBalance(16);
+			break;
+		case 3:
+			t.setNodeArena(new NodeArena(0, 64));
+			break;
+		case 4:
+			t.setKeyFilter(new KeyFilter(64, 0.01));
+			break;
+		case 5:
+			t.setValueArena(new ValueArena());
+			break;
+		}
+		return t;
+	}
+
+	/**
+	 * random inserts, deletes, searches and handle operations, checked after every operation
+	 */
+	private static void updates(int seed, int mode)
+	{
+		Random random = new Random(seed);
+		AVLTree t = newTree(mode);
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		HashMap<Integer, AVLTree.AVLNode> handles = new HashMap<Integer, AVLTree.AVLNode>(); //live items only
+		ArrayList<AVLTree.AVLNode> stale = new ArrayList<AVLTree.AVLNode>(); //handles of deleted items
+		for (int op = 0; op < 1500; op++)
+		{
+			int k = random.nextInt(400);
+			switch(random.nextInt(10))
+			{
+			case 0:
+			case 1:
+				Invariants.check((t.insert(k, "v" + op) == -1) == expected.containsKey(k), "insert of " + k);
+				expected.putIfAbsent(k, "v" + op);
+				break;
+			case 2:
+				AVLTree.AVLNode h = t.insertHandle(k, "h" + op);
+				if(!expected.containsKey(k))
+				{
+					expected.put(k, "h" + op);
+					handles.put(k, h);
+				}
+				Invariants.check(h.getKey() == k && h.getValue().equals(expected.get(k)), "insertHandle of " + k);
+				break;
+			case 3:
+			case 4:
+				Invariants.check((t.delete(k) == -1) == !expected.containsKey(k), "delete of " + k);
+				expected.remove(k);
+				if(handles.containsKey(k))
+				{
+					stale.add(handles.remove(k));
+				}
+				break;
+			case 5:
+				if(!handles.isEmpty())
+				{
+					int key = new ArrayList<Integer>(handles.keySet()).get(random.nextInt(handles.size()));
+					AVLTree.AVLNode node = handles.remove(key);
+					Invariants.check(t.remove(node) >= 0, "remove of handle " + key);
+					Invariants.check(t.remove(node) == -1, "second remove of handle " + key);
+					expected.remove(key);
+					stale.add(node);
+				}
+				break;
+			case 6:
+				if(!handles.isEmpty())
+				{
+					int key = new ArrayList<Integer>(handles.keySet()).get(random.nextInt(handles.size()));
+					int newKey = random.nextBoolean() ? key + random.nextInt(5) - 2 : random.nextInt(400);
+					AVLTree.AVLNode node = handles.get(key);
+					int result = t.updateKey(node, newKey);
+					if(newKey == -1 || (newKey != key && expected.containsKey(newKey)))
+					{
+						Invariants.check(result == -1, "updateKey to an existing key or to -1");
+					}
+					else
+					{
+						Invariants.check(result >= 0 && node.getKey() == newKey, "updateKey of " + key);
+						expected.put(newKey, expected.remove(key));
+						handles.remove(key);
+						handles.put(newKey, node);
+					}
+				}
+				break;
+			case 7:
+				if(!expected.isEmpty())
+				{
+					boolean first = random.nextBoolean();
+					Map.Entry<Integer, String> e = first ? expected.pollFirstEntry() : expected.pollLastEntry();
+					Invariants.check(e.getValue().equals(first ? t.pollFirst() : t.pollLast()), "poll");
+					if(handles.containsKey(e.getKey()))
+					{
+						stale.add(handles.remove(e.getKey()));
+					}
+				}
+				break;
+			case 8:
+				Invariants.check(t.rank(k) == expected.headMap(k).size(), "rank of " + k);
+				if(!expected.isEmpty())
+				{
+					int i = random.nextInt(expected.size());
+					Invariants.check(t.select(i + 1) == expected.keySet().toArray(new Integer[0])[i], "select of " + (i + 1));
+				}
+				break;
+			default:
+				Invariants.check(java.util.Objects.equals(t.search(k), expected.get(k)), "search of " + k);
+				Invariants.check(t.handle(k) == handles.getOrDefault(k, t.handle(k)), "handle of " + k);
+			}
+			if(mode == 2 && random.nextInt(8) == 0)
+			{
+				t.rebalanceStep(random.nextInt(8));
+			}
+			if(!stale.isEmpty() && random.nextInt(4) == 0)
+			{
+				AVLTree.AVLNode node = stale.get(random.nextInt(stale.size()));
+				Invariants.check(t.remove(node) == -1, "remove of a stale handle");
+				Invariants.check(t.updateKey(node, k) == -1, "updateKey of a stale handle");
+			}
+			Invariants.verify(t, expected);
+		}
+		for (Map.Entry<Integer, AVLTree.AVLNode> e : handles.entrySet()) //the handles stay bound to their items
+		{
+			Invariants.check(e.getValue().getKey() == e.getKey() && t.handle(e.getKey()) == e.getValue(), "handle of " + e.getKey() + " moved");
+		}
+		if(mode == 2)
+		{
+			t.rebalanceStep(Integer.MAX_VALUE);
+			t.setRelaxedBalance(0);
+			Invariants.verify(t, expected);
+		}
+	}
+
+	/**
+	 * random append, appendAll, pollFirst and pollLast, with keys above the max (the fast
+	 * paths), at or below it and repeated (the fallbacks to insert), checked after every operation
+	 */
+	private static void appends(int seed, int mode)
+	{
+		Random random = new Random(seed);
+		AVLTree t = newTree(mode);
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		for (int op = 0; op < 400; op++)
+		{
+			int max = expected.isEmpty() ? 0 : expected.lastKey();
+			int k = random.nextInt(3) == 0 ? Math.max(max - random.nextInt(20), 0) : max + 1 + random.nextInt(10); //a third at most the max
+			switch(random.nextInt(6))
+			{
+			case 0:
+			case 1:
+				Invariants.check((t.append(k, "a" + op) == -1) == expected.containsKey(k), "append of " + k);
+				expected.putIfAbsent(k, "a" + op);
+				break;
+			case 2:
+			case 3:
+				int[] keys = new int[random.nextInt(random.nextInt(8) == 0 ? 100 : 8)];
+				String[] infos = new String[keys.length];
+				boolean ordered = random.nextInt(4) != 0; //else the run is in random order, possibly with repetitions
+				for (int j = 0; j < keys.length; j++)
+				{
+					keys[j] = ordered ? k + 2 * j : Math.max(max - 10, 0) + random.nextInt(keys.length + 20);
+					infos[j] = "b" + op + "." + j;
+				}
+				int added = 0;
+				for (int j = 0; j < keys.length; j++)
+				{
+					if(!expected.containsKey(keys[j]))
+					{
+						expected.put(keys[j], infos[j]);
+						added++;
+					}
+				}
+				Invariants.check(t.appendAll(keys, infos) == added, "appendAll of " + keys.length + " keys from " + k);
+				break;
+			default:
+				boolean first = random.nextBoolean();
+				Map.Entry<Integer, String> e = first ? expected.pollFirstEntry() : expected.pollLastEntry();
+				String polled = first ? t.pollFirst() : t.pollLast();
+				Invariants.check(e == null ? polled == null : e.getValue().equals(polled), "poll");
+			}
+			if(mode == 2 && random.nextInt(8) == 0)
+			{
+				t.rebalanceStep(random.nextInt(8));
+			}
+			Invariants.verify(t, expected);
+			int probe = Math.max(max - 20, 0) + random.nextInt(40);
+			Invariants.check(t.rank(probe) == expected.headMap(probe).size(), "rank of " + probe);
+			if(!expected.isEmpty())
+			{
+				int i = random.nextInt(expected.size());
+				Invariants.check(t.select(i + 1) == expected.keySet().toArray(new Integer[0])[i], "select of " + (i + 1));
+			}
+		}
+	}
+
+	/**
+	 * splits random trees at their keys and joins the parts back, in both orders and with
+	 * either the original node or a new one as the separator
+	 */
+	private static void splitAndJoin(int seed)
+	{
+		Random random = new Random(seed);
+		for (int round = 0; round < 40; round++)
+		{
+			AVLTree t = newTree(random.nextInt(2));
+			TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+			int n = random.nextInt(150) + 1;
+			for (int i = 0; i < n; i++)
+			{
+				int k = random.nextInt(1000);
+				t.insert(k, "v" + k);
+				expected.put(k, "v" + k);
+			}
+			for (int step = 0; step < 15; step++)
+			{
+				Integer[] keys = expected.keySet().toArray(new Integer[0]);
+				int x = keys[random.nextInt(keys.length)];
+				if(random.nextInt(4) == 0) //the parts are empty on one side
+				{
+					x = random.nextBoolean() ? expected.firstKey() : expected.lastKey();
+				}
+				AVLTree.AVLNode node = t.handle(x);
+				AVLTree[] parts = t.split(x);
+				Invariants.verify(parts[0], new TreeMap<Integer, String>(expected.headMap(x)));
+				Invariants.verify(parts[1], new TreeMap<Integer, String>(expected.tailMap(x, false)));
+				AVLTree.IAVLNode separator = node;
+				if(random.nextBoolean())
+				{
+					separator = parts[0].new AVLNode("v" + x, x, parts[0].new AVLNode(), parts[0].new AVLNode(), null);
+				}
+				if(random.nextBoolean())
+				{
+					parts[0].join(separator, parts[1]);
+					t = parts[0];
+				}
+				else
+				{
+					parts[1].join(separator, parts[0]);
+					t = parts[1];
+				}
+				Invariants.verify(t, expected);
+				int k = random.nextInt(1000);
+				if(t.insert(k, "v" + k) != -1)
+				{
+					expected.put(k, "v" + k);
+				}
+				Invariants.verify(t, expected);
+			}
+		}
+	}
+
+	/**
+	 * split and join of WAVL trees after many deletions, which leave nodes whose rank is 2
+	 * above both their sons
+	 */
+	private static void wavlSplitAndJoin(int seed)
+	{
+		Random random = new Random(seed);
+		AVLTree t = newTree(1);
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		for (int op = 0; op < 3000; op++)
+		{
+			int k = random.nextInt(2000);
+			if(random.nextInt(3) != 0)
+			{
+				if(t.insert(k, "v" + k) != -1)
+				{
+					expected.put(k, "v" + k);
+				}
+			}
+			else if(t.delete(k) != -1)
+			{
+				expected.remove(k);
+			}
+			if(op % 25 == 0 && !expected.isEmpty())
+			{
+				Integer[] keys = expected.keySet().toArray(new Integer[0]);
+				int x = keys[random.nextInt(keys.length)];
+				AVLTree.AVLNode node = t.handle(x);
+				AVLTree[] parts = t.split(x);
+				Invariants.verify(parts[0], new TreeMap<Integer, String>(expected.headMap(x)));
+				Invariants.verify(parts[1], new TreeMap<Integer, String>(expected.tailMap(x, false)));
+				parts[0].join(node, parts[1]);
+				t = parts[0];
+				Invariants.verify(t, expected);
+			}
+		}
+	}
+
+	/**
+	 * intervals mixed with regular items, through updates, updateKey, split and join:
+	 * findOverlapping, stab and getMaxEnd against a scan of the expected intervals
+	 */
+	private static void intervals(int seed)
+	{
+		Random random = new Random(seed);
+		AVLTree t = newTree(random.nextInt(2));
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		TreeMap<Integer, Integer> ends = new TreeMap<Integer, Integer>();
+		for (int op = 0; op < 3000; op++)
+		{
+			int k = random.nextInt(1000);
+			int choice = random.nextInt(10);
+			if(choice < 3)
+			{
+				int end = k + (random.nextInt(4) == 0 ? 0 : random.nextInt(60));
+				if(t.insertInterval(k, end, "i" + op) != -1)
+				{
+					expected.put(k, "i" + op);
+					ends.put(k, end);
+				}
+			}
+			else if(choice < 5)
+			{
+				if(t.insert(k, "v" + op) != -1)
+				{
+					expected.put(k, "v" + op);
+					ends.put(k, k);
+				}
+			}
+			else if(choice < 8)
+			{
+				if(t.delete(k) != -1)
+				{
+					expected.remove(k);
+					ends.remove(k);
+				}
+			}
+			else if(choice == 8)
+			{
+				AVLTree.AVLNode handle = t.handle(k);
+				int newKey = random.nextInt(1000);
+				if(handle != null && t.updateKey(handle, newKey) != -1 && newKey != k)
+				{
+					expected.put(newKey, expected.remove(k));
+					ends.put(newKey, ends.remove(k) + newKey - k);
+				}
+			}
+			else if(!expected.isEmpty()) //split and join back, with the node of the split as the separator
+			{
+				Integer[] keys = expected.keySet().toArray(new Integer[0]);
+				int x = keys[random.nextInt(keys.length)];
+				AVLTree.AVLNode node = t.handle(x);
+				AVLTree[] parts = t.split(x);
+				parts[0].join(node, parts[1]);
+				t = parts[0];
+			}
+			if(op % 20 == 0)
+			{
+				Invariants.verify(t, expected);
+				int lo = random.nextInt(1100) - 50;
+				int hi = lo + random.nextInt(random.nextBoolean() ? 5 : 100);
+				checkOverlapping(t.findOverlapping(lo, hi), lo, hi, ends);
+				checkOverlapping(t.stab(lo), lo, lo, ends);
+				int maxEnd = Integer.MIN_VALUE;
+				for (int end : ends.values())
+				{
+					maxEnd = Math.max(maxEnd, end);
+				}
+				Invariants.check(t.empty() || ((AVLTree.AVLNode) t.getRoot()).getMaxEnd() == maxEnd, "maximal end of the tree");
+			}
+		}
+	}
+	
+	/**
+	 * keys with several entries mixed with intervals and regular items, through addAll,
+	 * removeOne, deletes, split, join and copies: count, valuesOf, entries, rank and select
+	 * against the expected entries
+	 */
+	private static void entries(int seed)
+	{
+		Random random = new Random(seed);
+		AVLTree t = newTree(random.nextBoolean() ? 3 : random.nextInt(2));
+		TreeMap<Integer, List<String>> expected = new TreeMap<Integer, List<String>>();
+		for (int op = 0; op < 2000; op++)
+		{
+			int k = random.nextInt(500);
+			int choice = random.nextInt(10);
+			if(choice < 4)
+			{
+				String[] infos = new String[random.nextInt(3) + 1];
+				for (int j = 0; j < infos.length; j++)
+				{
+					infos[j] = "e" + op + "." + j;
+				}
+				t.addAll(k, infos);
+				expected.computeIfAbsent(k, key -> new ArrayList<String>()).addAll(Arrays.asList(infos));
+			}
+			else if(choice < 6)
+			{
+				List<String> values = expected.get(k);
+				String info = t.removeOne(k);
+				Invariants.check(Objects.equals(info, values == null ? null : values.remove(values.size() - 1)), "removeOne of " + k);
+				if(values != null && values.isEmpty())
+				{
+					expected.remove(k);
+				}
+			}
+			else if(choice == 6)
+			{
+				if(t.insertInterval(k, k + random.nextInt(30), "i" + op) != -1)
+				{
+					expected.put(k, new ArrayList<String>(Arrays.asList("i" + op)));
+				}
+			}
+			else if(choice == 7)
+			{
+				if(t.delete(k) != -1)
+				{
+					expected.remove(k);
+				}
+			}
+			else if(choice == 8 && !expected.isEmpty()) //split and join back, with the node of the split as the separator
+			{
+				Integer[] keys = expected.keySet().toArray(new Integer[0]);
+				int x = keys[random.nextInt(keys.length)];
+				AVLTree.AVLNode node = t.handle(x);
+				AVLTree[] parts = t.split(x);
+				parts[0].join(node, parts[1]);
+				t = parts[0];
+			}
+			else if(choice == 9 && random.nextInt(10) == 0)
+			{
+				t = t.filter((key, info) -> true);
+			}
+			if(op % 20 == 0)
+			{
+				checkEntries(t, expected, random);
+			}
+		}
+		checkEntries(t, expected, random);
+	}
+	
+	/**
+	 * checks the entries of t against expected, and the first entries as the items of t
+	 */
+	private static void checkEntries(AVLTree t, TreeMap<Integer, List<String>> expected, Random random)
+	{
+		TreeMap<Integer, String> items = new TreeMap<Integer, String>();
+		List<Integer> all = new ArrayList<Integer>();
+		for (Map.Entry<Integer, List<String>> e : expected.entrySet())
+		{
+			items.put(e.getKey(), e.getValue().get(0));
+			for (int j = 0; j < e.getValue().size(); j++)
+			{
+				all.add(e.getKey());
+			}
+		}
+		Invariants.verify(t, items);
+		Invariants.check(t.entries() == all.size(), "entries " + t.entries() + " instead of " + all.size());
+		for (int j = 0; j < 10; j++)
+		{
+			int k = random.nextInt(520) - 10;
+			List<String> values = expected.get(k);
+			Invariants.check(t.count(k) == (values == null ? 0 : values.size()), "count of " + k);
+			Invariants.check(Arrays.equals(t.valuesOf(k), values == null ? new String[0] : values.toArray(new String[0])), "values of " + k);
+			Invariants.check(t.rank(k) == expected.headMap(k).values().stream().mapToInt(List::size).sum(), "rank of " + k);
+		}
+		if(!all.isEmpty())
+		{
+			int i = random.nextInt(all.size());
+			Invariants.check(t.select(i + 1) == all.get(i), "select of " + (i + 1));
+		}
+	}
+	
+	/**
+	 * checks that found are the intervals of ends that overlap [lo, hi], in the order of their starts
+	 */
+	private static void checkOverlapping(AVLTree.AVLNode[] found, int lo, int hi, TreeMap<Integer, Integer> ends)
+	{
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		for (Map.Entry<Integer, Integer> e : ends.entrySet())
+		{
+			if(e.getKey() <= hi && e.getValue() >= lo)
+			{
+				keys.add(e.getKey());
+			}
+		}
+		Invariants.check(found.length == keys.size(), found.length + " intervals overlap [" + lo + ", " + hi + "] instead of " + keys.size());
+		for (int j = 0; j < found.length; j++)
+		{
+			Invariants.check(found[j].getKey() == keys.get(j), "overlapping interval " + j + " of [" + lo + ", " + hi + "]");
+			Invariants.check(found[j].getEnd() == ends.get(keys.get(j)), "end of " + keys.get(j));
+		}
+	}
+	
+	/**
+	 * splitInto, splitBySize, evictBelow, retainRange and concatAll
+	 */
+	private static void bulkSplits(int seed)
+	{
+		Random random = new Random(seed);
+		for (int round = 0; round < 20; round++)
+		{
+			AVLTree t = new AVLTree();
+			TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+			for (int i = random.nextInt(300); i > 0; i--)
+			{
+				int k = random.nextInt(1000);
+				t.insert(k, "v" + k);
+				expected.put(k, "v" + k);
+			}
+			int[] pivots = new int[random.nextInt(5)];
+			for (int j = 0; j < pivots.length; j++)
+			{
+				pivots[j] = random.nextInt(1000);
+			}
+			java.util.Arrays.sort(pivots);
+			AVLTree[] parts = t.splitInto(pivots);
+			Invariants.check(parts.length == pivots.length + 1, "number of parts");
+			for (int j = 0; j < parts.length; j++)
+			{
+				int lo = j == 0 ? Integer.MIN_VALUE : pivots[j-1];
+				int hi = j == pivots.length ? Integer.MAX_VALUE : pivots[j];
+				TreeMap<Integer, String> part = new TreeMap<Integer, String>(expected.subMap(lo, true, hi, j == pivots.length));
+				Invariants.verify(parts[j], part);
+			}
+			t = AVLTree.concatAll(parts);
+			Invariants.verify(t, expected);
+
+			int count = random.nextInt(6) + 1;
+			parts = t.splitBySize(count);
+			Invariants.check(parts.length == count, "number of parts of splitBySize");
+			int total = 0;
+			for (AVLTree part : parts)
+			{
+				Invariants.check(Math.abs(part.size() - expected.size() / count) <= 1, "unequal parts");
+				total += part.size();
+			}
+			Invariants.check(total == expected.size(), "items lost by splitBySize");
+			t = AVLTree.concatAll(parts);
+			Invariants.verify(t, expected);
+
+			int lo = random.nextInt(1000);
+			int hi = lo + random.nextInt(500);
+			AVLTree below = t.evictBelow(lo);
+			Invariants.verify(below, new TreeMap<Integer, String>(expected.headMap(lo)));
+			AVLTree[] removed = t.retainRange(lo, hi);
+			Invariants.verify(removed[1], new TreeMap<Integer, String>(expected.tailMap(hi, false)));
+			Invariants.verify(t, new TreeMap<Integer, String>(expected.subMap(lo, true, hi, true)));
+		}
+	}
+
+	/**
+	 * churn in a tree with a node arena while handles of deleted items are held: the arena must
+	 * not reuse their nodes, so the stale handles keep failing and never reach other items
+	 */
+	private static void staleHandlesWithArena()
+	{
+		Random random = new Random(1);
+		NodeArena arena = new NodeArena(0, 1024);
+		AVLTree t = new AVLTree();
+		t.setNodeArena(arena);
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		ArrayList<AVLTree.AVLNode> stale = new ArrayList<AVLTree.AVLNode>();
+		for (int op = 0; op < 20000; op++)
+		{
+			int k = random.nextInt(200);
+			int choice = random.nextInt(4);
+			if(choice == 0)
+			{
+				AVLTree.AVLNode h = t.handle(k);
+				if(h != null)
+				{
+					t.delete(k);
+					expected.remove(k);
+					stale.add(h);
+				}
+			}
+			else if(choice == 1)
+			{
+				AVLTree.AVLNode[] found = t.findOverlapping(k, k + 3);
+				if(found.length > 0)
+				{
+					AVLTree.AVLNode h = t.handle(found[0].getKey()); //the found nodes are not handles themselves
+					t.remove(h);
+					expected.remove(h.getKey());
+					stale.add(h);
+				}
+			}
+			else if(choice == 2)
+			{
+				if(t.insert(k, "v" + op) != -1)
+				{
+					expected.put(k, "v" + op);
+				}
+			}
+			else
+			{
+				if(t.delete(k) != -1)
+				{
+					expected.remove(k);
+				}
+			}
+			if(!stale.isEmpty() && random.nextInt(8) == 0)
+			{
+				AVLTree.AVLNode h = stale.get(random.nextInt(stale.size()));
+				Invariants.check(t.remove(h) == -1, "a stale handle removed an item");
+				Invariants.check(t.updateKey(h, random.nextInt(200)) == -1, "a stale handle changed a key");
+			}
+			if(op % 100 == 0)
+			{
+				Invariants.verify(t, expected);
+			}
+		}
+		Invariants.verify(t, expected);
+		Invariants.check(arena.reused() > 0, "the arena reused no nodes");
+	}
+	
+	/**
+	 * a sliding window of keys in a tree with a key filter, moved by evictions, joins and splits:
+	 * the filter must never miss a key of the tree, and must keep filtering the absent keys
+	 */
+	private static void keyFilterInSync(int seed)
+	{
+		Random random = new Random(seed);
+		AVLTree t = newTree(4);
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		int base = 0; //the new keys are in [base, base + 500), the joined keys can be higher
+		for (int op = 1; op <= 4000; op++)
+		{
+			int k = base + random.nextInt(500);
+			if(random.nextInt(3) != 0)
+			{
+				if(t.insert(k, "v" + k) != -1)
+				{
+					expected.put(k, "v" + k);
+				}
+			}
+			else if(t.delete(k) != -1)
+			{
+				expected.remove(k);
+			}
+			if(op % 50 == 0) //the window moves up
+			{
+				base += 100;
+				KeyFilter filter = t.getKeyFilter();
+				int count = filter.count();
+				t.evictBelow(base);
+				expected.headMap(base).clear();
+				if(t.getKeyFilter() == filter) //the filter stays with the larger part, the pivot must not be added
+				{
+					Invariants.check(filter.count() == count, "evictBelow added " + (filter.count() - count) + " keys to the filter");
+				}
+				else
+				{
+					Invariants.check(t.getKeyFilter().count() == expected.size(), "the filter of the smaller part has " + t.getKeyFilter().count() + " keys");
+				}
+			}
+			if(op % 70 == 0) //a tree of higher keys is joined
+			{
+				int x = expected.isEmpty() ? base : Math.max(base, expected.lastKey() + 1);
+				AVLTree u = new AVLTree();
+				for (int i = 0; i < 30; i++)
+				{
+					int key = x + 1 + random.nextInt(100);
+					if(u.insert(key, "v" + key) != -1)
+					{
+						expected.put(key, "v" + key);
+					}
+				}
+				t.join(t.new AVLNode("v" + x, x, t.new AVLNode(), t.new AVLNode(), null), u);
+				expected.put(x, "v" + x);
+			}
+			if(op % 90 == 0 && !expected.isEmpty()) //one of the parts of a split is kept
+			{
+				Integer[] keys = expected.keySet().toArray(new Integer[0]);
+				int x = keys[random.nextInt(keys.length)];
+				AVLTree[] parts = t.split(x);
+				boolean low = random.nextBoolean();
+				t = low ? parts[0] : parts[1];
+				Invariants.check(t.getKeyFilter() != null, "a part of a split has no key filter");
+				if(low)
+				{
+					expected.tailMap(x, true).clear();
+				}
+				else
+				{
+					expected.headMap(x, true).clear();
+				}
+			}
+			if(op % 10 == 0)
+			{
+				Invariants.verify(t, expected);
+				for (int key : expected.keySet())
+				{
+					Invariants.check(t.getKeyFilter().mightContain(key), "the key filter misses " + key);
+				}
+				for (int key = 0; key < base + 1000; key += 7)
+				{
+					Invariants.check((t.search(key) != null) == expected.containsKey(key), "search of " + key);
+				}
+			}
+		}
+		int filtered = 0;
+		int absent = 0;
+		for (int key = 0; key < base + 1000; key++)
+		{
+			if(!expected.containsKey(key))
+			{
+				absent++;
+				if(!t.getKeyFilter().mightContain(key))
+				{
+					filtered++;
+				}
+			}
+		}
+		Invariants.check(filtered > absent * 9 / 10, "the key filter filtered only " + filtered + " of " + absent + " absent keys");
+	}
+	
+	/**
+	 * join leaves the joined tree empty and sharing no node with the result, also when it was
+	 * empty before the join: updates of it afterwards do not change the result
+	 */
+	private static void joinEmptiesOther()
+	{
+		for (int mode = 0; mode < 6; mode++)
+		{
+			for (int shape = 0; shape < 8; shape++) //either tree can be empty, and the other tree is above or below the tree
+			{
+				boolean emptyThis = (shape & 1) != 0;
+				boolean emptyOther = (shape & 2) != 0;
+				boolean otherAbove = (shape & 4) != 0;
+				AVLTree t = newTree(mode);
+				TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+				for (int k = 0; k < 50 && !emptyThis; k++)
+				{
+					t.insert(k + (otherAbove ? 0 : 100), "v" + k);
+					expected.put(k + (otherAbove ? 0 : 100), "v" + k);
+				}
+				AVLTree other = newTree(mode);
+				for (int k = 51; k < 80 && !emptyOther; k++)
+				{
+					other.insert(k + (otherAbove ? 0 : -51), "v" + k);
+					expected.put(k + (otherAbove ? 0 : -51), "v" + k);
+				}
+				int x = otherAbove ? 50 : 99;
+				AVLTree.AVLNode left = t.new AVLNode();
+				AVLTree.AVLNode right = t.new AVLNode();
+				AVLTree.AVLNode separator = t.new AVLNode("v" + x, x, left, right, null);
+				NodeArena arena = t.getNodeArena(); //the trees of mode 3 take their nodes from arenas, which count them
+				NodeArena otherArena = other.getNodeArena();
+				long taken = arena == null ? 0 : arena.allocated() + arena.reused() + otherArena.allocated() + otherArena.reused();
+				t.join(separator, other);
+				expected.put(x, "v" + x);
+				Invariants.verify(t, expected);
+				Invariants.verify(other, new TreeMap<Integer, String>());
+				if(arena != null)
+				{
+					Invariants.check(arena.allocated() + arena.reused() + otherArena.allocated() + otherArena.reused() == taken, "join made nodes");
+				}
+				if(mode != 5 && (emptyThis || emptyOther)) //x is attached as a leaf with its own virtual sons (the trees of mode 5 have different value arenas, so x is copied)
+				{
+					Invariants.check(separator.getLeft() == left && separator.getRight() == right, "join replaced the virtual sons of x");
+				}
+				TreeMap<Integer, String> reused = new TreeMap<Integer, String>();
+				for (int k = 1000; k < 1040; k++)
+				{
+					other.insert(k, "w" + k);
+					reused.put(k, "w" + k);
+				}
+				other.delete(1000);
+				reused.remove(1000);
+				Invariants.verify(other, reused);
+				Invariants.verify(t, expected);
+			}
+		}
+	}
+	
+	/**
+	 * a relaxed tree keeps its mode through a join with an AVL tree, and refuses to join a WAVL tree
+	 */
+	private static void relaxedJoin()
+	{
+		AVLTree t = newTree(2);
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		for (int k = 0; k < 100; k++)
+		{
+			t.insert(k, "v" + k);
+			expected.put(k, "v" + k);
+		}
+		AVLTree avl = newTree(0);
+		AVLTree wavl = newTree(1);
+		for (int k = 101; k < 150; k++)
+		{
+			avl.insert(k, "v" + k);
+			wavl.insert(k + 100, "v" + k);
+		}
+		TreeMap<Integer, String> wavlExpected = new TreeMap<Integer, String>();
+		for (int k = 201; k < 250; k++)
+		{
+			wavlExpected.put(k, "v" + (k - 100));
+		}
+		boolean thrown = false;
+		try
+		{
+			t.join(t.new AVLNode("v200", 200, t.new AVLNode(), t.new AVLNode(), null), wavl);
+		}
+		catch(IllegalStateException e)
+		{
+			thrown = true;
+		}
+		Invariants.check(thrown, "a relaxed tree joined a WAVL tree");
+		Invariants.verify(t, expected);
+		Invariants.verify(wavl, wavlExpected);
+		t.join(t.new AVLNode("v100", 100, t.new AVLNode(), t.new AVLNode(), null), avl);
+		for (int k = 100; k < 150; k++)
+		{
+			expected.put(k, "v" + k);
+		}
+		Invariants.check(t.isRelaxedBalance(), "a join with an AVL tree ended the relaxed balance");
+		Invariants.verify(t, expected);
+		t.setRelaxedBalance(0); //the ranks are checked once the tree is settled
+		Invariants.verify(t, expected);
+	}
+	
+	/**
+	 * forEachBatch with batches of 1, of divisors of the size, of more than the size and of
+	 * other sizes, and keysToBuffer into heap and direct buffers, of which the too small ones
+	 * should throw BufferOverflowException without being changed
+	 */
+	private static void bulkExports(int seed)
+	{
+		Random random = new Random(seed);
+		AVLTree t = new AVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		int n = seed % 5 == 0 ? seed / 5 : random.nextInt(300); //some trees are empty or tiny
+		while(expected.size() < n)
+		{
+			int k = random.nextInt(10000);
+			t.insert(k, "v" + k);
+			expected.put(k, "v" + k);
+		}
+		List<Integer> keys = new ArrayList<Integer>(expected.keySet());
+		List<String> infos = new ArrayList<String>(expected.values());
+		int[] sizes = {1, 2, 7, Math.max(n, 1), Math.max(n / 3, 1), Math.max(n / 2, 1), n + 1, n + 100};
+		for (int batchSize : sizes)
+		{
+			List<Integer> passedKeys = new ArrayList<Integer>();
+			List<String> passedInfos = new ArrayList<String>();
+			int[] batches = new int[1];
+			t.forEachBatch(batchSize, (batch, batchInfos, length) -> {
+				Invariants.check(length > 0 && length <= batchSize, "a batch of " + length + " items for batches of " + batchSize);
+				Invariants.check(length == batchSize || passedKeys.size() + length == n, "a batch that is not full before the last one");
+				for (int j = 0; j < length; j++)
+				{
+					passedKeys.add(batch[j]);
+					passedInfos.add(batchInfos[j]);
+				}
+				batches[0]++;
+			});
+			Invariants.check(passedKeys.equals(keys) && passedInfos.equals(infos), "the items of batches of " + batchSize);
+			Invariants.check(batches[0] == (n + batchSize - 1) / batchSize, batches[0] + " batches of " + batchSize + " for " + n + " items");
+		}
+		int[] array = t.keysToArray();
+		for (IntBuffer buffer : new IntBuffer[] {IntBuffer.allocate(n + 5), ByteBuffer.allocateDirect(4 * (n + 5)).asIntBuffer()})
+		{
+			buffer.position(3);
+			Invariants.check(t.keysToBuffer(buffer) == n && buffer.position() == n + 3, "keysToBuffer of " + n + " keys");
+			for (int j = 0; j < n; j++)
+			{
+				Invariants.check(buffer.get(3 + j) == array[j], "key " + j + " of keysToBuffer");
+			}
+			if(n > 3)
+			{
+				buffer.position(6);
+				try
+				{
+					t.keysToBuffer(buffer); //n - 1 places remain
+					throw new AssertionError("keysToBuffer into a buffer that is too small");
+				}
+				catch (BufferOverflowException e) //expected
+				{
+				}
+				Invariants.check(buffer.position() == 6 && buffer.get(6) == array[3], "keysToBuffer changed a buffer that is too small");
+			}
+		}
+	}
+	
+	/**
+	 * writeTo and readFrom of random trees, of several trees on one channel, and of corrupt streams
+	 */
+	private static void serialization() throws IOException
+	{
+		Random random = new Random(1);
+		for (int round = 0; round < 20; round++)
+		{
+			AVLTree t = new AVLTree();
+			TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+			for (int i = random.nextInt(500); i > 0; i--)
+			{
+				int k = random.nextInt(10000);
+				String info = random.nextInt(10) == 0 ? null : "v" + k;
+				if(t.insert(k, info) != -1)
+				{
+					expected.put(k, info);
+				}
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			t.writeTo(Channels.newChannel(out));
+			byte[] data = out.toByteArray();
+			Invariants.verify(AVLTree.readFrom(Channels.newChannel(new ByteArrayInputStream(data))), expected);
+			data[8] = (byte) 0xFF; //the item count becomes negative (after the chunk length and the magic number)
+			rejected(data, "a negative count");
+		}
+		//two trees and more data on one channel: every readFrom reads exactly its own tree
+		AVLTree first = new AVLTree();
+		AVLTree second = new AVLTree();
+		TreeMap<Integer, String> firstExpected = new TreeMap<Integer, String>();
+		TreeMap<Integer, String> secondExpected = new TreeMap<Integer, String>();
+		for (int k = 0; k < 20000; k++) //more than one chunk
+		{
+			first.insert(k, "first" + k);
+			firstExpected.put(k, "first" + k);
+		}
+		second.insert(7, "seven");
+		secondExpected.put(7, "seven");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		first.writeTo(Channels.newChannel(out));
+		second.writeTo(Channels.newChannel(out));
+		out.write(42);
+		ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(out.toByteArray()));
+		Invariants.verify(AVLTree.readFrom(channel), firstExpected);
+		Invariants.verify(AVLTree.readFrom(channel), secondExpected);
+		ByteBuffer rest = ByteBuffer.allocate(2);
+		Invariants.check(channel.read(rest) == 1 && rest.get(0) == 42, "readFrom consumed the data after the trees");
+		//corrupt items of a tree with the single item 5 -> [5, 9]: the key at 12, the end at 16, the length of the info at 24
+		AVLTree one = new AVLTree();
+		one.insertInterval(5, 9, "five");
+		out = new ByteArrayOutputStream();
+		one.writeTo(Channels.newChannel(out));
+		byte[] data = out.toByteArray();
+		rejected(withInt(data, 12, -1), "the key -1");
+		rejected(withInt(data, 16, 4), "an interval that ends before it starts");
+		rejected(withInt(data, 24, Integer.MAX_VALUE), "an info longer than the stream");
+		rejected(Arrays.copyOf(data, data.length - 4), "a stream without its end");
+	}
+	
+	/**
+	 * checks that readFrom rejects data with an IOException
+	 */
+	private static void rejected(byte[] data, String what)
+	{
+		try
+		{
+			AVLTree.readFrom(Channels.newChannel(new ByteArrayInputStream(data)));
+			throw new AssertionError(what + " was accepted");
+		}
+		catch (IOException e) //expected
+		{
+		}
+	}
+	
+	/**
+	 * returns a copy of data with value at index
+	 */
+	private static byte[] withInt(byte[] data, int index, int value)
+	{
+		byte[] copy = data.clone();
+		ByteBuffer.wrap(copy).putInt(index, value);
+		return copy;
+	}
+	
+	/**
+	 * checks that a trace receives every call that changes the keys, whatever method made it,
+	 * by applying the recorded loads, inserts and deletes to a map and comparing it to the tree
+	 */
+	private static void traceRecordsEveryUpdate(int seed)
+	{
+		Random random = new Random(seed);
+		AVLTree t = new AVLTree();
+		for (int k = 0; k < 200; k += 2)
+		{
+			t.insert(k, "v" + k);
+		}
+		Trace trace = new Trace();
+		t.setTrace(trace);
+		for (int op = 0; op < 2000; op++)
+		{
+			int k = random.nextInt(400);
+			AVLTree.AVLNode h;
+			switch(random.nextInt(8))
+			{
+			case 0:
+				t.append(k, "v" + k);
+				break;
+			case 1:
+				t.pollFirst();
+				break;
+			case 2:
+				t.pollLast();
+				break;
+			case 3:
+				t.insertNear(k, "v" + k);
+				break;
+			case 4:
+				t.insertHandle(k, "v" + k);
+				break;
+			case 5:
+				h = t.handle(k);
+				if(h != null)
+				{
+					t.remove(h);
+				}
+				break;
+			case 6:
+				h = t.handle(k);
+				if(h != null)
+				{
+					t.updateKey(h, random.nextInt(400));
+				}
+				break;
+			default:
+				t.searchNear(k);
+				t.delete(k);
+			}
+		}
+		TreeMap<Integer, String> recorded = new TreeMap<Integer, String>();
+		for (int j = 0; j < trace.n; j++)
+		{
+			if(trace.ops[j] == Trace.DELETE)
+			{
+				recorded.remove(trace.keys[j]);
+			}
+			else if(trace.ops[j] == Trace.LOAD || trace.ops[j] == Trace.INSERT)
+			{
+				recorded.put(trace.keys[j], "");
+			}
+		}
+		int[] keys = t.keysToArray();
+		Invariants.check(Arrays.equals(keys, recorded.keySet().stream().mapToInt(Integer::intValue).toArray()), "the trace missed an update");
+		int pivot = keys.length == 0 ? 0 : keys[0] + 1;
+		t.evictBelow(pivot);
+		Invariants.check(trace.ops[trace.n - 1] == Trace.SPLIT && trace.keys[trace.n - 1] == pivot, "evictBelow is not recorded");
+		t.splitInto(new int[] {pivot + 50, pivot + 100});
+		Invariants.check(trace.ops[trace.n - 1] == Trace.SPLIT && trace.keys[trace.n - 1] == pivot + 100, "splitInto is not recorded");
+	}
+	
+	/**
+	 * checks that trees that share a node arena keep their values where they should when they
+	 * reuse each other's nodes: one tree keeps its values in a value arena, the other interns
+	 * them in a value pool
+	 */
+	private static void sharedNodeArena()
+	{
+		Random random = new Random(2);
+		NodeArena arena = new NodeArena(0, 1024);
+		AVLTree packed = new AVLTree();
+		packed.setValueArena(new ValueArena());
+		packed.setNodeArena(arena);
+		ValuePool pool = new ValuePool();
+		AVLTree pooled = new AVLTree();
+		pooled.setValuePool(pool);
+		pooled.setNodeArena(arena);
+		TreeMap<Integer, String> expectedPacked = new TreeMap<Integer, String>();
+		TreeMap<Integer, String> expectedPooled = new TreeMap<Integer, String>();
+		for (int op = 0; op < 20000; op++)
+		{
+			int k = random.nextInt(300);
+			boolean first = random.nextBoolean();
+			AVLTree t = first ? packed : pooled;
+			TreeMap<Integer, String> expected = first ? expectedPacked : expectedPooled;
+			if(random.nextBoolean())
+			{
+				String v = new String("v" + (k % 7)); //a new instance of a repeated value
+				if(t.insert(k, v) != -1)
+				{
+					expected.put(k, v);
+				}
+			}
+			else if(t.delete(k) != -1)
+			{
+				expected.remove(k);
+			}
+		}
+		Invariants.verify(packed, expectedPacked);
+		Invariants.verify(pooled, expectedPooled);
+		for (int k : pooled.keysToArray())
+		{
+			Invariants.check(pooled.search(k) == pool.intern(pooled.search(k)), "a value of " + k + " is not interned");
+		}
+		Invariants.check(arena.reused() > 0, "the trees did not share nodes");
+	}
+	
+	/**
+	 * checks ValuePool and ValueArena by themselves, that the trees that use them keep the
+	 * values they adopt by appendAll, join and mapValues in them, and that compactValueArena
+	 * leaves only the live values in the arena
+	 */
+	private static void valueStorage(int seed)
+	{
+		Random random = new Random(seed);
+		ValuePool pool = new ValuePool();
+		String a = pool.intern(new String("a"));
+		Invariants.check(pool.intern(new String("a")) == a && pool.value(pool.id("a")) == a, "the pool keeps two instances of a");
+		Invariants.check(pool.id("b") == 1 && pool.size() == 2, "the pool numbers its values in order");
+		ValueArena values = new ValueArena();
+		String[] added = new String[300];
+		int[] refs = new int[added.length];
+		for (int j = 0; j < added.length; j++)
+		{
+			added[j] = j == 7 ? "" : j == 9 ? "x".repeat(1 << 20) : "v\u00e9\u4e2d" + random.nextInt(); //an empty value, a value larger than a chunk, and multi-byte characters
+			refs[j] = values.add(added[j]);
+		}
+		for (int round = 0; round < 2; round++) //the second round reads the cached values
+		{
+			for (int j = 0; j < added.length; j++)
+			{
+				Invariants.check(values.get(refs[j]).equals(added[j]), "the arena changed value " + j);
+			}
+		}
+		
+		AVLTree pooled = new AVLTree();
+		pooled.setValuePool(pool);
+		AVLTree packed = new AVLTree();
+		packed.setValueArena(new ValueArena());
+		TreeMap<Integer, String> expectedPooled = new TreeMap<Integer, String>();
+		TreeMap<Integer, String> expectedPacked = new TreeMap<Integer, String>();
+		int[] keys = new int[100];
+		String[] infos = new String[keys.length];
+		for (int j = 0; j < keys.length; j++)
+		{
+			keys[j] = 2 * j;
+			infos[j] = new String("v" + (j % 5));
+			expectedPooled.put(keys[j], infos[j]);
+		}
+		pooled.appendAll(keys, infos);
+		for (int op = 0; op < 2000; op++) //churn, which leaves garbage in the arena
+		{
+			int k = random.nextInt(200);
+			if(random.nextBoolean())
+			{
+				String v = "w" + op;
+				if(packed.insert(k, v) != -1)
+				{
+					expectedPacked.put(k, v);
+				}
+			}
+			else if(packed.delete(k) != -1)
+			{
+				expectedPacked.remove(k);
+			}
+		}
+		AVLTree plain = new AVLTree(); //higher keys, kept as strings outside of any pool
+		AVLTree other = new AVLTree();
+		for (int k = 1000; k < 1100; k++)
+		{
+			plain.insert(k, new String("v" + (k % 5)));
+			other.insert(k, "u" + k);
+			expectedPooled.put(k, "v" + (k % 5));
+			expectedPacked.put(k, "u" + k);
+		}
+		pooled.join(pooled.new AVLNode(new String("v0"), 999, pooled.new AVLNode(), pooled.new AVLNode(), null), plain);
+		expectedPooled.put(999, "v0");
+		packed.join(other.new AVLNode("s", 999, other.new AVLNode(), other.new AVLNode(), null), other);
+		expectedPacked.put(999, "s");
+		Invariants.verify(pooled, expectedPooled);
+		Invariants.verify(packed, expectedPacked);
+		AVLTree mapped = pooled.mapValues(v -> new String(v));
+		for (AVLTree t : new AVLTree[] {pooled, mapped})
+		{
+			for (String v : t.infoToArray())
+			{
+				Invariants.check(pool.intern(v) == v, "a value is not interned: " + v);
+			}
+		}
+		long live = 0;
+		for (String v : expectedPacked.values())
+		{
+			live += v.length() + 1; //ascii values shorter than 128 bytes have a 1 byte prefix
+		}
+		ValueArena old = packed.getValueArena();
+		Invariants.check(old.valueBytes() > live, "the churn left no garbage");
+		packed.compactValueArena();
+		Invariants.check(packed.getValueArena() != old && packed.getValueArena().valueBytes() == live, "the compacted arena does not hold exactly the live values");
+		Invariants.verify(packed, expectedPacked);
+	}
+	
+	/**
+	 * checks the finger search against a TreeMap: insertNear and searchNear with keys close to
+	 * the last position (finger hits), beyond the min and the max of the tree (out of range),
+	 * and after the hint was moved or dropped by other updates (stale hints), and fingerPosition
+	 * from arbitrary fingers against treePosition
+	 */
+	private static void fingerSearch(int seed)
+	{
+		Random random = new Random(seed);
+		AVLTree t = new AVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		int last = 5000;
+		for (int op = 0; op < 4000; op++)
+		{
+			int choice = random.nextInt(10);
+			int k;
+			if(choice < 5) //close to the last key
+			{
+				k = Math.max(0, last + random.nextInt(41) - 20);
+			}
+			else if(choice < 7 && !expected.isEmpty()) //beyond the min or the max
+			{
+				k = random.nextBoolean() ? Math.max(0, expected.firstKey() - 1 - random.nextInt(50)) : expected.lastKey() + 1 + random.nextInt(50);
+			}
+			else
+			{
+				k = random.nextInt(10000);
+			}
+			last = k;
+			switch(random.nextInt(6))
+			{
+			case 0:
+			case 1:
+				String v = "v" + op;
+				Invariants.check((t.insertNear(k, v) == -1) == expected.containsKey(k), "insertNear of " + k);
+				expected.putIfAbsent(k, v);
+				break;
+			case 2:
+			case 3:
+				Invariants.check(Objects.equals(t.searchNear(k), expected.get(k)), "searchNear of " + k);
+				break;
+			case 4: //moves the hint, or drops it
+				if(t.delete(k) != -1)
+				{
+					expected.remove(k);
+				}
+				else
+				{
+					int newKey = random.nextInt(10000);
+					if(!expected.isEmpty() && t.updateKey(t.handle(expected.firstKey()), newKey) != -1)
+					{
+						expected.put(newKey, expected.remove(expected.firstKey()));
+					}
+				}
+				break;
+			default: //rotates the tree under the hint
+				if(t.insert(k, "w" + op) != -1)
+				{
+					expected.put(k, "w" + op);
+				}
+			}
+			if(!expected.isEmpty() && op % 10 == 0)
+			{
+				Integer near = expected.ceilingKey(random.nextInt(10000));
+				AVLTree.AVLNode finger = t.handle(near == null ? expected.lastKey() : near);
+				int probe = random.nextInt(10100) - 50;
+				Invariants.check(t.fingerPosition(finger, probe) == t.treePosition((AVLTree.AVLNode) t.getRoot(), probe), "fingerPosition of " + probe + " from " + finger.getKey());
+			}
+			if(op % 500 == 0)
+			{
+				Invariants.verify(t, expected);
+			}
+		}
+		Invariants.verify(t, expected);
+	}
+	
+	/**
+	 * random updates of a relaxed tree keep at most maxUnbalanced recorded nodes (deletions
+	 * of binary nodes included), a rebalanceStep settles at most its budget, and the
+	 * scheduler drains the recorded nodes, alone and on an executor
+	 */
+	private static void relaxedRebalancing(int seed) throws InterruptedException
+	{
+		Random random = new Random(seed);
+		AVLTree t = new AVLTree();
+		t.setRelaxedBalance(8);
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		for (int op = 0; op < 3000; op++)
+		{
+			int k = random.nextInt(500);
+			if(random.nextInt(3) == 0 && t.delete(k) != -1)
+			{
+				expected.remove(k);
+			}
+			else if(t.insert(k, "v" + k) != -1)
+			{
+				expected.put(k, "v" + k);
+			}
+			Invariants.check(t.rebalanceStep(0) <= 8, "recorded " + t.rebalanceStep(0) + " nodes, more than 8");
+		}
+		Invariants.verify(t, expected);
+		
+		t.setRelaxedBalance(100000);
+		for (int op = 0; op < 2000; op++)
+		{
+			int k = random.nextInt(2000);
+			if(random.nextBoolean() && t.delete(k) != -1)
+			{
+				expected.remove(k);
+			}
+			else if(t.insert(k, "w" + k) != -1)
+			{
+				expected.put(k, "w" + k);
+			}
+		}
+		RebalanceScheduler scheduler = new RebalanceScheduler(t, 5);
+		int left = t.rebalanceStep(0);
+		Invariants.check(left > 5, "only " + left + " recorded nodes");
+		for (int run = 0; left > 0; run++)
+		{
+			Invariants.check(run < 10000, "the scheduler does not drain the tree");
+			scheduler.run();
+			int now = t.rebalanceStep(0);
+			Invariants.check(now >= left - 5, "a run settled " + (left - now) + " nodes with a budget of 5");
+			left = now;
+		}
+		t.setRelaxedBalance(0);
+		Invariants.verify(t, expected); //checks the AVL ranks too
+		
+		t.setRelaxedBalance(100000);
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		ScheduledFuture<?> task = new RebalanceScheduler(t, 5).start(executor, 1, TimeUnit.MILLISECONDS);
+		for (int op = 0; op < 2000; op++)
+		{
+			int k = random.nextInt(2000);
+			synchronized(t)
+			{
+				if(random.nextBoolean() && t.delete(k) != -1)
+				{
+					expected.remove(k);
+				}
+				else if(t.insert(k, "x" + k) != -1)
+				{
+					expected.put(k, "x" + k);
+				}
+			}
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while(true)
+		{
+			synchronized(t)
+			{
+				if(t.rebalanceStep(0) == 0)
+				{
+					break;
+				}
+			}
+			Invariants.check(!task.isDone() && System.nanoTime() < deadline, "the scheduled rebalancing stopped");
+			Thread.sleep(1);
+		}
+		task.cancel(false);
+		executor.shutdown();
+		synchronized(t)
+		{
+			t.setRelaxedBalance(0);
+			Invariants.verify(t, expected);
+		}
+	}
+	
+	/**
+	 * evictBelow and retainRange in every mode of the tree, by keys of the tree, keys between
+	 * them and keys outside them: the parts must be valid, and nothing but the split may be
+	 * recorded in the trace
+	 */
+	private static void evictions(int seed)
+	{
+		Random random = new Random(seed);
+		for (int mode = 0; mode < 6; mode++)
+		{
+			for (int round = 0; round < 10; round++)
+			{
+				AVLTree t = newTree(mode);
+				TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+				for (int i = random.nextInt(300); i > 0; i--)
+				{
+					int k = 2 * random.nextInt(500); //even keys, so the odd ones are between them
+					t.insert(k, "v" + k);
+					expected.put(k, "v" + k);
+				}
+				Trace trace = new Trace();
+				t.setTrace(trace);
+				int loaded = trace.n; //the keys of the tree are recorded as LOAD records
+				int lo = random.nextInt(1100) - 50;
+				AVLTree below = t.evictBelow(lo);
+				Invariants.verify(below, new TreeMap<Integer, String>(expected.headMap(lo)));
+				expected = new TreeMap<Integer, String>(expected.tailMap(lo, true));
+				Invariants.verify(t, expected);
+				
+				int hi = lo + random.nextInt(600);
+				AVLTree[] removed = t.retainRange(lo, hi);
+				Invariants.check(removed[0].empty(), "retainRange evicted below lo twice");
+				Invariants.verify(removed[1], new TreeMap<Integer, String>(expected.tailMap(hi, false)));
+				expected = new TreeMap<Integer, String>(expected.headMap(hi, true));
+				for (int j = loaded; j < trace.n; j++) //a split of an empty tree is not recorded
+				{
+					Invariants.check(trace.ops[j] == Trace.SPLIT && (trace.keys[j] == lo || trace.keys[j] == hi + 1), "an eviction recorded " + Trace.NAMES[trace.ops[j]] + " " + trace.keys[j]);
+				}
+				Invariants.check(trace.n - loaded <= 3, "the evictions recorded " + (trace.n - loaded) + " splits");
+				Invariants.verify(t, expected);
+				
+				for (int j = 0; j < 50; j++) //the tree goes on working after the evictions
+				{
+					int k = random.nextInt(1000);
+					if(t.insert(k, "w" + k) != -1)
+					{
+						expected.put(k, "w" + k);
+					}
+					Invariants.check(Objects.equals(t.search(k), expected.get(k)), "search of " + k + " after the evictions");
+				}
+				Invariants.verify(t, expected);
+			}
+		}
+	}
+	
+	/**
+	 * TtlEvictor with a manual clock: every run evicts the keys older than clock() - ttl and
+	 * hands the evicted tree to the reclaimer, a bound below Integer.MIN_VALUE evicts nothing,
+	 * and the scheduled evictor keeps evicting
+	 */
+	private static void ttlEvictor() throws InterruptedException
+	{
+		AVLTree t = new AVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		for (int k = 0; k < 1000; k += 3)
+		{
+			t.insert(k, "v" + k);
+			expected.put(k, "v" + k);
+		}
+		int[] now = {Integer.MIN_VALUE + 5};
+		List<AVLTree> reclaimed = new ArrayList<AVLTree>();
+		TtlEvictor evictor = new TtlEvictor(t, 100, () -> now[0], reclaimed::add);
+		evictor.run();
+		Invariants.check(reclaimed.isEmpty(), "evicted with a bound below Integer.MIN_VALUE");
+		Invariants.verify(t, expected);
+		for (now[0] = 0; now[0] <= 1200; now[0] += 77)
+		{
+			int bound = now[0] - 100;
+			reclaimed.clear();
+			evictor.run();
+			TreeMap<Integer, String> old = new TreeMap<Integer, String>(expected.headMap(bound));
+			expected.headMap(bound).clear();
+			Invariants.check(reclaimed.size() == (old.isEmpty() ? 0 : 1), "the reclaimer received " + reclaimed.size() + " trees");
+			if(!old.isEmpty())
+			{
+				Invariants.verify(reclaimed.get(0), old);
+			}
+			Invariants.verify(t, expected);
+		}
+		Invariants.check(t.empty(), "the evictor left expired keys");
+		
+		for (int k = 0; k < 1000; k++)
+		{
+			t.insert(k, "v" + k);
+		}
+		LinkedBlockingQueue<AVLTree> queue = new LinkedBlockingQueue<AVLTree>();
+		int[] clock = {0};
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		ScheduledFuture<?> task = new TtlEvictor(t, 0, () -> clock[0] += 10, queue::add).start(executor, 1, TimeUnit.MILLISECONDS);
+		int evicted = 0;
+		while(evicted < 1000)
+		{
+			AVLTree part = queue.poll(30, TimeUnit.SECONDS);
+			Invariants.check(part != null, "the scheduled evictor stopped");
+			synchronized(part)
+			{
+				evicted += part.size();
+			}
+		}
+		task.cancel(false);
+		executor.shutdown();
+		synchronized(t)
+		{
+			Invariants.check(t.empty() && evicted == 1000, "the scheduled evictor evicted " + evicted + " items");
+		}
+	}
+	
+	/**
+	 * mapValues, filter and partition, sequential and on a pool, in every mode of the tree:
+	 * the results hold the expected items, keep the settings of the tree, and the predicate
+	 * is tested once per node
+	 */
+	private static void transforms(int seed)
+	{
+		Random random = new Random(seed);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		for (int mode = 0; mode < 6; mode++)
+		{
+			AVLTree t = newTree(mode);
+			TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+			for (int i = random.nextInt(seed % 4 == 0 ? 6000 : 300); i > 0; i--) //some trees are transformed by several tasks
+			{
+				int k = random.nextInt(10000);
+				if(t.insert(k, "v" + k) != -1)
+				{
+					expected.put(k, "v" + k);
+				}
+			}
+			int mod = random.nextInt(4) + 1;
+			TreeMap<Integer, String> mapped = new TreeMap<Integer, String>();
+			TreeMap<Integer, String> kept = new TreeMap<Integer, String>();
+			TreeMap<Integer, String> dropped = new TreeMap<Integer, String>();
+			for (Map.Entry<Integer, String> e : expected.entrySet())
+			{
+				mapped.put(e.getKey(), e.getValue() + "!");
+				(e.getKey() % mod == 0 ? kept : dropped).put(e.getKey(), e.getValue());
+			}
+			int[] tests = new int[1];
+			AVLTree.EntryPredicate predicate = (key, info) -> {
+				tests[0]++;
+				return key % mod == 0 && info.equals("v" + key);
+			};
+			for (int parallel = 0; parallel < 2; parallel++)
+			{
+				AVLTree map = parallel == 0 ? t.mapValues(v -> v + "!") : t.mapValues(pool, v -> v + "!");
+				verifyTransformed(t, map, mapped);
+				tests[0] = 0;
+				AVLTree filtered = parallel == 0 ? t.filter(predicate) : t.filter(pool, predicate);
+				Invariants.check(parallel == 1 || tests[0] == expected.size(), "filter tested " + tests[0] + " items of " + expected.size());
+				verifyTransformed(t, filtered, kept);
+				AVLTree[] parts = parallel == 0 ? t.partition(predicate) : t.partition(pool, predicate);
+				verifyTransformed(t, parts[0], kept);
+				verifyTransformed(t, parts[1], dropped);
+			}
+			Invariants.verify(t, expected);
+		}
+		pool.shutdown();
+	}
+	
+	/**
+	 * checks a result of a transform of source against expected, and that it keeps the rebalance
+	 * policy, the relaxed balance, the value storage and the key filter of source. then updates it
+	 */
+	private static void verifyTransformed(AVLTree source, AVLTree result, TreeMap<Integer, String> expected)
+	{
+		Invariants.verify(result, expected);
+		Invariants.check(result.getRebalancePolicy() == source.getRebalancePolicy(), "the policy of a transform");
+		Invariants.check(result.isRelaxedBalance() == source.isRelaxedBalance(), "the relaxed balance of a transform");
+		Invariants.check(result.getValueArena() == source.getValueArena(), "the value arena of a transform");
+		Invariants.check((result.getKeyFilter() == null) == (source.getKeyFilter() == null), "the key filter of a transform");
+		if(result.getKeyFilter() != null)
+		{
+			Invariants.check(result.getKeyFilter() != source.getKeyFilter() && result.getKeyFilter().count() == expected.size(), "the key filter of a transform is not its own");
+			for (int k : expected.keySet())
+			{
+				Invariants.check(result.getKeyFilter().mightContain(k), "the key filter of a transform misses " + k);
+			}
+		}
+		TreeMap<Integer, String> updated = new TreeMap<Integer, String>(expected);
+		for (int k = 0; k < 10000; k += 97)
+		{
+			if(result.insert(k, "u" + k) != -1)
+			{
+				updated.put(k, "u" + k);
+			}
+		}
+		Invariants.verify(result, updated);
+	}
+	
+	/**
+	 * a tree is compacted and thawed back: the CompactTree answers search, rank, select, min,
+	 * max and scans like a TreeMap of the items (keys with small and huge gaps, null infos
+	 * included), and the thawed tree holds the same items
+	 */
+	private static void compactRoundTrip(int seed)
+	{
+		Random random = new Random(seed);
+		AVLTree t = new AVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		int n = seed % 5 == 0 ? seed % 3 : random.nextInt(3000); //some trees are empty or tiny
+		for (int i = 0; i < n; i++)
+		{
+			int k = random.nextInt(4) == 0 ? random.nextInt() : random.nextInt(20000) - 10000; //dense keys and huge gaps
+			String info = random.nextInt(10) == 0 ? null : "v" + k + "-" + random.nextInt(1000);
+			if(t.insert(k, info) != -1)
+			{
+				expected.put(k, info);
+			}
+		}
+		if(seed % 2 == 1)
+		{
+			for (int k : new int[] {Integer.MIN_VALUE, Integer.MAX_VALUE})
+			{
+				if(t.insert(k, "edge") != -1)
+				{
+					expected.put(k, "edge");
+				}
+			}
+		}
+		CompactTree compact = t.compact();
+		Invariants.verify(t, expected); //compact does not change the tree
+		Invariants.check(compact.size() == expected.size() && compact.empty() == expected.isEmpty(), "size of the compact tree");
+		Invariants.check(Arrays.equals(compact.keysToArray(), t.keysToArray()), "keys of the compact tree");
+		Invariants.check(Arrays.equals(compact.infoToArray(), t.infoToArray()), "infos of the compact tree");
+		Invariants.check(Objects.equals(compact.min(), t.min()) && Objects.equals(compact.max(), t.max()), "min and max of the compact tree");
+		Integer[] keys = expected.keySet().toArray(new Integer[0]);
+		for (int j = 0; j < keys.length; j++)
+		{
+			Invariants.check(compact.select(j + 1) == keys[j], "select " + (j + 1) + " of the compact tree");
+			Invariants.check(compact.rank(keys[j]) == j, "rank of " + keys[j] + " in the compact tree");
+			Invariants.check(Objects.equals(compact.search(keys[j]), expected.get(keys[j])), "search of " + keys[j] + " in the compact tree");
+		}
+		for (int probe = 0; probe < 500; probe++)
+		{
+			int k = probe % 2 == 0 ? random.nextInt() : random.nextInt(20000) - 10000;
+			Invariants.check(compact.rank(k) == expected.headMap(k).size(), "rank of " + k + " in the compact tree");
+			Invariants.check(Objects.equals(compact.search(k), expected.get(k)), "search of " + k + " in the compact tree");
+		}
+		for (int round = 0; round < 100; round++)
+		{
+			int lo = random.nextInt(22000) - 11000;
+			int hi = round % 10 == 0 ? Integer.MAX_VALUE : lo + random.nextInt(round % 2 == 0 ? 100 : 5000) - 20;
+			if(round % 10 == 1)
+			{
+				lo = Integer.MIN_VALUE;
+			}
+			List<Integer> scannedKeys = new ArrayList<Integer>();
+			List<String> scannedInfos = new ArrayList<String>();
+			compact.scan(lo, hi, (batch, infos, length) -> {
+				for (int j = 0; j < length; j++)
+				{
+					scannedKeys.add(batch[j]);
+					scannedInfos.add(infos[j]);
+				}
+			});
+			TreeMap<Integer, String> range = lo > hi ? new TreeMap<Integer, String>() : new TreeMap<Integer, String>(expected.subMap(lo, true, hi, true));
+			Invariants.check(scannedKeys.equals(new ArrayList<Integer>(range.keySet())), "scan of [" + lo + ", " + hi + "] in the compact tree");
+			Invariants.check(scannedInfos.equals(new ArrayList<String>(range.values())), "infos of the scan of [" + lo + ", " + hi + "] in the compact tree");
+		}
+		AVLTree thawed = compact.thaw();
+		Invariants.verify(thawed, expected);
+		for (int k : keys)
+		{
+			Invariants.check(thawed.rank(k) == expected.headMap(k).size(), "rank of " + k + " in the thawed tree");
+		}
+	}
+}
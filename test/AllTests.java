@@ -0,0 +1,15 @@
+/**
+ * class AllTests
+ *
+ * Runs every test. from the root of the repository:
+ * javac -d out *.java test/*.java && java -cp out AllTests
+ */
+class AllTests {
+
+	public static void main(String[] args) throws Exception
+	{
+		AVLTreeTest.main(args);
+		EngineTest.main(args);
+		ReplicationTest.main(args);
+	}
+}
@@ -0,0 +1,600 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * class EngineTest
+ *
+ * Randomized tests of the alternative index engines against java.util.TreeMap:
+ * the OrderedIndex operations of every engine, rank and select where they exist,
+ * split and join of SplayTree, WideTree and TopDownTree, Sequence against java.util.ArrayList
+ * (also on several threads), the rectangles of RangeTree2D against a scan of its points,
+ * the range scans of AVLTree and WideTree, the replay of a trace on every engine with
+ * writeTo and readFrom of the trace, and LatencyHistogram against the sorted values.
+ */
+class EngineTest {
+
+	public static void main(String[] args) throws IOException
+	{
+		for (int seed = 0; seed < 20; seed++)
+		{
+			updates(seed, SplayTree::new);
+			updates(seed, WideTree::new);
+			updates(seed, TopDownTree::new);
+			updates(seed, AVLTree::new);
+			splitAndJoin(seed);
+			splitAndJoinAsIndex(seed, SplayTree::new);
+			splitAndJoinAsIndex(seed, WideTree::new);
+			splitAndJoinAsIndex(seed, TopDownTree::new);
+			splitAndJoinAsIndex(seed, AVLTree::new);
+			sequence(seed);
+			rangeTree2D(seed);
+			scans(seed);
+		}
+		for (int seed = 0; seed < 5; seed++)
+		{
+			traceRoundTrip(seed);
+			replays(seed);
+			latencyHistogram(seed);
+		}
+		sequencesOnThreads();
+		System.out.println("EngineTest: ok");
+	}
+
+	private static void updates(int seed, Supplier<OrderedIndex> engine)
+	{
+		Random random = new Random(seed);
+		OrderedIndex index = engine.get();
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		int range = seed % 2 == 0 ? 300 : 5000;
+		for (int op = 0; op < 3000; op++)
+		{
+			int k = random.nextInt(range);
+			int choice = random.nextInt(6);
+			if(choice < 3)
+			{
+				Invariants.check((index.insert(k, "v" + op) == -1) == expected.containsKey(k), "insert of " + k);
+				expected.putIfAbsent(k, "v" + op);
+			}
+			else if(choice < 5)
+			{
+				Invariants.check((index.delete(k) == -1) == !expected.containsKey(k), "delete of " + k);
+				expected.remove(k);
+			}
+			else
+			{
+				Invariants.check(Objects.equals(index.search(k), expected.get(k)), "search of " + k);
+				Invariants.check(index.depth(k) >= 0, "depth of " + k);
+			}
+			if(index instanceof WideTree && !expected.isEmpty() && op % 7 == 0)
+			{
+				WideTree wide = (WideTree) index;
+				Invariants.check(wide.rank(k) == expected.headMap(k).size(), "rank of " + k + " in WideTree");
+				int i = random.nextInt(expected.size()) + 1;
+				Invariants.check(wide.select(i) == (int) expected.keySet().toArray(new Integer[0])[i-1], "select in WideTree");
+			}
+			if(index instanceof TopDownTree && !expected.isEmpty() && op % 7 == 0)
+			{
+				TopDownTree topDown = (TopDownTree) index;
+				Invariants.check(topDown.rank(k) == expected.headMap(k).size(), "rank of " + k + " in TopDownTree");
+				int i = random.nextInt(expected.size()) + 1;
+				Invariants.check(topDown.select(i) == (int) expected.keySet().toArray(new Integer[0])[i-1], "select in TopDownTree");
+			}
+			if(op % 50 == 0)
+			{
+				Invariants.verify(index, expected);
+			}
+		}
+		Invariants.verify(index, expected);
+	}
+
+	private static void splitAndJoin(int seed)
+	{
+		Random random = new Random(seed);
+		for (int round = 0; round < 20; round++)
+		{
+			SplayTree splay = new SplayTree();
+			WideTree wide = new WideTree();
+			TopDownTree topDown = new TopDownTree();
+			TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+			for (int i = random.nextInt(400) + 1; i > 0; i--)
+			{
+				int k = random.nextInt(2000);
+				splay.insert(k, "v" + k);
+				wide.insert(k, "v" + k);
+				topDown.insert(k, "v" + k);
+				expected.put(k, "v" + k);
+			}
+			for (int step = 0; step < 10; step++)
+			{
+				Integer[] keys = expected.keySet().toArray(new Integer[0]);
+				int x = keys[random.nextInt(keys.length)];
+				TreeMap<Integer, String> below = new TreeMap<Integer, String>(expected.headMap(x));
+				TreeMap<Integer, String> above = new TreeMap<Integer, String>(expected.tailMap(x, false));
+				SplayTree[] splayParts = splay.split(x);
+				WideTree[] wideParts = wide.split(x);
+				TopDownTree[] topDownParts = topDown.split(x);
+				Invariants.verify(splayParts[0], below);
+				Invariants.verify(splayParts[1], above);
+				Invariants.verify(wideParts[0], below);
+				Invariants.verify(wideParts[1], above);
+				verifyTopDown(topDownParts[0], below);
+				verifyTopDown(topDownParts[1], above);
+				AVLTree separators = new AVLTree();
+				AVLTree.AVLNode separator = separators.new AVLNode("v" + x, x, separators.new AVLNode(), separators.new AVLNode(), null);
+				if(random.nextBoolean())
+				{
+					splayParts[0].join(separator, splayParts[1]);
+					wideParts[0].join(separator, wideParts[1]);
+					topDownParts[0].join(separator, topDownParts[1]);
+					splay = splayParts[0];
+					wide = wideParts[0];
+					topDown = topDownParts[0];
+				}
+				else
+				{
+					splayParts[1].join(separator, splayParts[0]);
+					wideParts[1].join(separator, wideParts[0]);
+					topDownParts[1].join(separator, topDownParts[0]);
+					splay = splayParts[1];
+					wide = wideParts[1];
+					topDown = topDownParts[1];
+				}
+				Invariants.verify(splay, expected);
+				Invariants.verify(wide, expected);
+				verifyTopDown(topDown, expected);
+			}
+		}
+	}
+	
+	/**
+	 * split and join through the OrderedIndex interface, and a join with another engine
+	 */
+	private static void splitAndJoinAsIndex(int seed, Supplier<OrderedIndex> engine)
+	{
+		Random random = new Random(seed);
+		OrderedIndex index = engine.get();
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		for (int i = random.nextInt(400) + 1; i > 0; i--)
+		{
+			int k = random.nextInt(2000);
+			index.insert(k, "v" + k);
+			expected.put(k, "v" + k);
+		}
+		for (int step = 0; step < 10; step++)
+		{
+			Integer[] keys = expected.keySet().toArray(new Integer[0]);
+			int x = keys[random.nextInt(keys.length)];
+			OrderedIndex[] parts = index.split(x);
+			Invariants.verify(parts[0], new TreeMap<Integer, String>(expected.headMap(x)));
+			Invariants.verify(parts[1], new TreeMap<Integer, String>(expected.tailMap(x, false)));
+			index = parts[random.nextInt(2)];
+			OrderedIndex other = index == parts[0] ? parts[1] : parts[0];
+			AVLTree separators = index instanceof AVLTree ? (AVLTree) index : new AVLTree(); //an AVLTree takes the node itself
+			index.join(separators.new AVLNode("v" + x, x, separators.new AVLNode(), separators.new AVLNode(), null), other);
+			Invariants.verify(index, expected);
+		}
+		OrderedIndex stranger = index instanceof SplayTree ? new WideTree() : new SplayTree();
+		boolean thrown = false;
+		try
+		{
+			index.join(new AVLTree().new AVLNode("v", -1, null, null, null), stranger);
+		}
+		catch(IllegalArgumentException e)
+		{
+			thrown = true;
+		}
+		Invariants.check(thrown, index.getClass().getName() + " joined another engine");
+		Invariants.verify(index, expected);
+	}
+	
+	/**
+	 * checks a TopDownTree against expected: its items, its ranks, and that no search is
+	 * deeper than an AVL tree of its size can be. then updates it, so the balance factors
+	 * left by split and join are used
+	 */
+	private static void verifyTopDown(TopDownTree tree, TreeMap<Integer, String> expected)
+	{
+		Invariants.verify(tree, expected);
+		int limit = (int) (1.45 * Math.log(expected.size() + 2) / Math.log(2)) + 1;
+		int rank = 0;
+		for (int k : expected.keySet())
+		{
+			Invariants.check(tree.depth(k) <= limit, "depth " + tree.depth(k) + " of " + k + " in a TopDownTree of " + expected.size());
+			Invariants.check(tree.rank(k) == rank && tree.select(++rank) == k, "rank of " + k + " in TopDownTree");
+		}
+		Integer k = expected.isEmpty() ? null : expected.firstKey();
+		if(k != null)
+		{
+			Invariants.check(tree.delete(k) != -1 && tree.insert(k, expected.get(k)) != -1, "update of " + k + " in TopDownTree");
+			Invariants.verify(tree, expected);
+		}
+	}
+
+	/**
+	 * the sequence test on several threads at once, each with its own sequences
+	 */
+	private static void sequencesOnThreads()
+	{
+		Thread[] threads = new Thread[4];
+		Throwable[] failures = new Throwable[threads.length];
+		for (int t = 0; t < threads.length; t++)
+		{
+			int id = t;
+			threads[t] = new Thread(() -> {
+				try
+				{
+					for (int seed = 0; seed < 5; seed++)
+					{
+						sequence(100 * id + seed);
+					}
+				}
+				catch(Throwable e)
+				{
+					failures[id] = e;
+				}
+			});
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++)
+		{
+			try
+			{
+				threads[t].join();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("the sequence threads were interrupted", e);
+			}
+			if(failures[t] != null)
+			{
+				throw new AssertionError("sequence thread " + t + " failed", failures[t]);
+			}
+		}
+	}
+	
+	/**
+	 * the positional updates, subList and concat of Sequence against an ArrayList
+	 */
+	private static void sequence(int seed)
+	{
+		Random random = new Random(seed);
+		Sequence sequence = Sequence.of("a", "b", "c");
+		List<String> expected = new ArrayList<String>(Arrays.asList("a", "b", "c"));
+		for (int op = 0; op < 3000; op++)
+		{
+			int choice = random.nextInt(8);
+			if(choice < 3 || expected.isEmpty())
+			{
+				int index = random.nextInt(expected.size() + 1);
+				sequence.insertAt(index, "v" + op);
+				expected.add(index, "v" + op);
+			}
+			else if(choice < 5)
+			{
+				int index = random.nextInt(expected.size());
+				Invariants.check(sequence.removeAt(index).equals(expected.remove(index)), "removeAt " + index);
+			}
+			else if(choice == 5)
+			{
+				int index = random.nextInt(expected.size());
+				Invariants.check(sequence.set(index, "s" + op).equals(expected.set(index, "s" + op)), "set " + index);
+			}
+			else //a range is moved out and concatenated back at the end
+			{
+				int to = random.nextInt(expected.size() + 1);
+				int from = random.nextInt(to + 1);
+				Sequence range = sequence.subList(from, to);
+				List<String> moved = new ArrayList<String>(expected.subList(from, to));
+				expected.subList(from, to).clear();
+				Invariants.check(Arrays.asList(range.toArray()).equals(moved), "subList " + from + ".." + to);
+				sequence.concat(range);
+				expected.addAll(moved);
+				Invariants.check(range.empty(), "concat did not empty the other sequence");
+			}
+			Invariants.check(sequence.size() == expected.size(), "size of the sequence");
+			if(op % 50 == 0)
+			{
+				Invariants.check(Arrays.asList(sequence.toArray()).equals(expected), "values of the sequence");
+				for (int j = 0; j < expected.size(); j += 7)
+				{
+					Invariants.check(sequence.get(j).equals(expected.get(j)), "get " + j);
+				}
+			}
+		}
+		Invariants.check(Arrays.asList(sequence.toArray()).equals(expected), "values of the sequence");
+	}
+	
+	/**
+	 * random insertions and deletions of points (some with null infos), then the count and
+	 * report of random rectangles against a scan of the points
+	 */
+	private static void rangeTree2D(int seed)
+	{
+		Random random = new Random(seed);
+		RangeTree2D tree = new RangeTree2D();
+		HashMap<Long, String> expected = new HashMap<Long, String>(); //(x << 32) + y, as the coordinates are small
+		int side = seed % 2 == 0 ? 20 : 200;
+		for (int op = 0; op < 3000; op++)
+		{
+			int x = random.nextInt(side) - side / 2;
+			int y = random.nextInt(side) - side / 2;
+			long point = ((long) x << 32) + y;
+			if(random.nextInt(5) < 3)
+			{
+				String info = random.nextInt(4) == 0 ? null : "v" + op;
+				boolean added = !expected.containsKey(point); //putIfAbsent would replace a null info
+				Invariants.check(tree.insert(x, y, info) == added, "insert of (" + x + ", " + y + ")");
+				if(added)
+				{
+					expected.put(point, info);
+				}
+			}
+			else
+			{
+				Invariants.check(tree.delete(x, y) == expected.containsKey(point), "delete of (" + x + ", " + y + ")");
+				expected.remove(point);
+			}
+			Invariants.check(tree.size() == expected.size(), "size of the range tree");
+			if(op % 10 == 0)
+			{
+				int x1 = random.nextInt(side) - side / 2;
+				int x2 = x1 + random.nextInt(side / 2);
+				int y1 = random.nextInt(side) - side / 2;
+				int y2 = y1 + random.nextInt(side / 2);
+				HashMap<Long, String> inside = new HashMap<Long, String>();
+				for (Map.Entry<Long, String> e : expected.entrySet())
+				{
+					int py = (int) (long) e.getKey();
+					int px = (int) ((e.getKey() - py) >> 32);
+					if(x1 <= px && px <= x2 && y1 <= py && py <= y2)
+					{
+						inside.put(e.getKey(), e.getValue());
+					}
+				}
+				Invariants.check(tree.count(x1, x2, y1, y2) == inside.size(), "count of a rectangle");
+				HashMap<Long, String> reported = new HashMap<Long, String>();
+				int n = tree.report(x1, x2, y1, y2, (px, py, info) -> {
+					Invariants.check(!reported.containsKey(((long) px << 32) + py), "(" + px + ", " + py + ") reported twice");
+					reported.put(((long) px << 32) + py, info);
+				});
+				Invariants.check(n == inside.size() && reported.equals(inside), "report of a rectangle");
+				Invariants.check(Objects.equals(tree.search(x, y), expected.get(point)), "search of (" + x + ", " + y + ")");
+			}
+		}
+	}
+	
+	/**
+	 * the range scans of AVLTree and WideTree against the sub maps of a TreeMap
+	 */
+	private static void scans(int seed)
+	{
+		Random random = new Random(seed);
+		AVLTree avl = new AVLTree();
+		WideTree wide = new WideTree();
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		for (int i = random.nextInt(2000); i > 0; i--)
+		{
+			int k = random.nextInt(5000);
+			avl.insert(k, "v" + k);
+			wide.insert(k, "v" + k);
+			expected.put(k, "v" + k);
+		}
+		for (int round = 0; round < 200; round++)
+		{
+			int lo = random.nextInt(5200) - 100;
+			int hi = lo + random.nextInt(round % 2 == 0 ? 50 : 2000) - 10; //some ranges are empty
+			List<Integer> keys = lo > hi ? new ArrayList<Integer>() : new ArrayList<Integer>(expected.subMap(lo, true, hi, true).keySet());
+			Invariants.check(scanned(avl::scan, lo, hi).equals(keys), "AVLTree scan of [" + lo + ", " + hi + "]");
+			Invariants.check(scanned(wide::scan, lo, hi).equals(keys), "WideTree scan of [" + lo + ", " + hi + "]");
+		}
+	}
+	
+	/**
+	 * returns the keys a scanner passes for [lo, hi], checking their infos
+	 */
+	private static List<Integer> scanned(EngineBenchmark.Scanner scanner, int lo, int hi)
+	{
+		List<Integer> keys = new ArrayList<Integer>();
+		scanner.scan(lo, hi, (batch, infos, length) -> {
+			Invariants.check(length > 0, "an empty batch");
+			for (int j = 0; j < length; j++)
+			{
+				Invariants.check(infos[j].equals("v" + batch[j]), "info of " + batch[j]);
+				keys.add(batch[j]);
+			}
+		});
+		return keys;
+	}
+	
+	/**
+	 * returns a trace of random calls on a tree that starts with loaded keys: inserts, deletes
+	 * and searches, splits that are joined back, and joins of trees above the tree,
+	 * with the keys the tree holds at the end in keys[0]
+	 */
+	private static Trace recordedTrace(int seed, int[][] keys)
+	{
+		Random random = new Random(seed);
+		AVLTree t = new AVLTree();
+		for (int k = 0; k < 200; k += 2)
+		{
+			t.insert(k, "v" + k);
+		}
+		Trace trace = new Trace();
+		t.setTrace(trace);
+		for (int op = 0; op < 1500; op++)
+		{
+			int k = random.nextInt(1000);
+			int choice = random.nextInt(50);
+			if(choice == 0 && !t.empty()) //split at a key of the tree, and join the parts back
+			{
+				int[] present = t.keysToArray();
+				int x = present[random.nextInt(present.length)];
+				AVLTree[] parts = t.split(x);
+				parts[0].join(parts[0].new AVLNode("v" + x, x, parts[0].new AVLNode(), parts[0].new AVLNode(), null), parts[1]);
+				t.become(parts[0]);
+			}
+			else if(choice == 1) //join a few keys above the tree
+			{
+				int[] present = t.keysToArray();
+				int x = present.length == 0 ? 0 : present[present.length - 1] + 1;
+				AVLTree other = new AVLTree();
+				for (int i = random.nextInt(5); i >= 0; i--)
+				{
+					int y = x + 1 + random.nextInt(20);
+					other.insert(y, "v" + y);
+				}
+				t.join(t.new AVLNode("v" + x, x, t.new AVLNode(), t.new AVLNode(), null), other);
+			}
+			else if(choice < 25)
+			{
+				t.insert(k, "v" + k);
+			}
+			else if(choice < 40)
+			{
+				t.delete(k);
+			}
+			else
+			{
+				t.search(k);
+			}
+		}
+		keys[0] = t.keysToArray();
+		return trace;
+	}
+	
+	/**
+	 * writeTo and readFrom of a recorded trace, and readFrom of corrupt traces
+	 */
+	private static void traceRoundTrip(int seed) throws IOException
+	{
+		Trace trace = recordedTrace(seed, new int[1][]);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		trace.writeTo(Channels.newChannel(out));
+		byte[] data = out.toByteArray();
+		Trace read = Trace.readFrom(Channels.newChannel(new ByteArrayInputStream(data)));
+		Invariants.check(read.size() == trace.size(), "size of the read trace");
+		for (int j = 0; j < trace.n; j++)
+		{
+			Invariants.check(read.ops[j] == trace.ops[j] && read.keys[j] == trace.keys[j], "record " + j + " of the read trace");
+		}
+		Invariants.check(read.joined.size() == trace.joined.size(), "number of joins of the read trace");
+		for (int j = 0; j < trace.joined.size(); j++)
+		{
+			Invariants.check(Arrays.equals(read.joined.get(j), trace.joined.get(j)), "keys of join " + j + " of the read trace");
+		}
+		for (byte op = Trace.INSERT; op <= Trace.JOIN; op++)
+		{
+			Invariants.check(read.recordedNanos(op) == trace.recordedNanos(op), "recorded time of " + Trace.NAMES[op]);
+		}
+		byte[] corrupt = data.clone();
+		corrupt[0] ^= 1;
+		rejectedTrace(corrupt, "a wrong magic number");
+		corrupt = data.clone();
+		corrupt[8] = 9; //the operation of the first record, after the magic number and the count
+		rejectedTrace(corrupt, "an unknown operation");
+		rejectedTrace(Arrays.copyOf(data, data.length - 1), "a trace without its end");
+	}
+	
+	/**
+	 * checks that Trace.readFrom rejects data with an IOException
+	 */
+	private static void rejectedTrace(byte[] data, String what)
+	{
+		try
+		{
+			Trace.readFrom(Channels.newChannel(new ByteArrayInputStream(data)));
+			throw new AssertionError(what + " was accepted");
+		}
+		catch (IOException e) //expected
+		{
+		}
+	}
+	
+	/**
+	 * replays a recorded trace on every engine: with one thread every call is replayed and the
+	 * index ends with the keys of the recorded tree, with several threads the splits and joins
+	 * are skipped and every other call is replayed
+	 */
+	private static void replays(int seed)
+	{
+		int[][] keys = new int[1][];
+		Trace trace = recordedTrace(seed, keys);
+		long[] counts = new long[Trace.NAMES.length];
+		for (int j = 0; j < trace.n; j++)
+		{
+			counts[trace.ops[j]]++;
+		}
+		long calls = trace.n - counts[Trace.LOAD];
+		List<Supplier<OrderedIndex>> engines = Arrays.asList(SplayTree::new, WideTree::new, TopDownTree::new, AVLTree::new);
+		for (Supplier<OrderedIndex> engine : engines)
+		{
+			OrderedIndex[] replayed = new OrderedIndex[1];
+			TraceReplay.Result result = TraceReplay.run(trace, () -> {
+				OrderedIndex index = engine.get();
+				if(replayed[0] == null) //the first index of the replay is the replayed one, the others are joined into it
+				{
+					replayed[0] = index;
+				}
+				return index;
+			}, 1);
+			String name = replayed[0].getClass().getName();
+			Invariants.check(Arrays.equals(replayed[0].keysToArray(), keys[0]), "keys after the replay on " + name);
+			Invariants.check(result.ops == calls && result.skipped == 0, "replayed calls on " + name);
+			for (byte op = Trace.INSERT; op <= Trace.JOIN; op++)
+			{
+				Invariants.check(result.latencies[op].count() == counts[op], "latencies of " + Trace.NAMES[op] + " on " + name);
+			}
+			result = TraceReplay.run(trace, engine, 3);
+			Invariants.check(result.skipped == counts[Trace.SPLIT] + counts[Trace.JOIN], "skipped calls on threads on " + name);
+			Invariants.check(result.ops + result.skipped == calls, "replayed calls on threads on " + name);
+			Invariants.check(result.latencies[Trace.SPLIT].count() == 0 && result.latencies[Trace.JOIN].count() == 0, "split or join on threads on " + name);
+		}
+	}
+	
+	/**
+	 * the count, mean, max and percentiles of a histogram against the sorted values, also
+	 * after adding two histograms, which should equal the histogram of all their values
+	 */
+	private static void latencyHistogram(int seed)
+	{
+		Random random = new Random(seed);
+		LatencyHistogram empty = new LatencyHistogram();
+		Invariants.check(empty.count() == 0 && empty.mean() == 0 && empty.percentile(50) == 0 && empty.max() == 0, "empty histogram");
+		LatencyHistogram first = new LatencyHistogram();
+		LatencyHistogram second = new LatencyHistogram();
+		LatencyHistogram all = new LatencyHistogram();
+		int n = 1 + random.nextInt(5000);
+		long[] values = new long[n];
+		long sum = 0;
+		for (int j = 0; j < n; j++)
+		{
+			long v = random.nextInt(10) == 0 ? -random.nextInt(100) : (long) Math.pow(2, random.nextDouble() * 40); //from 0 to about 10^12, some negative
+			(j % 2 == 0 ? first : second).record(v);
+			all.record(v);
+			values[j] = Math.max(v, 0);
+			sum += values[j];
+		}
+		first.add(second);
+		Arrays.sort(values);
+		Invariants.check(first.count() == n && first.max() == values[n - 1] && first.mean() == (double) sum / n, "count, max and mean");
+		for (double p : new double[] {0.1, 1, 25, 50, 90, 99, 99.9, 100})
+		{
+			long exact = values[(int) Math.max(Math.ceil(p / 100 * n), 1) - 1];
+			long found = first.percentile(p);
+			Invariants.check(found == all.percentile(p), "percentile " + p + " of added histograms");
+			Invariants.check(found >= exact && found <= exact + exact / 16, "percentile " + p + ": " + found + " for " + exact);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * class Invariants
+ *
+ * Checks shared by the tests: the structure of an AVLTree (order, parents, sizes and ranks)
+ * and its contents against a TreeMap that received the same operations.
+ */
+class Invariants {
+	
+	/**
+	 * throws AssertionError with message unless condition holds
+	 */
+	static void check(boolean condition, String message)
+	{
+		if(!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+	
+	/**
+	 * checks the structure of t and that it holds exactly the items of expected.
+	 * the ranks are checked only when the tree has no deferred rebalancing.
+	 */
+	static void verify(AVLTree t, TreeMap<Integer, String> expected)
+	{
+		if(!t.empty())
+		{
+			boolean ranks = !t.isRelaxedBalance();
+			boolean weak = t.getRebalancePolicy() == AVLTree.RebalancePolicy.WAVL;
+			verify(t.getRoot(), null, Long.MIN_VALUE, Long.MAX_VALUE, ranks, weak);
+		}
+		check(t.size() == expected.size(), "size " + t.size() + " instead of " + expected.size());
+		int[] keys = new int[expected.size()];
+		String[] infos = new String[expected.size()];
+		int i = 0;
+		for (Map.Entry<Integer, String> e : expected.entrySet())
+		{
+			keys[i] = e.getKey();
+			infos[i++] = e.getValue();
+		}
+		check(Arrays.equals(t.keysToArray(), keys), "keys " + Arrays.toString(t.keysToArray()) + " instead of " + Arrays.toString(keys));
+		check(Arrays.equals(t.infoToArray(), infos), "infos differ");
+		check(Objects.equals(t.min(), expected.isEmpty() ? null : expected.firstEntry().getValue()), "min");
+		check(Objects.equals(t.max(), expected.isEmpty() ? null : expected.lastEntry().getValue()), "max");
+	}
+	
+	/**
+	 * checks the subtree of node and returns its size
+	 */
+	private static int verify(AVLTree.IAVLNode node, AVLTree.IAVLNode parent, long lo, long hi, boolean ranks, boolean weak)
+	{
+		if(!node.isRealNode())
+		{
+			check(node.getHeight() == -1 && node.getSize() == 0, "virtual node with height " + node.getHeight());
+			return 0;
+		}
+		int key = node.getKey();
+		check(node.getParent() == parent, "parent of " + key);
+		check(lo < key && key < hi, "order at " + key);
+		int size = verify(node.getLeft(), node, lo, key, ranks, weak) + verify(node.getRight(), node, key, hi, ranks, weak) + 1;
+		check(node.getSize() == size, "size of " + key);
+		if(ranks)
+		{
+			int left = node.getHeight() - node.getLeft().getHeight();
+			int right = node.getHeight() - node.getRight().getHeight();
+			boolean leaf = !node.getLeft().isRealNode() && !node.getRight().isRealNode();
+			if(weak)
+			{
+				check(left >= 1 && left <= 2 && right >= 1 && right <= 2 && (!leaf || (left == 1 && right == 1)), "WAVL ranks at " + key);
+			}
+			else
+			{
+				check((left == 1 && right == 1) || (left == 1 && right == 2) || (left == 2 && right == 1), "AVL ranks at " + key);
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * checks that an engine holds exactly the items of expected
+	 */
+	static void verify(OrderedIndex index, TreeMap<Integer, String> expected)
+	{
+		check(index.size() == expected.size(), "size " + index.size() + " instead of " + expected.size());
+		check(index.empty() == expected.isEmpty(), "empty");
+		int[] keys = expected.keySet().stream().mapToInt(Integer::intValue).toArray();
+		check(Arrays.equals(index.keysToArray(), keys), "keys differ");
+		check(Arrays.equals(index.infoToArray(), expected.values().toArray(new String[0])), "infos differ");
+		check(Objects.equals(index.min(), expected.isEmpty() ? null : expected.firstEntry().getValue()), "min");
+		check(Objects.equals(index.max(), expected.isEmpty() ? null : expected.lastEntry().getValue()), "max");
+	}
+}
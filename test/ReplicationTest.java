@@ -0,0 +1,268 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * class ReplicationTest
+ *
+ * Randomized tests of the change feed: a Follower that applies the changes of a tree
+ * must end up with the same items, directly from the feed and through a channel.
+ */
+class ReplicationTest {
+
+	public static void main(String[] args) throws IOException
+	{
+		for (int seed = 0; seed < 20; seed++)
+		{
+			follow(seed, false);
+			follow(seed, true);
+		}
+		splitIntoAbsentPivots(false);
+		splitIntoAbsentPivots(true);
+		for (int seed = 0; seed < 10; seed++)
+		{
+			concatAllPublishesOnce(seed, seed % 2 == 1);
+			concatAllEntries(seed, seed % 2 == 1);
+		}
+		System.out.println("ReplicationTest: ok");
+	}
+
+	/**
+	 * checks that the replica has the items and entries of primary
+	 */
+	static void same(AVLTree primary, AVLTree replica)
+	{
+		Invariants.check(Arrays.equals(primary.keysToArray(), replica.keysToArray()), "replica keys differ");
+		Invariants.check(Arrays.equals(primary.infoToArray(), replica.infoToArray()), "replica infos differ");
+		Invariants.check(primary.entries() == replica.entries(), "replica entries differ");
+		for (int k : primary.keysToArray())
+		{
+			Invariants.check(Arrays.equals(primary.valuesOf(k), replica.valuesOf(k)), "replica entries of " + k + " differ");
+			Invariants.check(primary.handle(k).getEnd() == replica.handle(k).getEnd(), "replica end of " + k + " differs");
+		}
+	}
+
+	/**
+	 * applies random changes to a tree with a feed, and pulls them into a follower after every few
+	 */
+	private static void follow(int seed, boolean throughChannel) throws IOException
+	{
+		Random random = new Random(seed);
+		AVLTree primary = new AVLTree();
+		ChangeFeed feed = new ChangeFeed(1 << 16);
+		primary.setChangeFeed(feed);
+		Follower follower = new Follower(new AVLTree(), 0);
+		int nextKey = 100000; //keys above all the others, for joins
+		for (int op = 0; op < 2000; op++)
+		{
+			int k = random.nextInt(1000);
+			switch(random.nextInt(10))
+			{
+			case 0:
+			case 1:
+			case 2:
+				primary.insert(k, "v" + op);
+				break;
+			case 3:
+				if(primary.handle(k) == null)
+				{
+					primary.insertInterval(k, k + random.nextInt(50), "i" + op);
+				}
+				break;
+			case 4:
+				primary.addAll(k, "a" + op, "b" + op);
+				break;
+			case 5:
+				primary.removeOne(k);
+				break;
+			case 6:
+			case 7:
+				primary.delete(k);
+				break;
+			case 8:
+				AVLTree.AVLNode handle = primary.handle(k);
+				if(handle != null && primary.handle(k + 1) == null)
+				{
+					primary.updateKey(handle, k + 1);
+				}
+				break;
+			default:
+				if(random.nextInt(4) == 0)
+				{
+					AVLTree t = new AVLTree();
+					for (int i = random.nextInt(20); i > 0; i--)
+					{
+						t.insert(nextKey + 1 + random.nextInt(100), "j" + op);
+					}
+					primary.join(primary.new AVLNode("s" + op, nextKey, primary.new AVLNode(), primary.new AVLNode(), null), t);
+					nextKey += 1000;
+				}
+				else if(random.nextInt(4) == 0)
+				{
+					primary.evictBelow(random.nextInt(50));
+				}
+			}
+			if(random.nextInt(5) == 0)
+			{
+				pull(follower, feed, throughChannel);
+				same(primary, follower.getReplica());
+			}
+		}
+		pull(follower, feed, throughChannel);
+		same(primary, follower.getReplica());
+		int[] keys = primary.keysToArray();
+		AVLTree[] parts;
+		if(keys.length > 0 && random.nextBoolean())
+		{
+			parts = primary.split(keys[random.nextInt(keys.length)]);
+		}
+		else //pivots that may or may not be keys of the tree
+		{
+			int[] pivots = new int[random.nextInt(6)];
+			for (int j = 0; j < pivots.length; j++)
+			{
+				pivots[j] = random.nextInt(1100);
+			}
+			Arrays.sort(pivots);
+			parts = primary.splitInto(pivots);
+		}
+		pull(follower, feed, throughChannel);
+		sameParts(parts, follower.lastSplit());
+	}
+	
+	static void sameParts(AVLTree[] parts, AVLTree[] replicas)
+	{
+		Invariants.check(parts.length == replicas.length, replicas.length + " replica parts instead of " + parts.length);
+		for (int j = 0; j < parts.length; j++)
+		{
+			same(parts[j], replicas[j]);
+		}
+	}
+	
+	/**
+	 * splitInto by pivots that are not keys of the tree
+	 */
+	private static void splitIntoAbsentPivots(boolean throughChannel) throws IOException
+	{
+		AVLTree primary = new AVLTree();
+		ChangeFeed feed = new ChangeFeed(64);
+		primary.setChangeFeed(feed);
+		Follower follower = new Follower(new AVLTree(), 0);
+		for (int k = 0; k < 20; k += 2)
+		{
+			primary.insert(k, "v" + k);
+		}
+		AVLTree[] parts = primary.splitInto(new int[] {5, 11});
+		pull(follower, feed, throughChannel);
+		sameParts(parts, follower.lastSplit());
+		Invariants.check(Arrays.equals(follower.lastSplit()[0].keysToArray(), new int[] {0, 2, 4}), "first part of splitInto");
+	}
+
+	/**
+	 * concatAll publishes one join to the feed of the first tree, and nothing to the feeds
+	 * of the other trees, sequentially and with a pool
+	 */
+	private static void concatAllPublishesOnce(int seed, boolean parallel) throws IOException
+	{
+		Random random = new Random(seed);
+		AVLTree primary = new AVLTree();
+		ChangeFeed feed = new ChangeFeed(64);
+		primary.setChangeFeed(feed);
+		Follower follower = new Follower(new AVLTree(), 0);
+		for (int i = random.nextInt(30); i > 0; i--)
+		{
+			primary.insert(random.nextInt(1000), "v" + i);
+		}
+		pull(follower, feed, false);
+		AVLTree[] trees = new AVLTree[2 + random.nextInt(20)];
+		trees[0] = primary;
+		ChangeFeed otherFeed = new ChangeFeed(64);
+		for (int j = 1; j < trees.length; j++)
+		{
+			trees[j] = new AVLTree();
+			trees[j].setChangeFeed(otherFeed);
+			for (int i = random.nextInt(30); i > 0; i--)
+			{
+				trees[j].insert(1000 * j + random.nextInt(1000), "v" + i);
+			}
+		}
+		long before = feed.lastSequence();
+		long otherBefore = otherFeed.lastSequence();
+		int rest = 0; //the number of items of the other trees
+		for (int j = 1; j < trees.length; j++)
+		{
+			rest += trees[j].size();
+		}
+		int size = primary.size() + rest;
+		AVLTree result = parallel ? AVLTree.concatAll(ForkJoinPool.commonPool(), trees) : AVLTree.concatAll(trees);
+		Invariants.check(result == primary && result.size() == size, "concatAll did not concatenate into the first tree");
+		Invariants.check(feed.lastSequence() - before == (rest > 0 ? 1 : 0), (feed.lastSequence() - before) + " changes published by concatAll");
+		Invariants.check(otherFeed.lastSequence() == otherBefore, "concatAll published to the feeds of the other trees");
+		pull(follower, feed, random.nextBoolean());
+		same(primary, follower.getReplica());
+	}
+	
+	/**
+	 * concatAll of trees whose keys have several entries: the separators of the joins are
+	 * the minimal keys of the trees, and the replica must get all their entries
+	 */
+	private static void concatAllEntries(int seed, boolean parallel) throws IOException
+	{
+		Random random = new Random(seed);
+		AVLTree primary = new AVLTree();
+		ChangeFeed feed = new ChangeFeed(1024);
+		primary.setChangeFeed(feed);
+		Follower follower = new Follower(new AVLTree(), 0);
+		for (int i = random.nextInt(10); i > 0; i--)
+		{
+			primary.addAll(random.nextInt(100), "p" + i, "q" + i);
+		}
+		AVLTree[] trees = new AVLTree[2 + random.nextInt(12)];
+		trees[0] = primary;
+		for (int j = 1; j < trees.length; j++)
+		{
+			trees[j] = new AVLTree();
+			trees[j].addAll(100 * j, "m" + j, "n" + j, "o" + j); //the minimum of every tree has several entries
+			for (int i = random.nextInt(10); i > 0; i--)
+			{
+				int k = 100 * j + 1 + random.nextInt(99);
+				if(random.nextBoolean())
+				{
+					trees[j].addAll(k, "a" + i, "b" + i);
+				}
+				else
+				{
+					trees[j].insertInterval(k, k + random.nextInt(50), "i" + i);
+				}
+			}
+		}
+		int entries = 0;
+		for (AVLTree t : trees)
+		{
+			entries += t.entries();
+		}
+		AVLTree result = parallel ? AVLTree.concatAll(ForkJoinPool.commonPool(), trees) : AVLTree.concatAll(trees);
+		Invariants.check(result.entries() == entries, "concatAll kept " + result.entries() + " of " + entries + " entries");
+		pull(follower, feed, random.nextBoolean());
+		same(primary, follower.getReplica());
+	}
+	
+	static void pull(Follower follower, ChangeFeed feed, boolean throughChannel) throws IOException
+	{
+		if(!throughChannel)
+		{
+			while(follower.pull(feed, 64) > 0)
+			{
+			}
+			return;
+		}
+		Change[] changes = feed.poll(follower.lastApplied(), Integer.MAX_VALUE);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ChangeFeed.writeBatch(changes, Channels.newChannel(out));
+		follower.pull(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())));
+	}
+}